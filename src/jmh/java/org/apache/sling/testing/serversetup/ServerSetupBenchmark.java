@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmark the ServerSetup phases bookkeeping with many no-op phases,
+ *  half of them startup phases and half shutdown phases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ServerSetupBenchmark {
+
+    @Param({ "10", "500" })
+    public int phases;
+
+    private ServerSetup setup;
+    private Properties config;
+
+    private static class NoopPhase implements SetupPhase {
+        private final String id;
+        private final boolean startup;
+
+        NoopPhase(String id, boolean startup) {
+            this.id = id;
+            this.startup = startup;
+        }
+
+        public void run(ServerSetup owner) {
+        }
+
+        public boolean isStartupPhase() {
+            return startup;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        setup = new ServerSetup();
+        final StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < phases; i++) {
+            final boolean startup = i < phases / 2;
+            final String id = "phase" + i + (startup ? "" : ServerSetup.SHUTDOWN_ID_SUFFIX);
+            setup.addSetupPhase(new NoopPhase(id, startup));
+            if (ids.length() > 0) {
+                ids.append(", ");
+            }
+            ids.append(id);
+        }
+        config = new Properties();
+        config.setProperty(ServerSetup.PHASES_TO_RUN_PROP, ids.toString());
+    }
+
+    /** Our ServerSetup is reused, as each one adds a shutdown hook,
+     *  setConfig resets the phases that already ran.
+     */
+    @Benchmark
+    public ServerSetup runAllPhases() throws Exception {
+        setup.setConfig(config);
+        setup.setupTestServer();
+        setup.shutdown();
+        return setup;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of the SlingTestBase code that runs for every test class
+ *  or every readiness check, against a large configuration. Uses an
+ *  external server URL, so no server is started or contacted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SlingTestBaseBenchmark {
+
+    /** Number of unrelated properties, as found in large System properties */
+    @Param({ "100", "10000" })
+    public int otherProperties;
+
+    /** Number of files in the additional bundles folder */
+    @Param({ "2000" })
+    public int bundleFiles;
+
+    private static final int INSTANCES = 4;
+    private static final int READY_PATHS = 20;
+    private static final int BUNDLE_PREFIXES = 50;
+
+    private Properties props;
+    private Properties layered;
+    private String [] instanceNames;
+    private SlingInstanceState state;
+    private SlingTestBase base;
+    private File bundlesFolder;
+    private List<String> readySpecs;
+    private URI readyUri;
+
+    @Setup
+    public void setup() throws Exception {
+        bundlesFolder = File.createTempFile(getClass().getSimpleName(), "");
+        bundlesFolder.delete();
+        bundlesFolder.mkdirs();
+        for (int i = 0; i < bundleFiles; i++) {
+            new File(bundlesFolder, "org.example.bundle" + i + "-1.0." + i + ".jar").createNewFile();
+        }
+
+        props = new Properties();
+        for (int i = 0; i < otherProperties; i++) {
+            props.setProperty("some.other.property." + i, "value" + i);
+        }
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4502");
+        props.setProperty(SlingTestBase.ADDITONAL_BUNDLES_PATH, bundlesFolder.getAbsolutePath());
+        for (int i = 0; i < BUNDLE_PREFIXES; i++) {
+            props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + "." + i, "org.example.bundle" + (i * 7));
+        }
+        readySpecs = new ArrayList<String>();
+        for (int i = 0; i < READY_PATHS; i++) {
+            final String spec = "/content/page" + i + ".html?a=1&b=" + i + ":Page " + i + (i % 2 == 0 ? ":regexp" : "");
+            props.setProperty(SlingTestBase.SERVER_READY_PROP_PREFIX + "." + i, spec);
+            readySpecs.add(spec);
+        }
+        instanceNames = new String[INSTANCES];
+        for (int i = 0; i < INSTANCES; i++) {
+            instanceNames[i] = getClass().getSimpleName() + i;
+            props.setProperty(instanceNames[i] + "." + SlingTestBase.SERVER_READY_PROP_PREFIX + ".0", "/instance" + i + ":ok");
+        }
+
+        layered = new LayeredProperties(props, LayeredProperties.indexKeys(props), instanceNames[0]);
+        state = SlingInstanceState.getInstance(getClass().getSimpleName());
+        base = new SlingTestBase(state, props);
+        readyUri = new URI("/system/console/bundles.json?a=1&b=two&c=three%20four&d&e=&f=six");
+    }
+
+    @TearDown
+    public void cleanup() throws IOException {
+        final File [] files = bundlesFolder.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        bundlesFolder.delete();
+    }
+
+    @Benchmark
+    public SlingTestBase constructSlingTestBase() {
+        return new SlingTestBase(state, props);
+    }
+
+    @Benchmark
+    public SlingInstanceManager constructSlingInstanceManager() throws Exception {
+        return new SlingInstanceManager(props, instanceNames);
+    }
+
+    @Benchmark
+    public SortedMap<String, String> layeredPrefixLookup() {
+        return LayeredProperties.withPrefix(layered, SlingTestBase.SERVER_READY_PROP_PREFIX);
+    }
+
+    @Benchmark
+    public SortedMap<String, String> plainPrefixLookup() {
+        return LayeredProperties.withPrefix(props, SlingTestBase.SERVER_READY_PROP_PREFIX);
+    }
+
+    @Benchmark
+    public List<File> bundlesToInstallCached() {
+        return base.getBundlesToInstall();
+    }
+
+    @Benchmark
+    public List<File> bundlesToInstallFromFolder() {
+        return base.getBundlesToInstall(bundlesFolder.getAbsolutePath());
+    }
+
+    @Benchmark
+    public List<NameValuePair> extractParams() throws Exception {
+        return base.extractParams(readyUri);
+    }
+
+    @Benchmark
+    public int parseReadySpecs() {
+        int regexps = 0;
+        for (String spec : readySpecs) {
+            if (ReadyPathSpec.parse(spec).isRegexp()) {
+                regexps++;
+            }
+        }
+        return regexps;
+    }
+}
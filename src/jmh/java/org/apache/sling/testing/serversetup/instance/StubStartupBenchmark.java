@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.sling.testing.serversetup.stub.StubSlingServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmark the readiness check and additional bundles installation
+ *  against a fresh in-process StubSlingServer for each invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class StubStartupBenchmark {
+
+    @Param({ "10", "50" })
+    public int additionalBundles;
+
+    @Param({ "0", "20" })
+    public int requestDelayMsec;
+
+    private File bundlesFolder;
+    private StubSlingServer stub;
+    private Properties props;
+    private int invocations;
+
+    @Setup(Level.Trial)
+    public void writeBundles() throws IOException {
+        bundlesFolder = File.createTempFile(getClass().getSimpleName(), "");
+        bundlesFolder.delete();
+        bundlesFolder.mkdirs();
+        for (int i = 0; i < additionalBundles; i++) {
+            final Manifest m = new Manifest();
+            m.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            m.getMainAttributes().putValue("Bundle-SymbolicName", "org.example.bench" + i);
+            m.getMainAttributes().putValue("Bundle-Version", "1.0.0");
+            new JarOutputStream(new FileOutputStream(new File(bundlesFolder, "org.example.bench" + i + "-1.0.0.jar")), m).close();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void startStub() throws IOException {
+        final Properties config = new Properties();
+        config.setProperty(StubSlingServer.PROP_REQUEST_DELAY_MSEC, String.valueOf(requestDelayMsec));
+        stub = new StubSlingServer(0, config);
+        stub.start();
+
+        props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, stub.getUrl());
+        props.setProperty(SlingTestBase.SERVER_READY_PROP_PREFIX + ".1", "/:" + StubSlingServer.DEFAULT_READY_CONTENT);
+        props.setProperty(SlingTestBase.SERVER_READY_TIMEOUT_DELAY_PROP, "0");
+        props.setProperty(SlingTestBase.ADDITONAL_BUNDLES_PATH, bundlesFolder.getAbsolutePath());
+        for (int i = 0; i < additionalBundles; i++) {
+            props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + "." + i, "org.example.bench" + i + "-");
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopStub() {
+        stub.stop();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        for (File f : bundlesFolder.listFiles()) {
+            f.delete();
+        }
+        bundlesFolder.delete();
+    }
+
+    @Benchmark
+    public String readyAndInstallBundles() {
+        final SlingInstanceState state = SlingInstanceState.getInstance(getClass().getSimpleName() + invocations++);
+        return new SlingTestBase(state, props).getServerBaseUrl();
+    }
+}
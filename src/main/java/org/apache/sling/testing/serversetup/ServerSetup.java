@@ -20,14 +20,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import junit.framework.AssertionFailedError;
 
+import org.apache.sling.testing.serversetup.jfr.JfrSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -74,9 +77,9 @@ public class ServerSetup {
     private final Logger log = LoggerFactory.getLogger(getClass());
     
     /** Context that our SetupPhase objects can use to exchange data */
-    private final Map<String, Object> context = new HashMap<String, Object>();
+    private final Map<String, Object> context = Collections.synchronizedMap(new HashMap<String, Object>());
     
-    private final List<String> phasesToRun = new ArrayList<String>();
+    private final List<String> phasesToRun = new CopyOnWriteArrayList<String>();
     
     /** Our configuration */
     private Properties config;
@@ -91,13 +94,16 @@ public class ServerSetup {
     public static final String SHUTDOWN_ID_SUFFIX = ".shutdown";
     
     /** Our SetupPhases, keyed by their id which must be unique */
-    private final Map<String, SetupPhase> phases = new HashMap<String, SetupPhase>();
+    private final Map<String, SetupPhase> phases = new ConcurrentHashMap<String, SetupPhase>();
     
     /** List of phases that already ran */
-    private final Set<String> donePhases = new HashSet<String>();
+    private final Set<String> donePhases = new CopyOnWriteArraySet<String>();
     
     /** List of phases that failed */
-    private final Set<String> failedPhases = new HashSet<String>();
+    private final Set<String> failedPhases = new CopyOnWriteArraySet<String>();
+    
+    /** Execution time of the phases that ran, in msec */
+    private final Map<String, Long> phaseDurations = new ConcurrentHashMap<String, Long>();
     
     /** Context attribute: server access URL */
     public static final String SERVER_BASE_URL = "server.base.url";
@@ -153,6 +159,7 @@ public class ServerSetup {
             };
             Runtime.getRuntime().addShutdownHook(shutdownHook);
             log.info("Shutdown hook added to run shutdown phases");
+            ServerSetupMonitor.register(this);
         }
     }
     
@@ -182,6 +189,8 @@ public class ServerSetup {
             
             if(p.isStartupPhase() == isStartup) {
                 log.info("Executing {} phase: {}", mode, p); 
+                final JfrSupport.Span event = JfrSupport.begin(JfrSupport.SETUP_PHASE);
+                final long start = System.currentTimeMillis();
                 try {
                     p.run(this);
                 } catch(Exception e) {
@@ -192,7 +201,14 @@ public class ServerSetup {
                     failedPhases.add(id);
                     throw new Exception("AssertionFailedError in runRemainingPhases", ae);
                 } finally {
+                    phaseDurations.put(id, System.currentTimeMillis() - start);
                     donePhases.add(id);
+                    if (event.shouldCommit()) {
+                        event.set("phaseId", id)
+                            .set("startup", isStartup)
+                            .set("failed", failedPhases.contains(id))
+                            .commit();
+                    }
                 }
             }
         }
@@ -234,6 +250,7 @@ public class ServerSetup {
         
         donePhases.clear();
         failedPhases.clear();
+        phaseDurations.clear();
     }
     
     /** Return the configuration Properties that were set
@@ -248,6 +265,21 @@ public class ServerSetup {
         return Collections.unmodifiableList(phasesToRun);
     }
 
+    /** Return the IDs of the phases that already ran */
+    Set<String> getDonePhases() {
+        return Collections.unmodifiableSet(donePhases);
+    }
+
+    /** Return the IDs of the phases that failed */
+    Set<String> getFailedPhases() {
+        return Collections.unmodifiableSet(failedPhases);
+    }
+
+    /** Return the execution time in msec of the phases that ran, by phase ID */
+    Map<String, Long> getPhaseDurations() {
+        return Collections.unmodifiableMap(phaseDurations);
+    }
+
     /** Add a SetupPhase to our list. Its ID must be
      *  unique in that list.
      */
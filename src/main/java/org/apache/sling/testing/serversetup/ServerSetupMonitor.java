@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Exposes the state of a {@link ServerSetup} as an MBean */
+class ServerSetupMonitor implements ServerSetupMonitorMBean {
+
+    static final String OBJECT_NAME_PREFIX = "org.apache.sling.testing.serversetup:type=ServerSetup,name=ServerSetup-";
+
+    private static final Logger log = LoggerFactory.getLogger(ServerSetupMonitor.class);
+    private static final AtomicInteger counter = new AtomicInteger();
+    private final ServerSetup setup;
+
+    private ServerSetupMonitor(ServerSetup setup) {
+        this.setup = setup;
+    }
+
+    /** Register an MBean for setup, logging a warning if that fails */
+    static void register(ServerSetup setup) {
+        final String name = OBJECT_NAME_PREFIX + counter.incrementAndGet();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new ServerSetupMonitor(setup), new ObjectName(name));
+        } catch (JMException e) {
+            log.warn("Cannot register MBean " + name, e);
+        }
+    }
+
+    private static String[] toArray(Collection<String> c) {
+        return c.toArray(new String[c.size()]);
+    }
+
+    public String[] getPhasesToRun() {
+        return toArray(setup.getPhasesToRun());
+    }
+
+    public String[] getDonePhases() {
+        return toArray(setup.getDonePhases());
+    }
+
+    public String[] getFailedPhases() {
+        return toArray(setup.getFailedPhases());
+    }
+
+    public String[] getPhaseDurations() {
+        final Map<String, Long> durations = setup.getPhaseDurations();
+        final List<String> result = new ArrayList<String>();
+        for (String id : setup.getPhasesToRun()) {
+            final Long msec = durations.get(id);
+            if (msec != null) {
+                result.add(id + ": " + msec + " msec");
+            }
+        }
+        return toArray(result);
+    }
+
+    public String getServerBaseUrl() {
+        final Object url = setup.getContext().get(ServerSetup.SERVER_BASE_URL);
+        return url == null ? null : url.toString();
+    }
+}
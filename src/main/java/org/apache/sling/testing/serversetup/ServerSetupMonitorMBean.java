@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup;
+
+/** JMX view of a {@link ServerSetup}, registered as
+ *  <code>org.apache.sling.testing.serversetup:type=ServerSetup,name=ServerSetup-N</code>.
+ */
+public interface ServerSetupMonitorMBean {
+    /** IDs of the phases to run, in order */
+    String[] getPhasesToRun();
+
+    /** IDs of the phases that already ran, including failed ones */
+    String[] getDonePhases();
+
+    /** IDs of the phases that failed */
+    String[] getFailedPhases();
+
+    /** Execution time of the phases that ran, as "id: N msec", in run order */
+    String[] getPhaseDurations();
+
+    /** The server URL set by a {@link StartRunnableJarPhase}, null if not known yet */
+    String getServerBaseUrl();
+}
@@ -58,6 +58,9 @@ public class StartRunnableJarPhase implements SetupPhase {
     /** @inheritDoc */
     public void run(ServerSetup owner) throws Exception {
         executor.start();
+        // nobody waits for the server to be ready on this path, free the
+        // boot slot of a launch budget once its port is open
+        executor.launchCompletedOnPortOpen();
     }
 
     /** @inheritDoc */
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.event;
+
+/** An event in the lifecycle of a Sling instance, with a monotonic
+ *  timestamp that can be used to compute durations between events.
+ */
+public class InstanceEvent {
+
+    public enum Type {
+        /** The runnable jar to execute was found */
+        JAR_LOCATED,
+        /** The server process was started */
+        PROCESS_SPAWNED,
+        /** The server port accepts connections */
+        PORT_OPEN,
+        /** One of the server ready paths returned the expected content, the detail is the path */
+        READY_PATH_PASSED,
+        /** All server ready paths returned the expected content */
+        SERVER_READY,
+        /** The additional bundles are installed and started */
+        BUNDLES_INSTALLED,
+        /** The quiet period after startup is done, tests can run */
+        QUIET_PERIOD_DONE,
+        /** The instance failed to start, or was found unhealthy */
+        INSTANCE_FAILED,
+        /** The instance is being restarted after being found unhealthy */
+        INSTANCE_RESTARTING,
+        /** A snapshot of the instance work folder was taken */
+        SNAPSHOT_TAKEN,
+        /** The instance was reset from its snapshot */
+        SNAPSHOT_RESTORED,
+        /** The server process was stopped */
+        PROCESS_STOPPED
+    }
+
+    private final Type type;
+    private final String instanceName;
+    private final String detail;
+    private final long nanoTime;
+    private final long timestamp;
+
+    public InstanceEvent(Type type, String instanceName, String detail) {
+        this.type = type;
+        this.instanceName = instanceName;
+        this.detail = detail;
+        this.nanoTime = System.nanoTime();
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** The name of the instance, as used by the SlingInstanceState */
+    public String getInstanceName() {
+        return instanceName;
+    }
+
+    /** Additional information about the event, can be null */
+    public String getDetail() {
+        return detail;
+    }
+
+    /** Value of System.nanoTime() when the event happened, only meaningful
+     *  to compare with other events from the same JVM.
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /** Value of System.currentTimeMillis() when the event happened */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " " + type + " (" + instanceName + ")" + (detail == null ? "" : ": " + detail);
+    }
+}
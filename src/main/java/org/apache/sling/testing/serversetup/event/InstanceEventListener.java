@@ -0,0 +1,30 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.event;
+
+/** Receives the {@link InstanceEvent}s published by {@link InstanceEvents}.
+ *
+ *  Listeners are registered with {@link InstanceEvents#addListener}, or
+ *  found with the java.util.ServiceLoader mechanism.
+ */
+public interface InstanceEventListener {
+
+    /** Called asynchronously, in the order in which events are published.
+     *  Should return quickly, as all listeners share a single thread.
+     */
+    void onEvent(InstanceEvent event);
+}
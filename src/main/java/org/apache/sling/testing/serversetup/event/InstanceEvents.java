@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.event;
+
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Publishes {@link InstanceEvent}s to the registered {@link InstanceEventListener}s.
+ *
+ *  Events are timestamped when published, and delivered by a single daemon
+ *  thread so that listeners never slow down the instances. Nothing is done
+ *  if no listeners are registered.
+ */
+public class InstanceEvents {
+
+    private static final Logger log = LoggerFactory.getLogger(InstanceEvents.class);
+    private static final List<InstanceEventListener> listeners = new CopyOnWriteArrayList<InstanceEventListener>();
+    private static ExecutorService executor;
+
+    static {
+        for (InstanceEventListener l : ServiceLoader.load(InstanceEventListener.class)) {
+            log.info("Adding InstanceEventListener {}", l);
+            listeners.add(l);
+        }
+    }
+
+    private InstanceEvents() {
+    }
+
+    public static void addListener(InstanceEventListener l) {
+        listeners.add(l);
+    }
+
+    public static void removeListener(InstanceEventListener l) {
+        listeners.remove(l);
+    }
+
+    /** True if events are delivered to at least one listener */
+    public static boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /** Publish an event, timestamped now, to our listeners */
+    public static void publish(InstanceEvent.Type type, String instanceName, String detail) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final InstanceEvent event = new InstanceEvent(type, instanceName, detail);
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                for (InstanceEventListener l : listeners) {
+                    try {
+                        l.onEvent(event);
+                    } catch (Exception e) {
+                        log.warn("InstanceEventListener " + l + " failed to process " + event, e);
+                    }
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, InstanceEvents.class.getSimpleName());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Sorted index of the jar files found in an additional bundles folder,
+ *  used to find the bundles that match a filename prefix without
+ *  scanning the whole folder. Indexes are cached and rebuilt when
+ *  the folder's modification time changes, which happens when files
+ *  are added, removed or renamed.
+ */
+class AdditionalBundlesIndex {
+
+    private static final Map<String, AdditionalBundlesIndex> CACHE = new ConcurrentHashMap<String, AdditionalBundlesIndex>();
+
+    private final File dir;
+    private final long lastModified;
+    private final NavigableSet<String> jarNames;
+
+    /** The result of resolving the bundles to install, valid as
+     *  long as the configuration and the folders do not change.
+     */
+    static class Resolution {
+        private final String paths;
+        private final List<String> prefixes;
+        private final List<AdditionalBundlesIndex> indexes;
+        private final List<File> files;
+
+        Resolution(String paths, List<String> prefixes, List<AdditionalBundlesIndex> indexes, List<File> files) {
+            this.paths = paths;
+            this.prefixes = prefixes;
+            this.indexes = indexes;
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        boolean isValidFor(String paths, List<String> prefixes) {
+            if (!this.paths.equals(paths) || !this.prefixes.equals(prefixes)) {
+                return false;
+            }
+            for (AdditionalBundlesIndex index : indexes) {
+                if (!index.isCurrent()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        List<File> getFiles() {
+            return files;
+        }
+    }
+
+    private AdditionalBundlesIndex(File dir) {
+        this.dir = dir;
+        this.lastModified = dir.lastModified();
+        final NavigableSet<String> names = new TreeSet<String>();
+        final String [] files = dir.list();
+        if (files != null) {
+            for (String file : files) {
+                if (file.endsWith(".jar")) {
+                    names.add(file);
+                }
+            }
+        }
+        this.jarNames = Collections.unmodifiableNavigableSet(names);
+    }
+
+    /** Return an up to date index of the supplied readable folder */
+    static AdditionalBundlesIndex forDirectory(File dir) {
+        final String key = dir.getAbsolutePath();
+        AdditionalBundlesIndex index = CACHE.get(key);
+        if (index == null || !index.isCurrent()) {
+            index = new AdditionalBundlesIndex(dir);
+            CACHE.put(key, index);
+        }
+        return index;
+    }
+
+    boolean isCurrent() {
+        return dir.lastModified() == lastModified;
+    }
+
+    /** Return the jar files whose name starts with prefix, sorted by name */
+    List<File> withPrefix(String prefix) {
+        final List<File> result = new ArrayList<File>();
+        for (String name : jarNames.subSet(prefix, true, prefix + Character.MAX_VALUE, false)) {
+            result.add(new File(dir, name));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.testing.clients.ClientException;
+import org.apache.sling.testing.clients.osgi.OsgiConsoleClient;
+import org.apache.sling.testing.clients.util.JsonUtils;
+import org.codehaus.jackson.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Polls the OSGi console bundles list while a server is starting, to
+ *  find out when each bundle was installed, resolved and active, and
+ *  reports the bundles that took the longest to get active.
+ *
+ *  Times are in msec from an origin, usually the start of the server.
+ *  Their precision is the polling interval.
+ */
+class BundleActivationTimeline implements Runnable {
+
+    private static final String BUNDLES_JSON_PATH = "/system/console/bundles.json";
+
+    /** When a bundle was first seen in each state, -1 if not seen in that state */
+    static class BundleTimes {
+        final String symbolicName;
+        long installed = -1;
+        long resolved = -1;
+        long active = -1;
+
+        BundleTimes(String symbolicName) {
+            this.symbolicName = symbolicName;
+        }
+
+        /** Time between the first non-active state in which we saw this bundle
+         *  and its activation, -1 if unknown
+         */
+        long getActivationMsec() {
+            final long from = installed >= 0 ? installed : resolved;
+            return active < 0 || from < 0 ? -1 : active - from;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final OsgiConsoleClient client;
+    private final String instanceName;
+    private final int intervalMsec;
+    private final long origin;
+    private final Map<String, BundleTimes> bundles = new LinkedHashMap<String, BundleTimes>();
+    private ScheduledExecutorService executor;
+    private int polls;
+
+    /** @param origin the time from which the bundle times are computed */
+    BundleActivationTimeline(OsgiConsoleClient client, String instanceName, int intervalMsec, long origin) {
+        this.client = client;
+        this.instanceName = instanceName;
+        this.intervalMsec = intervalMsec;
+        this.origin = origin;
+    }
+
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "BundleActivationTimeline-" + instanceName);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(this, 0, intervalMsec, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stop polling, after a last poll to see the final bundle states */
+    void stop() {
+        final ScheduledExecutorService e;
+        synchronized (this) {
+            e = executor;
+            executor = null;
+        }
+        if (e != null) {
+            e.shutdownNow();
+            try {
+                e.awaitTermination(intervalMsec + 10000L, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            run();
+        }
+    }
+
+    public void run() {
+        final String json;
+        try {
+            json = client.doGet(BUNDLES_JSON_PATH, 200).getContent();
+        } catch (ClientException notAvailableYet) {
+            return;
+        }
+        final long now = System.currentTimeMillis() - origin;
+        try {
+            final JsonNode data = JsonUtils.getJsonNodeFromString(json).get("data");
+            if (data == null) {
+                return;
+            }
+            synchronized (bundles) {
+                polls++;
+                for (JsonNode b : data) {
+                    final JsonNode name = b.get("symbolicName");
+                    final JsonNode state = b.get("state");
+                    if (name == null || state == null) {
+                        continue;
+                    }
+                    BundleTimes t = bundles.get(name.getTextValue());
+                    if (t == null) {
+                        t = new BundleTimes(name.getTextValue());
+                        bundles.put(t.symbolicName, t);
+                    }
+                    final String s = state.getTextValue();
+                    if ("Installed".equals(s) && t.installed < 0) {
+                        t.installed = now;
+                    } else if ("Resolved".equals(s) && t.resolved < 0) {
+                        t.resolved = now;
+                    } else if ("Active".equals(s) && t.active < 0) {
+                        t.active = now;
+                    }
+                }
+            }
+        } catch (ClientException e) {
+            log.debug("Cannot parse bundles list of instance {} ({})", instanceName, e);
+        }
+    }
+
+    /** Return the bundles that we saw getting active, slowest first */
+    List<BundleTimes> getActivations() {
+        final List<BundleTimes> result = new ArrayList<BundleTimes>();
+        synchronized (bundles) {
+            for (BundleTimes t : bundles.values()) {
+                if (t.getActivationMsec() >= 0) {
+                    result.add(t);
+                }
+            }
+        }
+        Collections.sort(result, new Comparator<BundleTimes>() {
+            public int compare(BundleTimes a, BundleTimes b) {
+                final int r = Long.compare(b.getActivationMsec(), a.getActivationMsec());
+                return r != 0 ? r : a.symbolicName.compareTo(b.symbolicName);
+            }
+        });
+        return result;
+    }
+
+    /** Return a report of the bundle activations, slowest first
+     *  @param max maximum number of bundles in the report
+     */
+    String getReport(int max) {
+        final List<BundleTimes> activations = getActivations();
+        final StringBuilder sb = new StringBuilder();
+        synchronized (bundles) {
+            sb.append(String.format("Bundle activations of instance %s: %d of %d bundles seen getting active, %d polls every %d msec%n",
+                    instanceName, activations.size(), bundles.size(), polls, intervalMsec));
+        }
+        sb.append(String.format("%10s %10s %10s %10s  %s%n", "activation", "installed", "resolved", "active", "bundle"));
+        for (BundleTimes t : activations.subList(0, Math.min(max, activations.size()))) {
+            sb.append(String.format("%10d %10s %10s %10d  %s%n",
+                    t.getActivationMsec(), t.installed < 0 ? "-" : t.installed, t.resolved < 0 ? "-" : t.resolved,
+                    t.active, t.symbolicName));
+        }
+        return sb.toString();
+    }
+
+    /** Write the report of all bundle activations to a file */
+    void write(File f) throws IOException {
+        final File parent = f.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8)) {
+            w.write(getReport(Integer.MAX_VALUE));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.apache.sling.testing.clients.ClientException;
+import org.apache.sling.testing.clients.osgi.BundleInfo;
+import org.apache.sling.testing.clients.osgi.OsgiConsoleClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Remembers the content digests of bundle files, and which of them were
+ *  uploaded to a given server, so that unchanged bundles are not uploaded
+ *  again to a server that is reused between test runs.
+ *
+ *  The OSGi console does not report a digest of installed bundles, so a bundle
+ *  is considered unchanged on the server if its symbolic name and version match
+ *  the local file, the local digest matches the one recorded when we uploaded it,
+ *  and the server still reports the same last modification time as right after
+ *  that upload - which detects reinstalls done by anyone else in between.
+ *
+ *  Local digests are cached by file path, size and modification time, to avoid
+ *  rehashing unchanged files.
+ */
+class BundleDigestCache {
+
+    /** Property of the OSGi console bundle info that changes when a bundle is reinstalled */
+    static final String SERVER_TIMESTAMP_PROPERTY = "Last Modification";
+
+    private static final String LOCAL_PREFIX = "local.";
+    private static final String SERVER_PREFIX = "server.";
+    private static final String SEP = "|";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final File file;
+    private final String serverUrl;
+    private final Properties entries = new Properties();
+
+    BundleDigestCache(File file, String serverUrl) {
+        this.file = file;
+        this.serverUrl = serverUrl;
+        if (file.canRead()) {
+            try (InputStream is = new FileInputStream(file)) {
+                entries.load(is);
+            } catch (IOException | IllegalArgumentException e) {
+                // IllegalArgumentException is thrown for malformed escapes
+                entries.clear();
+                log.warn("Cannot read bundle digest cache {}, ignored ({})", file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /** Return the SHA-256 digest of f, computed only if f changed since it was last hashed */
+    String getDigest(File f) throws IOException {
+        final String key = LOCAL_PREFIX + f.getAbsolutePath();
+        final String stamp = f.length() + SEP + f.lastModified() + SEP;
+        final String cached = entries.getProperty(key);
+        if (cached != null && cached.startsWith(stamp)) {
+            return cached.substring(stamp.length());
+        }
+        final String digest = computeDigest(f);
+        entries.setProperty(key, stamp + digest);
+        return digest;
+    }
+
+    /** True if f is known to be installed unchanged on our server */
+    boolean isInstalledUnchanged(OsgiConsoleClient client, String symbolicName, File f) throws IOException {
+        final String recorded = entries.getProperty(serverKey(symbolicName));
+        if (recorded == null) {
+            return false;
+        }
+        final String version = OsgiConsoleClient.getBundleVersionFromFile(f);
+        if (!recorded.startsWith(version + SEP + getDigest(f) + SEP)) {
+            return false;
+        }
+        try {
+            final BundleInfo info = client.getBundleInfo(symbolicName, 200);
+            return version.equals(info.getVersion())
+                    && recorded.equals(serverValue(version, getDigest(f), info));
+        } catch (ClientException e) {
+            log.debug("Cannot get info for bundle {}, assuming it changed ({})", symbolicName, e);
+            return false;
+        }
+    }
+
+    /** Record that f has just been installed on our server */
+    void recordInstalled(OsgiConsoleClient client, String symbolicName, File f) throws IOException {
+        try {
+            final BundleInfo info = client.getBundleInfo(symbolicName, 200);
+            entries.setProperty(serverKey(symbolicName),
+                    serverValue(OsgiConsoleClient.getBundleVersionFromFile(f), getDigest(f), info));
+        } catch (ClientException e) {
+            log.debug("Cannot get info for bundle {}, not recording its digest ({})", symbolicName, e);
+            entries.remove(serverKey(symbolicName));
+        }
+    }
+
+    void save() {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            log.warn("Cannot create folder for bundle digest cache {}", file.getAbsolutePath());
+            return;
+        }
+        try (OutputStream os = new FileOutputStream(file)) {
+            entries.store(os, "Additional bundles digests, see " + SlingTestBase.class.getName());
+        } catch (IOException e) {
+            log.warn("Cannot write bundle digest cache {} ({})", file.getAbsolutePath(), e);
+        }
+    }
+
+    private String serverKey(String symbolicName) {
+        return SERVER_PREFIX + serverUrl + SEP + symbolicName;
+    }
+
+    private static String serverValue(String version, String digest, BundleInfo info) {
+        return version + SEP + digest + SEP + info.getId() + SEP + info.getProperty(SERVER_TIMESTAMP_PROPERTY);
+    }
+
+    static String computeDigest(File f) throws IOException {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+        final byte [] buffer = new byte[65536];
+        try (InputStream is = new FileInputStream(f)) {
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.testing.clients.ClientException;
+import org.apache.sling.testing.clients.osgi.Bundle;
+import org.apache.sling.testing.clients.osgi.BundleInfo;
+import org.apache.sling.testing.clients.osgi.BundlesInfo;
+import org.apache.sling.testing.clients.osgi.BundlesInstaller;
+import org.apache.sling.testing.clients.osgi.OsgiConsoleClient;
+import org.apache.sling.testing.serversetup.jfr.JfrSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Installs and starts a list of bundles, uploading them concurrently
+ *  with a bounded degree of parallelism. Packages are refreshed once after
+ *  all uploads, start requests are sent in concurrent batches and the bundle
+ *  states are polled with a single request for all bundles.
+ */
+class BundleInstallPipeline {
+
+    /** Delay between checks of the bundle states while waiting for them to start */
+    private static final int START_POLL_MSEC = 500;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final OsgiConsoleClient osgiConsoleClient;
+    private final BundlesInstaller bundlesInstaller;
+    private final int parallelism;
+    private final BundleDigestCache digestCache;
+
+    /** Upload and start latencies of a single bundle */
+    static class BundleTiming {
+        final String symbolicName;
+        long uploadMsec = -1;
+        long startMsec = -1;
+
+        BundleTiming(String symbolicName) {
+            this.symbolicName = symbolicName;
+        }
+
+        /** Sum of the known upload and start times, -1 if none is known */
+        long getKnownMsec() {
+            if (uploadMsec < 0 && startMsec < 0) {
+                return -1;
+            }
+            return Math.max(0, uploadMsec) + Math.max(0, startMsec);
+        }
+
+        @Override
+        public String toString() {
+            return symbolicName + " (upload=" + (uploadMsec < 0 ? "skipped" : uploadMsec + " msec")
+                    + ", start=" + (startMsec < 0 ? "n/a" : startMsec + " msec") + ")";
+        }
+    }
+
+    /** @param digestCache if not null, used to skip bundles that are already installed unchanged */
+    BundleInstallPipeline(OsgiConsoleClient osgiConsoleClient, BundlesInstaller bundlesInstaller, int parallelism,
+            BundleDigestCache digestCache) {
+        this.osgiConsoleClient = osgiConsoleClient;
+        this.bundlesInstaller = bundlesInstaller;
+        this.parallelism = Math.max(1, parallelism);
+        this.digestCache = digestCache;
+    }
+
+    /** Install, wait for and start all supplied bundles.
+     *  @return the per-bundle timings, keyed by bundle symbolic name
+     */
+    Map<String, BundleTiming> installAndStart(List<File> bundles, int installTimeout, int startTimeoutMsec)
+            throws Exception {
+        final Map<String, BundleTiming> timings = new LinkedHashMap<String, BundleTiming>();
+        final Map<String, File> files = new LinkedHashMap<String, File>();
+        for (File f : bundles) {
+            final String name = OsgiConsoleClient.getBundleSymbolicName(f);
+            files.put(name, f);
+            timings.put(name, new BundleTiming(name));
+        }
+
+        final ExecutorService executor = newExecutor();
+        try {
+            upload(executor, files, timings);
+            final List<String> symbolicNames = new ArrayList<String>(files.keySet());
+            bundlesInstaller.waitForBundlesInstalled(symbolicNames, installTimeout);
+            recordDigests(files, timings);
+            startAll(executor, symbolicNames, timings, startTimeoutMsec);
+        } finally {
+            executor.shutdownNow();
+        }
+        logTimings(timings);
+        return timings;
+    }
+
+    /** Uninstall those of the supplied bundles that are installed, in a single
+     *  concurrent pass followed by a single packages refresh.
+     *  @return the symbolic names of the bundles that were uninstalled
+     */
+    List<String> uninstall(List<File> bundles) throws Exception {
+        final BundlesInfo info = osgiConsoleClient.getBundlesInfo(200);
+        final List<String> installed = new ArrayList<String>();
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (File f : bundles) {
+            final String name = OsgiConsoleClient.getBundleSymbolicName(f);
+            if (installed.contains(name) || !isInstalled(info, name)) {
+                continue;
+            }
+            installed.add(name);
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    final JfrSupport.Span event = JfrSupport.begin(JfrSupport.BUNDLE_INSTALL);
+                    boolean done = false;
+                    try {
+                        osgiConsoleClient.uninstallBundle(name);
+                        done = true;
+                    } finally {
+                        commit(event, name, "uninstall", false, !done);
+                    }
+                    return null;
+                }
+            });
+        }
+        if (tasks.isEmpty()) {
+            return installed;
+        }
+        final ExecutorService executor = newExecutor();
+        try {
+            runAll(executor, tasks);
+        } finally {
+            executor.shutdownNow();
+        }
+        osgiConsoleClient.refreshPackages();
+        log.info("{} additional bundles uninstalled: {}", installed.size(), installed);
+        return installed;
+    }
+
+    /** Upload all bundles concurrently, then refresh packages once */
+    private void upload(ExecutorService executor, Map<String, File> files, final Map<String, BundleTiming> timings) throws Exception {
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Map.Entry<String, File> e : files.entrySet()) {
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    final JfrSupport.Span event = JfrSupport.begin(JfrSupport.BUNDLE_INSTALL);
+                    final long start = System.currentTimeMillis();
+                    boolean uploaded = false;
+                    boolean done = false;
+                    try {
+                        uploaded = uploadIfNeeded(e.getKey(), e.getValue());
+                        done = true;
+                    } finally {
+                        commit(event, e.getKey(), "upload", done && !uploaded, !done);
+                    }
+                    if (uploaded) {
+                        timings.get(e.getKey()).uploadMsec = System.currentTimeMillis() - start;
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(executor, tasks);
+        osgiConsoleClient.refreshPackages();
+        log.info("{} additional bundles uploaded with parallelism={}", files.size(), parallelism);
+    }
+
+    /** Same reinstall rules as {@link BundlesInstaller#installBundles}, except
+     *  that bundles known to be installed unchanged are never reinstalled.
+     *  @return true if the bundle was uploaded
+     */
+    private boolean uploadIfNeeded(String name, File f) throws Exception {
+        if (digestCache != null && digestCache.isInstalledUnchanged(osgiConsoleClient, name, f)) {
+            log.info("Not reinstalling (same digest as installed bundle): {}", name);
+            return false;
+        }
+        if (bundlesInstaller.isInstalled(f)) {
+            if (f.getName().contains("SNAPSHOT")) {
+                log.info("Reinstalling (due to SNAPSHOT version): {}", name);
+                osgiConsoleClient.uninstallBundle(name);
+            } else if (!bundlesInstaller.isInstalledWithSameVersion(f)) {
+                log.info("Reinstalling (due to version mismatch): {}", name);
+                osgiConsoleClient.uninstallBundle(name);
+            } else {
+                log.info("Not reinstalling: {}", name);
+                return false;
+            }
+        }
+        osgiConsoleClient.installBundle(f, false);
+        log.info("Installed: {}", name);
+        return true;
+    }
+
+    /** Record the digests of the bundles that we uploaded */
+    private void recordDigests(Map<String, File> files, Map<String, BundleTiming> timings) throws Exception {
+        if (digestCache == null) {
+            return;
+        }
+        for (Map.Entry<String, File> e : files.entrySet()) {
+            if (timings.get(e.getKey()).uploadMsec >= 0) {
+                digestCache.recordInstalled(osgiConsoleClient, e.getKey(), e.getValue());
+            }
+        }
+        digestCache.save();
+    }
+
+    /** Send start requests in concurrent batches and poll the bundles
+     *  list, with one request for all bundles, until they are all active.
+     *  A start request is sent once per bundle, and only sent again on the
+     *  next poll if it failed.
+     */
+    private void startAll(ExecutorService executor, List<String> symbolicNames, Map<String, BundleTiming> timings, int timeoutMsec)
+            throws Exception {
+        final long start = System.currentTimeMillis();
+        final long endTime = start + timeoutMsec;
+        final List<String> pending = new ArrayList<String>(symbolicNames);
+        final Set<String> requested = Collections.synchronizedSet(new HashSet<String>());
+        log.info("Starting {} bundles (timeout {} msec)", pending.size(), timeoutMsec);
+        while (true) {
+            final BundlesInfo info = osgiConsoleClient.getBundlesInfo(200);
+            final long now = System.currentTimeMillis();
+            for (String name : new ArrayList<String>(pending)) {
+                if (isStarted(info, name)) {
+                    timings.get(name).startMsec = now - start;
+                    pending.remove(name);
+                }
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (now >= endTime) {
+                throw new ClientException("Some bundles did not start after " + timeoutMsec + " msec: " + pending);
+            }
+            runAll(executor, startTasks(pending, requested));
+            Thread.sleep(START_POLL_MSEC);
+        }
+    }
+
+    /** @param requested the bundles for which a start request succeeded, which are skipped
+     *      and to which the bundles are added once their start request succeeds
+     */
+    private List<Callable<Void>> startTasks(List<String> symbolicNames, final Set<String> requested) {
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final String name : symbolicNames) {
+            if (requested.contains(name)) {
+                continue;
+            }
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    final JfrSupport.Span event = JfrSupport.begin(JfrSupport.BUNDLE_INSTALL);
+                    boolean failed = false;
+                    try {
+                        osgiConsoleClient.startBundle(name);
+                        requested.add(name);
+                    } catch (ClientException e) {
+                        failed = true;
+                        log.debug("Start request failed for bundle {}, will retry ({})", name, e);
+                    }
+                    commit(event, name, "start", false, failed);
+                    return null;
+                }
+            });
+        }
+        return tasks;
+    }
+
+    private void commit(JfrSupport.Span event, String symbolicName, String step, boolean skipped, boolean failed) {
+        if (event.shouldCommit()) {
+            event.set("serverUrl", osgiConsoleClient.getUrl().toString())
+                .set("symbolicName", symbolicName)
+                .set("step", step)
+                .set("skipped", skipped)
+                .set("failed", failed)
+                .commit();
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        return Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "BundleInstallPipeline-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static boolean isInstalled(BundlesInfo info, String symbolicName) {
+        try {
+            return info.forSymbolicName(symbolicName) != null;
+        } catch (ClientException ignored) {
+            return false;
+        }
+    }
+
+    private static boolean isStarted(BundlesInfo info, String symbolicName) {
+        try {
+            final BundleInfo b = info.forSymbolicName(symbolicName);
+            return b != null && (b.getStatus() == Bundle.Status.ACTIVE || b.getStatus() == Bundle.Status.FRAGMENT);
+        } catch (ClientException ignored) {
+            return false;
+        }
+    }
+
+    /** Run tasks on the supplied executor, rethrowing the first failure */
+    private static void runAll(ExecutorService executor, List<Callable<Void>> tasks) throws Exception {
+        for (Future<Void> f : executor.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException ee) {
+                final Throwable cause = ee.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw ee;
+            }
+        }
+    }
+
+    private void logTimings(Map<String, BundleTiming> timings) {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+        // slowest first, bundles without any known timing last
+        final List<BundleTiming> sorted = new ArrayList<BundleTiming>();
+        final List<BundleTiming> unknown = new ArrayList<BundleTiming>();
+        for (BundleTiming t : timings.values()) {
+            if (t.getKnownMsec() < 0) {
+                unknown.add(t);
+            } else {
+                sorted.add(t);
+            }
+        }
+        Collections.sort(sorted, new Comparator<BundleTiming>() {
+            public int compare(BundleTiming a, BundleTiming b) {
+                return Long.compare(b.getKnownMsec(), a.getKnownMsec());
+            }
+        });
+        sorted.addAll(unknown);
+        for (BundleTiming t : sorted) {
+            log.info("Additional bundle {}", t);
+        }
+    }
+}
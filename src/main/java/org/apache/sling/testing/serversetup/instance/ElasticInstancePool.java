@@ -0,0 +1,340 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *  Pool of equivalent Sling instances, forked with {@link JarExecutor}, that
+ *  grows while the number of pending leases per instance exceeds a threshold,
+ *  within CPU and memory budgets, and shrinks when instances stay idle.
+ *
+ *  Tests call {@link #acquire} to get an instance and {@link #release} once
+ *  they're done with it. Each instance gets its own free port and a temporary
+ *  work folder, so the configured {@link JarExecutor#PROP_JAR_OPTIONS} should
+ *  pass <code>$JAREXEC_SERVER_PORT$</code> to the runnable jar. The work
+ *  folder is deleted when the instance is stopped.
+ */
+public class ElasticInstancePool {
+
+    public static final String PROP_PREFIX = "elastic.instances.";
+    /** Minimum number of instances kept running, default 1 */
+    public static final String PROP_MIN_INSTANCES = PROP_PREFIX + "min";
+    /** Maximum number of instances, default is the number of CPUs divided by PROP_CPUS_PER_INSTANCE */
+    public static final String PROP_MAX_INSTANCES = PROP_PREFIX + "max";
+    /** Number of CPUs that each instance needs, default 2 */
+    public static final String PROP_CPUS_PER_INSTANCE = PROP_PREFIX + "cpus.per.instance";
+    /** Memory used by each instance, in MB, default 1024 */
+    public static final String PROP_MEMORY_PER_INSTANCE_MB = PROP_PREFIX + "memory.per.instance.mb";
+    /** Total memory that instances can use, in MB, default 0 for no limit */
+    public static final String PROP_MEMORY_BUDGET_MB = PROP_PREFIX + "memory.budget.mb";
+    /** Number of pending leases per instance above which a new instance is started, default 2 */
+    public static final String PROP_BACKLOG_THRESHOLD = PROP_PREFIX + "backlog.threshold";
+    /** Seconds after which an unused instance is stopped, default 60 */
+    public static final String PROP_IDLE_GRACE_SECONDS = PROP_PREFIX + "idle.grace.seconds";
+    /** Seconds to wait for an instance to be ready in {@link #acquire}, default 300 */
+    public static final String PROP_ACQUIRE_TIMEOUT_SECONDS = PROP_PREFIX + "acquire.timeout.seconds";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Properties systemProperties;
+    private final int minInstances;
+    private final int maxInstances;
+    private final int backlogThreshold;
+    private final long idleGraceMsec;
+    private final long acquireTimeoutMsec;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final ExecutorService starter;
+    private final ScheduledExecutorService reaper;
+    private int leases;
+    private boolean closed;
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+    private final String poolName = "elastic" + poolCounter.incrementAndGet();
+    private int instanceCounter;
+
+    /** An instance of this pool */
+    private static class Entry {
+        final String name;
+        final SlingTestBase instance;
+        final File workFolder;
+        final CompletableFuture<SlingInstance> ready = new CompletableFuture<SlingInstance>();
+        int busy;
+        long lastUsed = System.currentTimeMillis();
+
+        Entry(String name, SlingTestBase instance, File workFolder) {
+            this.name = name;
+            this.instance = instance;
+            this.workFolder = workFolder;
+        }
+    }
+
+    public ElasticInstancePool(Properties systemProperties) {
+        if (systemProperties.getProperty(SlingTestBase.TEST_SERVER_URL_PROP) != null) {
+            throw new IllegalStateException(getClass().getSimpleName() + " starts its own instances and cannot be used with "
+                    + SlingTestBase.TEST_SERVER_URL_PROP);
+        }
+        this.systemProperties = systemProperties;
+        minInstances = Math.max(0, getInt(PROP_MIN_INSTANCES, 1));
+        backlogThreshold = Math.max(1, getInt(PROP_BACKLOG_THRESHOLD, 2));
+        idleGraceMsec = getInt(PROP_IDLE_GRACE_SECONDS, 60) * 1000L;
+        acquireTimeoutMsec = getInt(PROP_ACQUIRE_TIMEOUT_SECONDS, 300) * 1000L;
+
+        // budgets
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        final int byCpu = Math.max(1, cpus / Math.max(1, getInt(PROP_CPUS_PER_INSTANCE, 2)));
+        final int memoryBudgetMb = getInt(PROP_MEMORY_BUDGET_MB, 0);
+        final int byMemory = memoryBudgetMb > 0
+                ? Math.max(1, memoryBudgetMb / Math.max(1, getInt(PROP_MEMORY_PER_INSTANCE_MB, 1024)))
+                : Integer.MAX_VALUE;
+        maxInstances = Math.max(Math.max(1, minInstances), Math.min(getInt(PROP_MAX_INSTANCES, byCpu), Math.min(byCpu, byMemory)));
+        log.info("{}: between {} and {} instances ({} CPUs, memory budget {} MB), new instance above {} leases per instance",
+                new Object[] { poolName, minInstances, maxInstances, cpus, memoryBudgetMb, backlogThreshold });
+
+        starter = Executors.newCachedThreadPool(daemonThreads(poolName + "-start"));
+        reaper = Executors.newSingleThreadScheduledExecutor(daemonThreads(poolName + "-reaper"));
+        final long period = Math.max(1000L, idleGraceMsec / 2);
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                stopIdleInstances();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private int getInt(String key, int defaultValue) {
+        final String value = systemProperties.getProperty(key);
+        return value == null || value.trim().length() == 0 ? defaultValue : Integer.valueOf(value.trim());
+    }
+
+    /** Return the maximum number of instances allowed by our configuration and budgets */
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+
+    /** Return the number of instances that are started or starting */
+    public synchronized int getInstanceCount() {
+        return entries.size();
+    }
+
+    /** Return the least busy instance, starting a new one first if the number
+     *  of leases per instance exceeds our threshold and budgets allow it.
+     *  Waits for the chosen instance to be ready. Must be followed by a call
+     *  to {@link #release} with the returned instance.
+     */
+    public SlingInstance acquire() throws InterruptedException {
+        final Entry e;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException(poolName + " is closed");
+            }
+            leases++;
+            if (entries.size() < maxInstances && (entries.isEmpty() || leases > backlogThreshold * entries.size())) {
+                try {
+                    startInstance();
+                } catch (RuntimeException | Error ex) {
+                    leases--;
+                    throw ex;
+                }
+            }
+            e = leastBusy();
+            e.busy++;
+        }
+        try {
+            return e.ready.get(acquireTimeoutMsec, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ee) {
+            release(e);
+            throw new IllegalStateException("Instance " + e.name + " failed to start", ee.getCause());
+        } catch (TimeoutException te) {
+            release(e);
+            throw new IllegalStateException("Instance " + e.name + " not ready after " + acquireTimeoutMsec + " msec");
+        }
+    }
+
+    /** Release an instance obtained from {@link #acquire} */
+    public void release(SlingInstance instance) {
+        synchronized (this) {
+            for (Entry e : entries) {
+                if (e.instance == instance) {
+                    release(e);
+                    return;
+                }
+            }
+        }
+        log.warn("{}: cannot release {}, not an instance of this pool", poolName, instance);
+    }
+
+    private synchronized void release(Entry e) {
+        leases--;
+        e.busy--;
+        e.lastUsed = System.currentTimeMillis();
+    }
+
+    /** Prefer ready instances, and the least busy ones */
+    private Entry leastBusy() {
+        Entry result = null;
+        for (Entry e : entries) {
+            if (result == null
+                    || (isReady(e) && !isReady(result))
+                    || (isReady(e) == isReady(result) && e.busy < result.busy)) {
+                result = e;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isReady(Entry e) {
+        return e.ready.isDone() && !e.ready.isCompletedExceptionally();
+    }
+
+    /** Start a new instance in the background */
+    private void startInstance() {
+        final String name = poolName + "-" + (++instanceCounter);
+        final Properties props = new Properties(systemProperties);
+        final File workFolder;
+        try {
+            props.setProperty(JarExecutor.PROP_SERVER_PORT, String.valueOf(getFreePort()));
+            workFolder = Files.createTempDirectory(name + "-").toFile();
+            props.setProperty(JarExecutor.PROP_WORK_FOLDER, workFolder.getAbsolutePath());
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Cannot setup instance " + name, ioe);
+        }
+        final Entry e;
+        try {
+            e = new Entry(name, new SlingTestBase(SlingInstanceState.getInstance(name), props), workFolder);
+        } catch (RuntimeException | Error ex) {
+            cleanup(name, workFolder);
+            throw ex;
+        }
+        entries.add(e);
+        log.info("{}: starting instance {} on port {}, {} leases for {} instances",
+                new Object[] { poolName, name, props.getProperty(JarExecutor.PROP_SERVER_PORT), leases, entries.size() });
+        starter.execute(new Runnable() {
+            public void run() {
+                final long start = System.currentTimeMillis();
+                try {
+                    // starts the server and waits for it to be ready
+                    e.instance.getServerBaseUrl();
+                    log.info("{}: instance {} ready after {} msec", new Object[] { poolName, e.name, System.currentTimeMillis() - start });
+                    e.ready.complete(e.instance);
+                } catch (Throwable t) {
+                    log.warn(poolName + ": instance " + e.name + " failed to start", t);
+                    e.ready.completeExceptionally(t);
+                    synchronized (ElasticInstancePool.this) {
+                        entries.remove(e);
+                    }
+                    stop(e);
+                }
+            }
+        });
+    }
+
+    private static int getFreePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    /** Stop the instances that have been idle for longer than our grace period */
+    void stopIdleInstances() {
+        final List<Entry> toStop = new ArrayList<Entry>();
+        synchronized (this) {
+            final long limit = System.currentTimeMillis() - idleGraceMsec;
+            for (Entry e : new ArrayList<Entry>(entries)) {
+                if (entries.size() <= minInstances) {
+                    break;
+                }
+                if (e.busy == 0 && e.ready.isDone() && e.lastUsed < limit) {
+                    entries.remove(e);
+                    toStop.add(e);
+                }
+            }
+        }
+        for (Entry e : toStop) {
+            log.info("{}: stopping instance {}, idle for more than {} msec", new Object[] { poolName, e.name, idleGraceMsec });
+            stop(e);
+        }
+    }
+
+    private void stop(Entry e) {
+        final SlingInstanceState state = SlingInstanceState.getInstance(e.name);
+        try {
+            if (state.getJarExecutor() != null && e.instance.isServerStartedByThisClass()) {
+                state.getJarExecutor().stop();
+            }
+        } catch (Exception ex) {
+            log.warn(poolName + ": error stopping instance " + e.name, ex);
+        } finally {
+            state.setServerStopped();
+            cleanup(e.name, e.workFolder);
+        }
+    }
+
+    /** Forget the state of a stopped instance and delete its work folder */
+    private void cleanup(String name, File workFolder) {
+        SlingInstanceState.remove(name);
+        try {
+            WorkFolderSnapshot.deleteContent(workFolder.toPath());
+            Files.deleteIfExists(workFolder.toPath());
+        } catch (IOException ex) {
+            log.warn(poolName + ": cannot delete work folder " + workFolder + " of instance " + name, ex);
+        }
+    }
+
+    /** Stop all instances of this pool */
+    public void close() {
+        final List<Entry> toStop;
+        synchronized (this) {
+            closed = true;
+            toStop = new ArrayList<Entry>(entries);
+            entries.clear();
+        }
+        reaper.shutdownNow();
+        starter.shutdownNow();
+        for (Entry e : toStop) {
+            stop(e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ *  JUnit Rule, meant to be used as a ClassRule, that registers the test class
+ *  as a user of one or more Sling instances while it runs. Once the last
+ *  user of an instance is done, its cleanup work runs, like uninstalling
+ *  the additional bundles if {@link SlingTestBase#ADDITONAL_BUNDLES_UNINSTALL} is set.
+ */
+public class InstanceUsageRule implements TestRule {
+
+    private final String [] instanceNames;
+
+    public InstanceUsageRule(String ... instanceNames) {
+        if (instanceNames == null || instanceNames.length == 0) {
+            instanceNames = new String [] { SlingInstanceState.DEFAULT_INSTANCE_NAME };
+        }
+        this.instanceNames = instanceNames;
+    }
+
+    public Statement apply(final Statement base, Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                for (String name : instanceNames) {
+                    SlingInstanceState.getInstance(name).acquire();
+                }
+                try {
+                    base.evaluate();
+                } finally {
+                    for (String name : instanceNames) {
+                        SlingInstanceState.getInstance(name).release();
+                    }
+                }
+            }
+        };
+    }
+}
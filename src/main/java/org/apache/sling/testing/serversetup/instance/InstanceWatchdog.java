@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.testing.serversetup.event.InstanceEvent;
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Periodically checks that a ready instance is still alive: that the
+ *  process that we started is running, and that the server answers a
+ *  lightweight HTTP request within a short timeout.
+ *
+ *  After too many consecutive failures the instance is marked as failed,
+ *  so that tests fail fast instead of waiting for HTTP timeouts, and it
+ *  is optionally restarted.
+ */
+class InstanceWatchdog implements Runnable {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final SlingTestBase owner;
+    private final SlingInstanceState state;
+    private final String probePath;
+    private final int intervalMsec;
+    private final int timeoutMsec;
+    private final int maxFailures;
+    private final boolean checkProcess;
+    private final int maxRestarts;
+    private ScheduledExecutorService executor;
+    private int failures;
+
+    /** @param checkProcess true if the server process is started by our JarExecutor
+     *  @param maxRestarts number of times the instance is restarted, 0 to never restart it
+     */
+    InstanceWatchdog(SlingTestBase owner, SlingInstanceState state, String probePath, int intervalMsec, int timeoutMsec,
+            int maxFailures, boolean checkProcess, int maxRestarts) {
+        this.owner = owner;
+        this.state = state;
+        this.probePath = probePath;
+        this.intervalMsec = intervalMsec;
+        this.timeoutMsec = timeoutMsec;
+        this.maxFailures = Math.max(1, maxFailures);
+        this.checkProcess = checkProcess;
+        this.maxRestarts = maxRestarts;
+    }
+
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "InstanceWatchdog-" + state.getInstanceName());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(this, intervalMsec, intervalMsec, TimeUnit.MILLISECONDS);
+        log.info("Watchdog started for instance {}, checking every {} msec", state.getInstanceName(), intervalMsec);
+    }
+
+    synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public void run() {
+        final LifecycleState current = state.getLifecycleState();
+        if (!current.hasReached(LifecycleState.READY) || state.isOffline()) {
+            // starting, restarting, failed or being snapshotted, nothing to watch
+            failures = 0;
+            return;
+        }
+
+        String problem = null;
+        final JarExecutor jar = state.getJarExecutor();
+        if (checkProcess && jar != null && !jar.isAlive()) {
+            problem = "server process is not running";
+            failures = maxFailures;
+        } else {
+            try {
+                probe();
+                failures = 0;
+            } catch (IOException e) {
+                problem = "probe failed: " + e;
+                failures++;
+            }
+        }
+
+        if (failures >= maxFailures) {
+            failures = 0;
+            log.warn("Instance {} marked unhealthy, {}", state.getInstanceName(), problem);
+            state.setServerUnhealthy();
+            owner.publish(InstanceEvent.Type.INSTANCE_FAILED, "unhealthy, " + problem);
+            if (checkProcess && state.getRestartCount() < maxRestarts) {
+                restart();
+            }
+        } else if (problem != null) {
+            log.info("Instance {} check {}/{} failed, {}", new Object[] { state.getInstanceName(), failures, maxFailures, problem });
+        }
+    }
+
+    /** Any HTTP response within our timeout is fine, we just want to know
+     *  that the server is alive, not whether it's working correctly.
+     */
+    private void probe() throws IOException {
+        final HttpURLConnection c = (HttpURLConnection)new URL(state.getServerBaseUrl() + probePath).openConnection();
+        try {
+            c.setConnectTimeout(timeoutMsec);
+            c.setReadTimeout(timeoutMsec);
+            c.setInstanceFollowRedirects(false);
+            c.getResponseCode();
+        } finally {
+            c.disconnect();
+        }
+    }
+
+    private void restart() {
+        log.info("Restarting instance {} (restart {}/{})",
+                new Object[] { state.getInstanceName(), state.getRestartCount() + 1, maxRestarts });
+        final String reason = "restart " + (state.getRestartCount() + 1);
+        if (owner.restartServerInBackground(reason)) {
+            owner.publish(InstanceEvent.Type.INSTANCE_RESTARTING, reason);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/** Read-only view of the configuration of a Sling instance: a property
+ *  named <code>instanceName.key</code> in the global properties overrides
+ *  <code>key</code>, without copying the global properties.
+ *
+ *  Values are resolved when read. Keys are indexed in sorted sets, so that
+ *  the properties that start with a given prefix are found without
+ *  scanning all keys. That index is a snapshot: keys added to the global
+ *  properties afterwards are only visible through {@link #getProperty}.
+ *
+ *  The whole Map and Properties API reads the resolved values, as this
+ *  object's own table is always empty. Copies made by {@link #clone} or
+ *  by serialization are plain Properties.
+ */
+class LayeredProperties extends Properties {
+    private static final long serialVersionUID = 1L;
+
+    private final Properties global;
+    private final String instancePrefix;
+    private final NavigableSet<String> globalKeys;
+
+    /** Sorted keys of a plain Properties object, including its defaults */
+    static class KeyIndex {
+        private final Properties props;
+        private final Set<String> names;
+        private final NavigableSet<String> keys;
+
+        private KeyIndex(Properties props, Set<String> names) {
+            this.props = props;
+            this.names = names;
+            this.keys = new TreeSet<String>(names);
+        }
+
+        /** Return previous if it still indexes the keys of props, else a new index */
+        static KeyIndex of(Properties props, KeyIndex previous) {
+            final Set<String> names = props.stringPropertyNames();
+            if (previous != null && previous.props == props && previous.names.equals(names)) {
+                return previous;
+            }
+            return new KeyIndex(props, names);
+        }
+    }
+
+    /** @param globalKeys sorted index of the global keys, can be shared by
+     *      the views of several instances, see {@link #indexKeys}
+     */
+    LayeredProperties(Properties global, NavigableSet<String> globalKeys, String instanceName) {
+        this.global = global;
+        this.globalKeys = globalKeys;
+        this.instancePrefix = instanceName + ".";
+    }
+
+    /** Return a sorted index of the keys of the supplied properties */
+    static NavigableSet<String> indexKeys(Properties props) {
+        return Collections.unmodifiableNavigableSet(new TreeSet<String>(props.stringPropertyNames()));
+    }
+
+    /** Return the properties whose key starts with prefix, sorted by key.
+     *  Uses the key index if props is a LayeredProperties, else indexes the
+     *  keys of props for this call only, see {@link KeyIndex} to reuse that.
+     */
+    static SortedMap<String, String> withPrefix(Properties props, String prefix) {
+        if (props instanceof LayeredProperties) {
+            return ((LayeredProperties)props).withPrefix(prefix);
+        }
+        return withPrefix(KeyIndex.of(props, null), prefix);
+    }
+
+    /** Return the properties of the indexed object whose key starts with prefix,
+     *  sorted by key. Values are always read from that object.
+     */
+    static SortedMap<String, String> withPrefix(KeyIndex index, String prefix) {
+        final SortedMap<String, String> result = new TreeMap<String, String>();
+        for (String key : range(index.keys, prefix)) {
+            final String value = index.props.getProperty(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    private SortedMap<String, String> withPrefix(String prefix) {
+        final SortedMap<String, String> result = new TreeMap<String, String>();
+        for (String key : range(globalKeys, prefix)) {
+            result.put(key, global.getProperty(key));
+        }
+        // instance values override global ones
+        for (String key : range(globalKeys, instancePrefix + prefix)) {
+            result.put(key.substring(instancePrefix.length()), global.getProperty(key));
+        }
+        return result;
+    }
+
+    private static NavigableSet<String> range(NavigableSet<String> keys, String prefix) {
+        return keys.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    @Override
+    public String getProperty(String key) {
+        final String value = global.getProperty(instancePrefix + key);
+        return value != null ? value : global.getProperty(key);
+    }
+
+    @Override
+    public String getProperty(String key, String defaultValue) {
+        final String value = getProperty(key);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return key instanceof String ? getProperty((String)key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Set<String> stringPropertyNames() {
+        return withPrefix("").keySet();
+    }
+
+    @Override
+    public Set<Object> keySet() {
+        return Collections.<Object>unmodifiableSet(stringPropertyNames());
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return Collections.<Object, Object>unmodifiableMap(withPrefix("")).entrySet();
+    }
+
+    @Override
+    public Enumeration<?> propertyNames() {
+        return Collections.enumeration(stringPropertyNames());
+    }
+
+    @Override
+    public Enumeration<Object> keys() {
+        return Collections.enumeration(keySet());
+    }
+
+    @Override
+    public int size() {
+        return stringPropertyNames().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return globalKeys.isEmpty();
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+        final Object value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return withPrefix("").containsValue(value);
+    }
+
+    @Override
+    public boolean contains(Object value) {
+        return containsValue(value);
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return Collections.<Object>unmodifiableCollection(withPrefix("").values());
+    }
+
+    @Override
+    public Enumeration<Object> elements() {
+        return Collections.enumeration(values());
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Object, ? super Object> action) {
+        for (Map.Entry<String, String> e : withPrefix("").entrySet()) {
+            action.accept(e.getKey(), e.getValue());
+        }
+    }
+
+    /** Return a plain Properties copy of our resolved values */
+    private Properties copy() {
+        final Properties result = new Properties();
+        result.putAll(withPrefix(""));
+        return result;
+    }
+
+    @Override
+    public Object clone() {
+        return copy();
+    }
+
+    private Object writeReplace() {
+        return copy();
+    }
+
+    @Override
+    public void store(Writer writer, String comments) throws IOException {
+        copy().store(writer, comments);
+    }
+
+    @Override
+    public void store(OutputStream out, String comments) throws IOException {
+        copy().store(out, comments);
+    }
+
+    @Override
+    public void storeToXML(OutputStream os, String comment) throws IOException {
+        copy().storeToXML(os, comment);
+    }
+
+    @Override
+    public void storeToXML(OutputStream os, String comment, String encoding) throws IOException {
+        copy().storeToXML(os, comment, encoding);
+    }
+
+    @Override
+    public void list(PrintStream out) {
+        copy().list(out);
+    }
+
+    @Override
+    public void list(PrintWriter out) {
+        copy().list(out);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || withPrefix("").equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return withPrefix("").hashCode();
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public void putAll(Map<?, ?> t) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public Object remove(Object key) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public boolean replace(Object key, Object oldValue, Object newValue) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public Object replace(Object key, Object value) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super Object, ? super Object, ?> function) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public String toString() {
+        return withPrefix("").toString();
+    }
+}
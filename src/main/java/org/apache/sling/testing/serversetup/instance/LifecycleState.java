@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+/**
+ * Lifecycle of a Sling instance, as seen by the tests that use it.
+ * An instance moves forward through these states in declaration
+ * order, and can move to {@link #FAILED} from any state.
+ */
+public enum LifecycleState {
+    /** Nothing done yet */
+    NEW,
+    /** Server process started, or an external server configured */
+    STARTING,
+    /** All ready paths return the expected content */
+    READY,
+    /** Additional bundles installed and started */
+    BUNDLES_INSTALLED,
+    /** Quiet period done, tests can run */
+    SETTLED,
+    /** Startup, readiness check or bundles installation failed */
+    FAILED;
+
+    /** True if this state is at or after the supplied one on the way to SETTLED */
+    public boolean hasReached(LifecycleState other) {
+        return this != FAILED && other != FAILED && ordinal() >= other.ordinal();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.sling.testing.clients.ClientException;
+import org.apache.sling.testing.clients.SlingClient;
+import org.apache.sling.testing.clients.osgi.OsgiConsoleClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** OsgiConsoleClients shared by all tests that use the same Sling instance
+ *  and credentials. Each client is backed by its own pool of keep-alive
+ *  connections, with idle connections evicted in the background, which
+ *  avoids creating a client and new connections for each test method.
+ *  The clients and their connections are closed by {@link #close}.
+ */
+class PooledClients {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Map<String, OsgiConsoleClient> clients = new ConcurrentHashMap<String, OsgiConsoleClient>();
+    private final List<PoolingHttpClientConnectionManager> pools = new ArrayList<PoolingHttpClientConnectionManager>();
+
+    /** Return the shared client for the supplied server and credentials, creating it if needed */
+    OsgiConsoleClient get(String serverBaseUrl, String username, String password,
+            int maxConnectionsPerRoute, int idleTimeoutSeconds) throws ClientException {
+        // the password is part of the key as a digest only, to keep it out of the
+        // map keys and logs, the cached client itself holds the plain password
+        final String key = serverBaseUrl + "\n" + username + "\n" + digest(password);
+        OsgiConsoleClient client = clients.get(key);
+        if (client == null) {
+            synchronized (clients) {
+                client = clients.get(key);
+                if (client == null) {
+                    client = create(serverBaseUrl, username, password, maxConnectionsPerRoute, idleTimeoutSeconds);
+                    clients.put(key, client);
+                }
+            }
+        }
+        return client;
+    }
+
+    private OsgiConsoleClient create(String serverBaseUrl, String username, String password,
+            int maxConnectionsPerRoute, int idleTimeoutSeconds) throws ClientException {
+        final PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+        pool.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        pool.setMaxTotal(maxConnectionsPerRoute);
+        pools.add(pool);
+
+        final SlingClient.Builder builder = SlingClient.Builder.create(URI.create(serverBaseUrl), username, password);
+        builder.httpClientBuilder()
+            .setConnectionManager(pool)
+            .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+            .evictExpiredConnections()
+            .evictIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS);
+        log.debug("Creating pooled client for {}@{} (max {} connections, idle timeout {} seconds)",
+                new Object[] { username, serverBaseUrl, maxConnectionsPerRoute, idleTimeoutSeconds });
+        return builder.build().adaptTo(OsgiConsoleClient.class);
+    }
+
+    /** Close all clients and their connection pools. Clients that are requested
+     *  afterwards are created again.
+     */
+    void close() {
+        synchronized (clients) {
+            for (OsgiConsoleClient client : clients.values()) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close client for " + client.getUrl(), e);
+                }
+            }
+            clients.clear();
+            for (PoolingHttpClientConnectionManager pool : pools) {
+                pool.shutdown();
+            }
+            pools.clear();
+        }
+    }
+
+    private static String digest(String password) {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest(String.valueOf(password).getBytes(StandardCharsets.UTF_8))) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+/** A readiness check spec, as found in the values of the
+ *  {@link SlingTestBase#SERVER_READY_PROP_PREFIX} properties:
+ *  <code>path:content[:regexp]</code>, where content is a substring
+ *  of the expected response, or a regular expression if the third
+ *  part is "regexp".
+ */
+class ReadyPathSpec {
+    private final String path;
+    private final String pattern;
+    private final boolean regexp;
+
+    private ReadyPathSpec(String path, String pattern, boolean regexp) {
+        this.path = path;
+        this.pattern = pattern;
+        this.regexp = regexp;
+    }
+
+    static ReadyPathSpec parse(String spec) {
+        final String [] s = spec.split(":");
+        return new ReadyPathSpec(
+                s[0],
+                s.length > 1 ? s[1] : "",
+                s.length > 2 && "regexp".equals(s[2]));
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    String getPattern() {
+        return pattern;
+    }
+
+    boolean isRegexp() {
+        return regexp;
+    }
+}
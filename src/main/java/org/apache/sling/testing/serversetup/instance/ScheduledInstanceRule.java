@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ *  JUnit ClassRule that runs a test class against the instance that
+ *  {@link SlingInstanceManager#getInstanceFor} assigns to it, and records
+ *  the duration of the test class for the next runs.
+ */
+public class ScheduledInstanceRule implements TestRule {
+
+    private final SlingInstanceManager manager;
+    private volatile SlingInstance currentInstance;
+
+    public ScheduledInstanceRule(SlingInstanceManager manager) {
+        this.manager = manager;
+    }
+
+    public Statement apply(final Statement base, final Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                currentInstance = manager.getInstanceFor(description.getTestClass());
+                final long start = System.currentTimeMillis();
+                try {
+                    base.evaluate();
+                } finally {
+                    manager.recordDuration(description.getTestClass(), System.currentTimeMillis() - start);
+                    currentInstance = null;
+                }
+            }
+        };
+    }
+
+    /** Return the instance assigned to the current test class */
+    public SlingInstance getSlingInstance() {
+        return currentInstance;
+    }
+}
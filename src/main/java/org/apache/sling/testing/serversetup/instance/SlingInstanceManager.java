@@ -16,19 +16,41 @@
  */
 package org.apache.sling.testing.serversetup.instance;
 
+import static org.junit.Assert.fail;
+
 import org.apache.sling.testing.clients.ClientException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *  Helper class for running tests against multiple Sling instances,
  *  takes care of starting the Sling instances and waiting for them to be ready.
  */
 public class SlingInstanceManager implements Iterable<SlingInstance > {
+    private final Logger log = LoggerFactory.getLogger(getClass());
     private final Map<String, SlingInstance> slingTestInstances = new ConcurrentHashMap<String, SlingInstance>();
+    private final TestDurationScheduler scheduler;
+    private final Properties systemProperties;
+    private ElasticInstancePool elasticPool;
 
     public SlingInstanceManager(String... instanceNames) throws ClientException {
         this(System.getProperties(), instanceNames);
@@ -36,46 +58,86 @@ public class SlingInstanceManager implements Iterable<SlingInstance > {
 
     /** Get configuration but do not start server yet, that's done on demand */
     public SlingInstanceManager(Properties systemProperties, String... instanceNames) throws ClientException {
+        this.systemProperties = systemProperties;
         if (instanceNames == null || instanceNames.length == 0) {
             instanceNames = new String [] { SlingInstanceState.DEFAULT_INSTANCE_NAME };
         }
 
+        // instances share the same sorted index of the global keys
+        final NavigableSet<String> globalKeys = LayeredProperties.indexKeys(systemProperties);
         for (String instanceName : instanceNames) {
-            Properties instanceProperties = removeInstancePrefix(systemProperties, instanceName);
+            Properties instanceProperties = new LayeredProperties(systemProperties, globalKeys, instanceName);
 
             SlingInstanceState state = SlingInstanceState.getInstance(instanceName);
             SlingInstance instance = new SlingTestBase(state, instanceProperties);
             slingTestInstances.put(instanceName, instance);
         }
-    }
 
+        final String historyPath = systemProperties.getProperty(SlingTestBase.TEST_DURATIONS_FILE_PROP);
+        final int retentionDays = Integer.valueOf(systemProperties.getProperty(SlingTestBase.TEST_DURATIONS_RETENTION_DAYS_PROP, "30"));
+        scheduler = new TestDurationScheduler(Arrays.asList(instanceNames),
+                historyPath == null || historyPath.trim().length() == 0 ? null : new File(historyPath.trim()), retentionDays);
 
-    private Properties removeInstancePrefix(Properties properties, String instanceName) {
-        Properties result = new Properties();
-        for (Object propertyKey : properties.keySet()) {
-            Object propertyValue = properties.get(propertyKey);
+        if ("true".equals(systemProperties.getProperty(SlingTestBase.START_ALL_INSTANCES_PROP))) {
+            startAll();
+        }
+    }
 
-            if (propertyKey instanceof String) {
-                String propertyName = (String) propertyKey;
-                String instancePropertyName = null;
-                if (propertyName.startsWith(instanceName + ".")) {
-                    instancePropertyName = propertyName.substring(instanceName.length()+1);
-                }
+    /** Start all our instances concurrently, if not done yet, and wait for
+     *  all of them to be ready, instead of starting each one on demand.
+     *  The total startup time is then about the time of the slowest instance.
+     *  Fails if any instance cannot be started.
+     *  @return the startup time in msec of each instance, by instance name
+     */
+    public Map<String, Long> startAll() {
+        final long start = System.nanoTime();
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, slingTestInstances.size()), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "SlingInstanceManager-start-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        final Map<String, Future<Long>> futures = new LinkedHashMap<String, Future<Long>>();
+        try {
+            for (final Map.Entry<String, SlingInstance> e : slingTestInstances.entrySet()) {
+                futures.put(e.getKey(), executor.submit(new Callable<Long>() {
+                    public Long call() {
+                        final long instanceStart = System.nanoTime();
+                        // starts the server if needed and waits for it to be ready
+                        e.getValue().getServerBaseUrl();
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - instanceStart);
+                    }
+                }));
+            }
 
-                if (instancePropertyName != null) {
-                    result.put(instancePropertyName, propertyValue);
-                }
-                else if (!result.containsKey(propertyName)) {
-                    result.put(propertyName, propertyValue);
+            final Map<String, Long> result = new LinkedHashMap<String, Long>();
+            final List<String> failures = new ArrayList<String>();
+            for (Map.Entry<String, Future<Long>> e : futures.entrySet()) {
+                try {
+                    final long msec = e.getValue().get();
+                    result.put(e.getKey(), msec);
+                    log.info("Instance {} ready after {} msec", e.getKey(), msec);
+                } catch (ExecutionException ee) {
+                    log.info("Instance " + e.getKey() + " failed to start", ee.getCause());
+                    failures.add(e.getKey() + ": " + ee.getCause());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    failures.add(e.getKey() + ": interrupted");
                 }
             }
-            else {
-                result.put(propertyKey, propertyValue);
 
+            log.info("{} instances ready after {} msec total",
+                    result.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (!failures.isEmpty()) {
+                fail("Some instances could not be started: " + failures);
             }
+            return result;
+        } finally {
+            executor.shutdownNow();
         }
-
-        return result;
     }
 
 
@@ -83,6 +145,31 @@ public class SlingInstanceManager implements Iterable<SlingInstance > {
         return slingTestInstances.get(instanceName);
     }
 
+    /** Return the instance that runs the supplied test class, when our
+     *  instances are equivalent and test classes are spread across them.
+     *  Test classes are assigned based on their durations in previous runs,
+     *  see {@link SlingTestBase#TEST_DURATIONS_FILE_PROP} and {@link ScheduledInstanceRule}.
+     */
+    public SlingInstance getInstanceFor(Class<?> testClass) {
+        return getInstance(scheduler.getInstanceName(testClass.getName()));
+    }
+
+    /** Return a pool of instances that are started and stopped on demand,
+     *  created on the first call with the same configuration as this manager.
+     *  See {@link ElasticInstancePool} for its configuration properties.
+     */
+    public synchronized ElasticInstancePool getElasticPool() {
+        if (elasticPool == null) {
+            elasticPool = new ElasticInstancePool(systemProperties);
+        }
+        return elasticPool;
+    }
+
+    /** Record the duration of a test class, used to assign it in the next runs */
+    public void recordDuration(Class<?> testClass, long msec) {
+        scheduler.recordDuration(testClass.getName(), msec);
+    }
+
     public Iterator<SlingInstance> iterator() {
         return slingTestInstances.values().iterator();
     }
@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.sling.testing.serversetup.event.InstanceEvent;
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Collects the metrics of a {@link SlingInstanceState} and exposes
+ *  them, with a few operations, as an MBean once a {@link SlingTestBase}
+ *  uses that instance.
+ */
+class SlingInstanceMonitor implements SlingInstanceMonitorMBean {
+
+    static final String OBJECT_NAME_PREFIX = "org.apache.sling.testing.serversetup:type=SlingInstance,name=";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final SlingInstanceState state;
+    private final AtomicBoolean registered = new AtomicBoolean();
+    private volatile SlingTestBase owner;
+
+    private final AtomicLong probeCount = new AtomicLong();
+    private final AtomicLong probeFailures = new AtomicLong();
+    private final AtomicLong probeTotalMsec = new AtomicLong();
+    private final AtomicLong probeMaxMsec = new AtomicLong();
+    private volatile long probeLastMsec = -1;
+    private final AtomicInteger bundlesUploaded = new AtomicInteger();
+    private final AtomicInteger bundlesSkipped = new AtomicInteger();
+    private volatile long spawnMsec = -1;
+    private volatile long portOpenAt = -1;
+
+    SlingInstanceMonitor(SlingInstanceState state) {
+        this.state = state;
+    }
+
+    /** Register our MBean, if not done yet, using owner for our operations */
+    void register(SlingTestBase owner) {
+        if (!registered.compareAndSet(false, true)) {
+            return;
+        }
+        this.owner = owner;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(state.getInstanceName())));
+        } catch (JMException e) {
+            log.warn("Cannot register MBean for instance " + state.getInstanceName(), e);
+        }
+    }
+
+    /** Unregister our MBean, if it was registered */
+    void unregister() {
+        if (!registered.compareAndSet(true, false)) {
+            return;
+        }
+        owner = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                    new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(state.getInstanceName())));
+        } catch (JMException e) {
+            log.warn("Cannot unregister MBean for instance " + state.getInstanceName(), e);
+        }
+    }
+
+    void recordProbe(long msec, boolean success) {
+        probeCount.incrementAndGet();
+        if (!success) {
+            probeFailures.incrementAndGet();
+        }
+        probeTotalMsec.addAndGet(msec);
+        probeLastMsec = msec;
+        long max;
+        while (msec > (max = probeMaxMsec.get()) && !probeMaxMsec.compareAndSet(max, msec)) {
+            // retry
+        }
+    }
+
+    /** Record the time taken to start the server process */
+    void recordSpawn(long msec) {
+        spawnMsec = msec;
+        portOpenAt = -1;
+    }
+
+    /** Record the time at which the server port started accepting connections */
+    void recordPortOpen(long timestamp) {
+        portOpenAt = timestamp;
+    }
+
+    void recordBundlesInstalled(int uploaded, int skipped) {
+        bundlesUploaded.set(uploaded);
+        bundlesSkipped.set(skipped);
+    }
+
+    /** Time between two lifecycle states, -1 if one of them was not reached */
+    private long between(LifecycleState from, LifecycleState to) {
+        final long start = state.getReachedAt(from);
+        final long end = state.getReachedAt(to);
+        return start < 0 || end < 0 ? -1 : end - start;
+    }
+
+    public String getInstanceName() {
+        return state.getInstanceName();
+    }
+
+    public String getServerBaseUrl() {
+        return state.getServerBaseUrl();
+    }
+
+    public String getLifecycleState() {
+        return state.getLifecycleState().name();
+    }
+
+    public int getRestartCount() {
+        return state.getRestartCount();
+    }
+
+    public long getProcessSpawnMsec() {
+        return spawnMsec;
+    }
+
+    public long getPortOpenMsec() {
+        final long start = state.getReachedAt(LifecycleState.STARTING);
+        return start < 0 || portOpenAt < 0 ? -1 : portOpenAt - start;
+    }
+
+    public long getReadyMsec() {
+        return between(LifecycleState.STARTING, LifecycleState.READY);
+    }
+
+    public long getBundlesInstallMsec() {
+        return between(LifecycleState.READY, LifecycleState.BUNDLES_INSTALLED);
+    }
+
+    public long getQuietPeriodMsec() {
+        return between(LifecycleState.BUNDLES_INSTALLED, LifecycleState.SETTLED);
+    }
+
+    public long getTotalStartupMsec() {
+        return between(LifecycleState.STARTING, LifecycleState.SETTLED);
+    }
+
+    public long getReadinessProbeCount() {
+        return probeCount.get();
+    }
+
+    public long getReadinessProbeFailures() {
+        return probeFailures.get();
+    }
+
+    public long getReadinessProbeMeanMsec() {
+        final long n = probeCount.get();
+        return n == 0 ? -1 : probeTotalMsec.get() / n;
+    }
+
+    public long getReadinessProbeMaxMsec() {
+        return probeCount.get() == 0 ? -1 : probeMaxMsec.get();
+    }
+
+    public long getReadinessProbeLastMsec() {
+        return probeLastMsec;
+    }
+
+    public int getBundlesUploaded() {
+        return bundlesUploaded.get();
+    }
+
+    public int getBundlesSkipped() {
+        return bundlesSkipped.get();
+    }
+
+    public long getProcessId() {
+        final JarExecutor jar = state.getJarExecutor();
+        return jar == null ? -1 : jar.getProcessId();
+    }
+
+    public long getProcessUptimeMsec() {
+        final JarExecutor jar = state.getJarExecutor();
+        final long started = jar == null ? -1 : jar.getProcessStartTime();
+        return started < 0 ? -1 : System.currentTimeMillis() - started;
+    }
+
+    public boolean recheckReadiness() {
+        return getOwner().recheckReadiness();
+    }
+
+    public void restart() {
+        if (state.getJarExecutor() == null) {
+            throw new IllegalStateException("Instance " + state.getInstanceName() + " was not started here, cannot restart it");
+        }
+        final SlingTestBase current = getOwner();
+        log.info("Restarting instance {} on request", state.getInstanceName());
+        if (current.restartServerInBackground("requested via JMX")) {
+            current.publish(InstanceEvent.Type.INSTANCE_RESTARTING, "restart requested via JMX");
+        }
+    }
+
+    /** Return our owner, which is reset when our instance is removed, for example by a pool */
+    private SlingTestBase getOwner() {
+        final SlingTestBase current = owner;
+        if (current == null) {
+            throw new IllegalStateException("Instance " + state.getInstanceName() + " is no longer managed");
+        }
+        return current;
+    }
+}
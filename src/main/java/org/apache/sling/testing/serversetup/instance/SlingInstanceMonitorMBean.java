@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+/** JMX view of a Sling instance used by tests, registered as
+ *  <code>org.apache.sling.testing.serversetup:type=SlingInstance,name=instanceName</code>.
+ *  Durations are in msec, and -1 if not known yet.
+ */
+public interface SlingInstanceMonitorMBean {
+    String getInstanceName();
+
+    String getServerBaseUrl();
+
+    /** The name of the current {@link LifecycleState} */
+    String getLifecycleState();
+
+    int getRestartCount();
+
+    /** Time taken to start the server process, if started here */
+    long getProcessSpawnMsec();
+
+    /** Time between the start of the server and its port accepting connections, if started here */
+    long getPortOpenMsec();
+
+    /** Time between the start of the server and its readiness */
+    long getReadyMsec();
+
+    /** Time taken to install and start the additional bundles */
+    long getBundlesInstallMsec();
+
+    /** Time taken by the quiet period */
+    long getQuietPeriodMsec();
+
+    /** Time between the start of the server and the end of the quiet period */
+    long getTotalStartupMsec();
+
+    long getReadinessProbeCount();
+
+    long getReadinessProbeFailures();
+
+    long getReadinessProbeMeanMsec();
+
+    long getReadinessProbeMaxMsec();
+
+    long getReadinessProbeLastMsec();
+
+    /** Number of additional bundles that were uploaded by the last installation */
+    int getBundlesUploaded();
+
+    /** Number of additional bundles that were already installed unchanged */
+    int getBundlesSkipped();
+
+    /** ID of the server process, -1 if it was not started here or is not running */
+    long getProcessId();
+
+    /** Uptime of the server process, -1 if it was not started here or is not running */
+    long getProcessUptimeMsec();
+
+    /** Request all readiness check paths once.
+     *  @return true if all of them return the expected content
+     */
+    boolean recheckReadiness();
+
+    /** Stop the server and start it again from scratch, including the
+     *  readiness checks and additional bundles. Only possible if the
+     *  server was started here. Returns immediately, the restart runs
+     *  in the background and is ignored if one is already running.
+     */
+    void restart();
+}
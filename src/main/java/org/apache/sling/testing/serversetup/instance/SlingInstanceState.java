@@ -18,29 +18,63 @@ package org.apache.sling.testing.serversetup.instance;
 
 import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
  * Information about a sling instance that is shared between tests.
+ *
+ * The instance goes through the {@link LifecycleState}s with atomic
+ * transitions, so that it can be used by tests running in parallel: for
+ * each state, a single thread claims the work needed to reach it, and
+ * other threads wait for the outcome instead of repeating that work.
  */
 public class SlingInstanceState {
 
     public static final String DEFAULT_INSTANCE_NAME = "default";
 
-    private String serverBaseUrl;
-    private boolean serverStarted = false;
-    private boolean serverReady = false;
-    private boolean serverReadyTestFailed = false;
-    private boolean installBundlesFailed = false;
-    private boolean extraBundlesInstalled = false;
-    private boolean startupInfoProvided = false;
-    private boolean serverInfoLogged = false;
-    private JarExecutor jarExecutor;
-    private boolean quietPeriodComplete = false;
+    private final String instanceName;
+    private volatile String serverBaseUrl;
+    private volatile boolean serverStarted = false;
+    private volatile boolean serverReady = false;
+    private volatile boolean serverReadyTestFailed = false;
+    private volatile boolean installBundlesFailed = false;
+    private volatile boolean extraBundlesInstalled = false;
+    private volatile boolean startupInfoProvided = false;
+    private volatile boolean serverInfoLogged = false;
+    private final AtomicReference<JarExecutor> jarExecutor = new AtomicReference<JarExecutor>();
+    private volatile boolean quietPeriodComplete = false;
+    private volatile AdditionalBundlesIndex.Resolution bundlesResolution;
+    private volatile LayeredProperties.KeyIndex configKeys;
+    private final AtomicInteger usageCount = new AtomicInteger();
+    private final AtomicInteger testsCompleted = new AtomicInteger();
+    private final AtomicReference<Runnable> releaseAction = new AtomicReference<Runnable>();
+    private Thread shutdownHook;
+    private final PooledClients clients = new PooledClients();
+    private final AtomicInteger restartCount = new AtomicInteger();
+    private final AtomicReference<InstanceWatchdog> watchdog = new AtomicReference<InstanceWatchdog>();
+    private final AtomicReference<WorkFolderSnapshot> snapshot = new AtomicReference<WorkFolderSnapshot>();
+    private volatile boolean offline;
+    private final AtomicBoolean restarting = new AtomicBoolean();
+
+    private final AtomicReference<LifecycleState> lifecycleState = new AtomicReference<LifecycleState>(LifecycleState.NEW);
+    private final ConcurrentMap<LifecycleState, CompletableFuture<LifecycleState>> stateFutures =
+            new ConcurrentHashMap<LifecycleState, CompletableFuture<LifecycleState>>();
+    private final ConcurrentMap<LifecycleState, AtomicBoolean> stateClaims =
+            new ConcurrentHashMap<LifecycleState, AtomicBoolean>();
+    private final ConcurrentMap<LifecycleState, Long> reachedAt = new ConcurrentHashMap<LifecycleState, Long>();
+    private final SlingInstanceMonitor monitor = new SlingInstanceMonitor(this);
 
     /**
      * List of the urls of currently started servers
@@ -50,23 +84,188 @@ public class SlingInstanceState {
     /**
      * List of the instance names and states
      */
-    private static final Map<String, SlingInstanceState> slingInstancesState = new HashMap<String, SlingInstanceState>();
+    private static final ConcurrentMap<String, SlingInstanceState> slingInstancesState = new ConcurrentHashMap<String, SlingInstanceState>();
+
+
+    public static SlingInstanceState getInstance(String instanceName) {
+        SlingInstanceState result = slingInstancesState.get(instanceName);
+        if (result == null) {
+            final SlingInstanceState created = new SlingInstanceState(instanceName);
+            result = slingInstancesState.putIfAbsent(instanceName, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+
+    /** Forget the supplied instance, once its server is stopped for good:
+     *  its MBean is unregistered and its clients are closed. A later
+     *  {@link #getInstance} call with the same name creates a new state.
+     */
+    static void remove(String instanceName) {
+        final SlingInstanceState state = slingInstancesState.remove(instanceName);
+        if (state != null) {
+            state.monitor.unregister();
+            state.clients.close();
+            state.removeShutdownHook();
+        }
+    }
+
+    private SlingInstanceState(String instanceName) {
+        this.instanceName = instanceName;
+    }
+
+    public String getInstanceName() {
+        return instanceName;
+    }
+
+    public LifecycleState getLifecycleState() {
+        return lifecycleState.get();
+    }
+
+    /** Atomically move from one lifecycle state to another.
+     *  @return true if the instance was in the from state and is now in the to state
+     */
+    public boolean transition(LifecycleState from, LifecycleState to) {
+        if (!lifecycleState.compareAndSet(from, to)) {
+            return false;
+        }
+        reachedAt.put(to, System.currentTimeMillis());
+        completeFutures(to);
+        return true;
+    }
 
+    /** Move forward to the supplied state, unless that state or a later one
+     *  was already reached, or the instance failed.
+     *  @return true if the instance is now at or after the supplied state
+     */
+    boolean advanceTo(LifecycleState target) {
+        while (true) {
+            final LifecycleState current = lifecycleState.get();
+            if (current.hasReached(target)) {
+                return true;
+            }
+            if (current == LifecycleState.FAILED) {
+                return false;
+            }
+            if (transition(current, target)) {
+                return true;
+            }
+        }
+    }
 
-    public static synchronized SlingInstanceState getInstance(String instanceName) {
-        if (slingInstancesState.containsKey(instanceName)) {
-            return slingInstancesState.get(instanceName);
+    /** Move to the FAILED state, releasing all threads waiting for a later state */
+    void markFailed() {
+        lifecycleState.set(LifecycleState.FAILED);
+        reachedAt.put(LifecycleState.FAILED, System.currentTimeMillis());
+        // states reached before, like READY, do not hold anymore
+        for (Map.Entry<LifecycleState, CompletableFuture<LifecycleState>> e : stateFutures.entrySet()) {
+            final CompletableFuture<LifecycleState> f = e.getValue();
+            if (f.isDone() && f.getNow(null) != LifecycleState.FAILED) {
+                stateFutures.replace(e.getKey(), f, CompletableFuture.completedFuture(LifecycleState.FAILED));
+            }
         }
-        else {
-            slingInstancesState.put(instanceName, new SlingInstanceState());
+        completeFutures(LifecycleState.FAILED);
+    }
+
+    /** Go back to an earlier state, for example to reinstall bundles after
+     *  they were uninstalled. Later states must then be reached again.
+     */
+    void rollbackTo(LifecycleState target) {
+        for (LifecycleState s : LifecycleState.values()) {
+            if (s == LifecycleState.FAILED || s.ordinal() > target.ordinal()) {
+                reachedAt.remove(s);
+            }
+            if (s != LifecycleState.FAILED && s.ordinal() > target.ordinal()) {
+                stateClaims.remove(s);
+                final CompletableFuture<LifecycleState> f = stateFutures.get(s);
+                if (f != null && f.isDone()) {
+                    stateFutures.remove(s, f);
+                }
+            }
+        }
+        lifecycleState.set(target);
+    }
+
+    /** Return the time at which the supplied state was last reached, or -1 if
+     *  it was not reached since the last start
+     */
+    long getReachedAt(LifecycleState s) {
+        final Long t = reachedAt.get(s);
+        return t == null ? -1 : t;
+    }
+
+    SlingInstanceMonitor getMonitor() {
+        return monitor;
+    }
+
+    /** Claim the work needed to reach the supplied state.
+     *  @return true if the caller must do that work and then advance to the
+     *      state or mark this instance as failed, false if another thread
+     *      claimed it, in which case {@link #awaitState} can be used to wait for it.
+     */
+    boolean claim(LifecycleState target) {
+        AtomicBoolean claim = stateClaims.get(target);
+        if (claim == null) {
+            final AtomicBoolean created = new AtomicBoolean();
+            claim = stateClaims.putIfAbsent(target, created);
+            if (claim == null) {
+                claim = created;
+            }
         }
+        return claim.compareAndSet(false, true);
+    }
 
-        return slingInstancesState.get(instanceName);
+    /** Wait until the instance reaches the supplied state.
+     *  @return true if it did, false if the instance failed or the timeout expired
+     */
+    public boolean awaitState(LifecycleState target, long timeout, TimeUnit unit) throws InterruptedException {
+        if (lifecycleState.get().hasReached(target)) {
+            return true;
+        }
+        try {
+            // the instance might have failed after reaching target
+            return getFuture(target).get(timeout, unit) != LifecycleState.FAILED
+                    && lifecycleState.get() != LifecycleState.FAILED;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (TimeoutException e) {
+            return false;
+        }
     }
 
+    /** Wait until the instance is ready.
+     *  @return true if it is, false if it failed or the timeout expired
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitState(LifecycleState.READY, timeout, unit);
+    }
 
-    private SlingInstanceState() {
+    private CompletableFuture<LifecycleState> getFuture(LifecycleState target) {
+        CompletableFuture<LifecycleState> f = stateFutures.get(target);
+        if (f == null) {
+            final CompletableFuture<LifecycleState> created = new CompletableFuture<LifecycleState>();
+            f = stateFutures.putIfAbsent(target, created);
+            if (f == null) {
+                f = created;
+            }
+        }
+        // the state might have changed while we were creating the future
+        final LifecycleState current = lifecycleState.get();
+        if (current == LifecycleState.FAILED || current.hasReached(target)) {
+            f.complete(current);
+        }
+        return f;
+    }
 
+    private void completeFutures(LifecycleState reached) {
+        for (Map.Entry<LifecycleState, CompletableFuture<LifecycleState>> e : stateFutures.entrySet()) {
+            if (reached == LifecycleState.FAILED || reached.hasReached(e.getKey())) {
+                e.getValue().complete(reached);
+            }
+        }
     }
 
     public boolean isServerStarted() {
@@ -75,15 +274,105 @@ public class SlingInstanceState {
 
     public boolean setServerStarted(boolean serverStarted) {
         this.serverStarted = serverStarted;
+        if (serverStarted) {
+            advanceTo(LifecycleState.STARTING);
+        }
         return startedServersUrls.add(serverBaseUrl);
     }
 
+    /** Record that our server was stopped: its URL can be used by
+     *  another server, and tests that wait for this one fail.
+     */
+    void setServerStopped() {
+        final InstanceWatchdog w = watchdog.getAndSet(null);
+        if (w != null) {
+            w.close();
+        }
+        serverStarted = false;
+        serverReady = false;
+        if (serverBaseUrl != null) {
+            startedServersUrls.remove(serverBaseUrl);
+        }
+        markFailed();
+    }
+
+    /** Record that our server stopped answering after being ready,
+     *  so that tests fail fast instead of waiting for HTTP timeouts.
+     */
+    void setServerUnhealthy() {
+        serverReady = false;
+        markFailed();
+    }
+
+    /** Go back to the NEW state before restarting our server from scratch,
+     *  after it became unhealthy. Increments the restart count.
+     */
+    void resetForRestart() {
+        restartCount.incrementAndGet();
+        serverStarted = false;
+        serverReady = false;
+        serverReadyTestFailed = false;
+        installBundlesFailed = false;
+        extraBundlesInstalled = false;
+        quietPeriodComplete = false;
+        if (serverBaseUrl != null) {
+            startedServersUrls.remove(serverBaseUrl);
+        }
+        rollbackTo(LifecycleState.NEW);
+    }
+
+    /** Set our work folder snapshot unless one is already set.
+     *  @return true if the supplied snapshot was set
+     */
+    boolean initSnapshot(WorkFolderSnapshot s) {
+        return snapshot.compareAndSet(null, s);
+    }
+
+    WorkFolderSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /** True while our server is deliberately stopped, to take or restore a snapshot */
+    boolean isOffline() {
+        return offline;
+    }
+
+    void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /** Mark our server as being restarted.
+     *  @return false if it already is
+     */
+    boolean beginRestart() {
+        return restarting.compareAndSet(false, true);
+    }
+
+    void endRestart() {
+        restarting.set(false);
+    }
+
+    /** Return the number of times our server was restarted after becoming unhealthy */
+    public int getRestartCount() {
+        return restartCount.get();
+    }
+
+    /** Set our watchdog unless one is already set.
+     *  @return true if the supplied watchdog was set
+     */
+    boolean initWatchdog(InstanceWatchdog w) {
+        return watchdog.compareAndSet(null, w);
+    }
+
     public boolean isServerReady() {
         return serverReady;
     }
 
     public void setServerReady(boolean serverReady) {
         this.serverReady = serverReady;
+        if (serverReady) {
+            advanceTo(LifecycleState.READY);
+        }
     }
 
     public boolean isServerReadyTestFailed() {
@@ -92,6 +381,9 @@ public class SlingInstanceState {
 
     public void setServerReadyTestFailed(boolean serverReadyTestFailed) {
         this.serverReadyTestFailed = serverReadyTestFailed;
+        if (serverReadyTestFailed) {
+            markFailed();
+        }
     }
 
     public boolean isInstallBundlesFailed() {
@@ -100,6 +392,9 @@ public class SlingInstanceState {
 
     public void setInstallBundlesFailed(boolean installBundlesFailed) {
         this.installBundlesFailed = installBundlesFailed;
+        if (installBundlesFailed) {
+            markFailed();
+        }
     }
 
     public boolean isExtraBundlesInstalled() {
@@ -108,6 +403,11 @@ public class SlingInstanceState {
 
     public void setExtraBundlesInstalled(boolean extraBundlesInstalled) {
         this.extraBundlesInstalled = extraBundlesInstalled;
+        if (extraBundlesInstalled) {
+            advanceTo(LifecycleState.BUNDLES_INSTALLED);
+        } else if (lifecycleState.get().hasReached(LifecycleState.BUNDLES_INSTALLED)) {
+            rollbackTo(LifecycleState.READY);
+        }
     }
 
     public boolean isStartupInfoProvided() {
@@ -127,11 +427,18 @@ public class SlingInstanceState {
     }
 
     public JarExecutor getJarExecutor() {
-        return jarExecutor;
+        return jarExecutor.get();
     }
 
     public void setJarExecutor(JarExecutor jarExecutor) {
-        this.jarExecutor = jarExecutor;
+        this.jarExecutor.set(jarExecutor);
+    }
+
+    /** Set our JarExecutor unless one is already set.
+     *  @return the JarExecutor that is now set
+     */
+    JarExecutor initJarExecutor(JarExecutor candidate) {
+        return jarExecutor.compareAndSet(null, candidate) ? candidate : jarExecutor.get();
     }
 
     public String getServerBaseUrl() {
@@ -148,6 +455,115 @@ public class SlingInstanceState {
 
     public void setQuietPeriodComplete(boolean quietPeriodComplete) {
         this.quietPeriodComplete = quietPeriodComplete;
+        if (quietPeriodComplete) {
+            advanceTo(LifecycleState.SETTLED);
+        }
+    }
+
+    AdditionalBundlesIndex.Resolution getBundlesResolution() {
+        return bundlesResolution;
+    }
+
+    void setBundlesResolution(AdditionalBundlesIndex.Resolution bundlesResolution) {
+        this.bundlesResolution = bundlesResolution;
+    }
+
+    LayeredProperties.KeyIndex getConfigKeys() {
+        return configKeys;
+    }
+
+    void setConfigKeys(LayeredProperties.KeyIndex configKeys) {
+        this.configKeys = configKeys;
+    }
+
+    /** Register a user of this instance, like a test class, that
+     *  must call {@link #release} once it's done with it.
+     *  @return the number of current users
+     */
+    public int acquire() {
+        return usageCount.incrementAndGet();
+    }
+
+    /** Unregister a user of this instance. When the last user is gone,
+     *  cleanup work like uninstalling additional bundles is done.
+     *  @return the number of remaining users
+     *  @throws IllegalStateException if there is no matching {@link #acquire} call
+     */
+    public int release() {
+        while (true) {
+            final int current = usageCount.get();
+            if (current <= 0) {
+                throw new IllegalStateException("Instance " + instanceName + " released more often than acquired");
+            }
+            if (usageCount.compareAndSet(current, current - 1)) {
+                if (current == 1) {
+                    runReleaseAction();
+                }
+                return current - 1;
+            }
+        }
+    }
+
+    /** Return the number of current users of this instance */
+    public int getUsageCount() {
+        return usageCount.get();
+    }
+
+    /** Count a test method that ran on this instance */
+    void testCompleted() {
+        testsCompleted.incrementAndGet();
+    }
+
+    /** Return the number of test methods that ran on this instance */
+    int getTestsCompleted() {
+        return testsCompleted.get();
+    }
+
+    /** Set the cleanup action that runs when the last user releases this
+     *  instance, or at JVM shutdown if that didn't happen.
+     */
+    void setReleaseAction(Runnable action) {
+        releaseAction.set(action);
+        addShutdownHook();
+    }
+
+    /** At JVM shutdown, run the pending cleanup action and then close our clients */
+    private synchronized void addShutdownHook() {
+        if (shutdownHook == null) {
+            shutdownHook = new Thread(getClass().getSimpleName() + "Shutdown-" + instanceName) {
+                @Override
+                public void run() {
+                    runReleaseAction();
+                    clients.close();
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    private synchronized void removeShutdownHook() {
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignore) {
+                // already shutting down
+            }
+            shutdownHook = null;
+        }
+    }
+
+    /** Run the pending cleanup action, if any, at most once */
+    void runReleaseAction() {
+        final Runnable r = releaseAction.getAndSet(null);
+        if (r != null) {
+            r.run();
+        }
+    }
+
+    /** Return the HTTP clients shared by the tests that use this instance */
+    PooledClients getClients() {
+        addShutdownHook();
+        return clients;
     }
 
 }
@@ -16,9 +16,19 @@
  */
 package org.apache.sling.testing.serversetup.instance;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.sling.testing.clients.ClientException;
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
+import org.junit.runners.model.MultipleFailureException;
 import org.junit.runners.model.Statement;
 
 /**
@@ -26,15 +36,26 @@ import org.junit.runners.model.Statement;
  */
 public class SlingInstancesRule implements TestRule {
 
-    private SlingInstance currentInstance;
+    private volatile SlingInstance currentInstance;
+    private final ThreadLocal<SlingInstance> threadInstance = new ThreadLocal<SlingInstance>();
     private final Iterable<SlingInstance> instances;
+    private final boolean concurrent;
     
     public SlingInstancesRule(String ... instanceNames) throws ClientException {
         this(new SlingInstanceManager(instanceNames));
     }
     
     public SlingInstancesRule(Iterable<SlingInstance> it) {
+        this(it, false);
+    }
+
+    /** @param concurrent if true, the base statement is evaluated for all
+     *      instances in parallel, each in its own thread. Tests must then
+     *      be safe to run concurrently against different instances.
+     */
+    public SlingInstancesRule(Iterable<SlingInstance> it, boolean concurrent) {
         instances = it;
+        this.concurrent = concurrent;
     }
 
     /** Evaluate our base statement once for every instance.
@@ -42,6 +63,14 @@ public class SlingInstancesRule implements TestRule {
      *  See MultipleOsgiConsoleTest example in the samples integration tests module.
      */
     public Statement apply(final Statement base, Description dest) {
+        if (concurrent) {
+            return new Statement() {
+                @Override
+                public void evaluate() throws Throwable {
+                    evaluateConcurrently(base);
+                }
+            };
+        }
         return new Statement() {
             @Override
             public void evaluate() throws Throwable {
@@ -53,8 +82,73 @@ public class SlingInstancesRule implements TestRule {
             }
         };
     }
+
+    /** Evaluate base for each instance in parallel, and report the failures
+     *  of all instances, each with its instance name, once they are all done.
+     */
+    private void evaluateConcurrently(final Statement base) throws Throwable {
+        final List<SlingInstance> list = new ArrayList<SlingInstance>();
+        for(SlingInstance instance : instances) {
+            list.add(instance);
+        }
+        if (list.isEmpty()) {
+            return;
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(list.size(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "SlingInstancesRule-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            final List<Future<Throwable>> futures = new ArrayList<Future<Throwable>>();
+            for(final SlingInstance instance : list) {
+                futures.add(executor.submit(new Callable<Throwable>() {
+                    public Throwable call() {
+                        threadInstance.set(instance);
+                        try {
+                            base.evaluate();
+                            return null;
+                        } catch(Throwable t) {
+                            return t;
+                        } finally {
+                            threadInstance.remove();
+                        }
+                    }
+                }));
+            }
+            final List<Throwable> errors = new ArrayList<Throwable>();
+            for(int i = 0; i < futures.size(); i++) {
+                final Throwable t = futures.get(i).get();
+                if (t != null) {
+                    errors.add(withInstanceName(t, list.get(i)));
+                }
+            }
+            MultipleFailureException.assertEmpty(errors);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
     
+    /** Wrap a failure so that its message says which instance it happened on */
+    private static Throwable withInstanceName(Throwable t, SlingInstance instance) {
+        final String name = instance instanceof SlingTestBase
+                ? ((SlingTestBase)instance).getInstanceName() : instance.getServerBaseUrl();
+        final String message = "Instance " + name + ": " + t;
+        if (t instanceof AssertionError) {
+            return new AssertionError(message, t);
+        }
+        return new Exception(message, t);
+    }
+
+    /** Return the instance that the current test evaluation runs against.
+     *  In concurrent mode, that's the instance bound to the calling thread.
+     */
     public SlingInstance getSlingInstance() {
-        return currentInstance;
+        final SlingInstance result = threadInstance.get();
+        return result != null ? result : currentInstance;
     }
-}
\ No newline at end of file
+}
@@ -19,15 +19,22 @@ package org.apache.sling.testing.serversetup.instance;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.TreeSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.message.BasicNameValuePair;
@@ -37,7 +44,10 @@ import org.apache.sling.testing.clients.SlingHttpResponse;
 import org.apache.sling.testing.clients.osgi.BundlesInstaller;
 import org.apache.sling.testing.clients.osgi.OsgiConsoleClient;
 import org.apache.sling.testing.clients.util.TimeoutsProvider;
+import org.apache.sling.testing.serversetup.event.InstanceEvent;
+import org.apache.sling.testing.serversetup.event.InstanceEvents;
 import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.apache.sling.testing.serversetup.jfr.JfrSupport;
 import org.junit.After;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,16 +55,21 @@ import org.slf4j.LoggerFactory;
 /** Base class for running tests against a Sling instance,
  *  takes care of starting Sling and waiting for it to be ready.
  */
-public class SlingTestBase implements SlingInstance {
+public class SlingTestBase implements ResettableSlingInstance {
     // TODO: unify these
     public static final String TEST_SERVER_URL_PROP = "test.server.url";
     public static final String TEST_SERVER_USERNAME = "test.server.username";
     public static final String TEST_SERVER_PASSWORD = "test.server.password";
+    public static final String TEST_SERVER_MAX_CONNECTIONS_PROP = "test.server.http.max.connections";
+    public static final String TEST_SERVER_IDLE_TIMEOUT_PROP = "test.server.http.idle.timeout.seconds";
     public static final String SERVER_READY_TIMEOUT_PROP = "server.ready.timeout.seconds";
     public static final String SERVER_READY_TIMEOUT_INITIAL_DELAY_PROP = "server.ready.timeout.initial.delay.seconds";
     public static final String SERVER_READY_TIMEOUT_DELAY_PROP = "server.ready.timeout.delay.seconds";
     public static final String SERVER_READY_QUIET_PERIOD_PROP = "server.ready.quiet.period.seconds";
+    public static final String SERVER_READY_QUIET_PERIOD_STABLE_PROP = "server.ready.quiet.period.stable.seconds";
+    public static final String SERVER_READY_QUIET_PERIOD_POLL_PROP = "server.ready.quiet.period.poll.millis";
     public static final String SERVER_READY_PROP_PREFIX = "server.ready.path";
+    public static final String SERVER_READY_BUNDLE_TIMELINE_POLL_PROP = "server.ready.bundle.timeline.poll.millis";
     public static final String KEEP_JAR_RUNNING_PROP = "keepJarRunning";
     public static final String SERVER_HOSTNAME_PROP = "test.server.hostname";
     public static final String ADDITONAL_BUNDLES_PATH = "additional.bundles.path";
@@ -62,10 +77,44 @@ public class SlingTestBase implements SlingInstance {
     public static final String BUNDLE_TO_INSTALL_PREFIX = "sling.additional.bundle";
     public static final String START_BUNDLES_TIMEOUT_SECONDS = "start.bundles.timeout.seconds";
     public static final String BUNDLE_INSTALL_TIMEOUT_SECONDS = "bundle.install.timeout.seconds";
+    public static final String BUNDLE_INSTALL_PARALLELISM = "additional.bundles.install.parallelism";
+    public static final String ADDITIONAL_BUNDLES_DIGEST_CACHE = "additional.bundles.digest.cache";
+    public static final String START_ALL_INSTANCES_PROP = "server.start.all.instances";
+    public static final String TEST_DURATIONS_FILE_PROP = "test.durations.history.file";
+    public static final String TEST_DURATIONS_RETENTION_DAYS_PROP = "test.durations.history.retention.days";
+    public static final String SERVER_WATCHDOG_INTERVAL_PROP = "server.watchdog.interval.seconds";
+    public static final String SERVER_WATCHDOG_TIMEOUT_PROP = "server.watchdog.timeout.seconds";
+    public static final String SERVER_WATCHDOG_MAX_FAILURES_PROP = "server.watchdog.max.failures";
+    public static final String SERVER_WATCHDOG_PATH_PROP = "server.watchdog.path";
+    public static final String SERVER_WATCHDOG_MAX_RESTARTS_PROP = "server.watchdog.max.restarts";
+    public static final String SERVER_SNAPSHOT_FOLDER_PROP = "server.snapshot.folder";
+    public static final String STARTUP_HISTORY_FILE_PROP = "server.startup.history.file";
+    public static final String STARTUP_HISTORY_BASELINE_RUNS_PROP = "server.startup.history.baseline.runs";
+    public static final String STARTUP_HISTORY_PERCENTILE_PROP = "server.startup.history.baseline.percentile";
+    public static final String STARTUP_HISTORY_THRESHOLD_PROP = "server.startup.history.regression.percent";
+    public static final String STARTUP_HISTORY_FAIL_PROP = "server.startup.history.regression.fail";
     public static final String ADMIN = "admin";
 
+    /** OSGi console paths polled to detect bundle, component and service activity */
+    private static final String [] ACTIVITY_PATHS = {
+        "/system/console/bundles.json",
+        "/system/console/components.json",
+        "/system/console/services.json"
+    };
+
+    /** How much longer than the quiet period tests wait for another test that is doing it */
+    private static final int QUIET_PERIOD_AWAIT_MARGIN_MSEC = 60000;
+
+    /** Number of bundles listed in the log by the bundle activation timeline */
+    private static final int BUNDLE_TIMELINE_LOG_COUNT = 10;
+
+    /** Connect timeout and interval of the checks of the port of the server that we started */
+    private static final int PORT_CHECK_TIMEOUT_MSEC = 500;
+    private static final int PORT_CHECK_INTERVAL_MSEC = 100;
+
     private final boolean keepJarRunning;
     private final boolean uninstallAdditionalBundles;
+    private final boolean externalServer;
     private final String serverUsername;
     private final String serverPassword;
     private final SlingInstanceState slingTestState;
@@ -94,16 +143,19 @@ public class SlingTestBase implements SlingInstance {
             slingTestState.setServerBaseUrl(configuredUrl);
             slingTestState.setServerStarted(true);
             uninstallAdditionalBundles = "true".equals(systemProperties.getProperty(ADDITONAL_BUNDLES_UNINSTALL));
+            externalServer = true;
         } else {
-            synchronized(this.slingTestState) {
-                try {
-                    if(slingTestState.getJarExecutor() == null) {
-                        slingTestState.setJarExecutor(new JarExecutor(systemProperties));
+            try {
+                if(slingTestState.getJarExecutor() == null) {
+                    final Properties jarConfig = new Properties(systemProperties);
+                    if (systemProperties.getProperty(JarExecutor.PROP_INSTANCE_NAME) == null) {
+                        jarConfig.setProperty(JarExecutor.PROP_INSTANCE_NAME, slingTestState.getInstanceName());
                     }
-                } catch(Exception e) {
-                    log.error("JarExecutor setup failed", e);
-                    fail("JarExecutor setup failed: " + e);
+                    slingTestState.initJarExecutor(new JarExecutor(jarConfig));
                 }
+            } catch(Exception e) {
+                log.error("JarExecutor setup failed", e);
+                fail("JarExecutor setup failed: " + e);
             }
             String serverHost = systemProperties.getProperty(SERVER_HOSTNAME_PROP);
             if(serverHost == null || serverHost.trim().length() == 0) {
@@ -111,6 +163,7 @@ public class SlingTestBase implements SlingInstance {
             }
             slingTestState.setServerBaseUrl("http://" + serverHost + ":" + slingTestState.getJarExecutor().getServerPort());
             uninstallAdditionalBundles = false; // never undeploy additional bundles in case the server is provisioned here!
+            externalServer = false;
         }
 
         // Set configured username using "admin" as default credential
@@ -129,9 +182,12 @@ public class SlingTestBase implements SlingInstance {
             serverPassword = ADMIN;
         }
 
-        // create client
+        // get the client shared by all tests that use this instance with the same credentials
         try {
-            osgiConsoleClient = new OsgiConsoleClient(URI.create(slingTestState.getServerBaseUrl()), serverUsername, serverPassword);
+            final int maxConnections = Integer.valueOf(systemProperties.getProperty(TEST_SERVER_MAX_CONNECTIONS_PROP, "10"));
+            final int idleTimeoutSec = Integer.valueOf(systemProperties.getProperty(TEST_SERVER_IDLE_TIMEOUT_PROP, "30"));
+            osgiConsoleClient = slingTestState.getClients().get(slingTestState.getServerBaseUrl(),
+                    serverUsername, serverPassword, maxConnections, idleTimeoutSec);
         } catch (ClientException e) {
             throw new RuntimeException("Cannot instantiate client", e);
         }
@@ -142,106 +198,455 @@ public class SlingTestBase implements SlingInstance {
             log.info("Server base URL={}", slingTestState.getServerBaseUrl());
             slingTestState.setServerInfoLogged(true);
         }
+
+        slingTestState.getMonitor().register(this);
     }
 
     /**
      * Automatically by the SlingRemoteTestRunner since package version 1.1.0.
+     * Uninstalls the additional bundles after each test, unless our
+     * {@link SlingInstanceState} is used via an {@link InstanceUsageRule}:
+     * they are then uninstalled once its last user releases it.
      */
     @After
     public void uninstallAdditionalBundlesIfNecessary() {
-        if (uninstallAdditionalBundles) {
-            log.info("Uninstalling additional bundles...");
-            uninstallAdditionalBundles();
+        if (slingTestState.getUsageCount() == 0) {
+            slingTestState.runReleaseAction();
         }
     }
 
-    /** Start the server, if not done yet */
+    /** Count the tests that ran on our instance, to detect snapshots taken after them */
+    @After
+    public void recordTestCompleted() {
+        slingTestState.testCompleted();
+    }
+
+    /** Return the name of the instance that we use */
+    String getInstanceName() {
+        return slingTestState.getInstanceName();
+    }
+
+    /** Start the server, if not done yet, and block if {@link #KEEP_JAR_RUNNING_PROP} is set */
     private void startServerIfNeeded() {
+        startServer();
+        blockIfRequested();
+    }
+
+    /** Start the server, if not done yet, and wait for it to be ready and settled */
+    private void startServer() {
         try {
             if(slingTestState.isServerStarted() && !serverStartedByThisClass && !slingTestState.isStartupInfoProvided()) {
                 log.info(TEST_SERVER_URL_PROP + " was set: not starting server jar (" + slingTestState.getServerBaseUrl() + ")");
             }
-            if(!slingTestState.isServerStarted()) {
-                synchronized (slingTestState) {
-                    if(!slingTestState.isServerStarted()) {
-                        slingTestState.getJarExecutor().start();
-                        serverStartedByThisClass = true;
-                        if(!slingTestState.setServerStarted(true)) {
-                            fail("A server is already started at " + slingTestState.getServerBaseUrl());
-                        }
-                    }
+            if(slingTestState.transition(LifecycleState.NEW, LifecycleState.STARTING)) {
+                try {
+                    final long spawnStart = System.currentTimeMillis();
+                    slingTestState.getJarExecutor().start();
+                    slingTestState.getMonitor().recordSpawn(System.currentTimeMillis() - spawnStart);
+                } catch(Exception e) {
+                    slingTestState.markFailed();
+                    publish(InstanceEvent.Type.INSTANCE_FAILED, "server start failed: " + e);
+                    throw e;
+                }
+                serverStartedByThisClass = true;
+                if(!slingTestState.setServerStarted(true)) {
+                    slingTestState.markFailed();
+                    fail("A server is already started at " + slingTestState.getServerBaseUrl());
                 }
             }
             slingTestState.setStartupInfoProvided(true);
             waitForServerReady();
+            startWatchdogIfNeeded();
             installAdditionalBundles();
             waitForQuietPeriod();
-            blockIfRequested();
         } catch(Exception e) {
             log.error("Exception in maybeStartServer()", e);
             fail("maybeStartServer() failed: " + e);
         }
     }
 
+    /** Return the snapshot of our work folder, set up on first use.
+     *  Fails if {@link #SERVER_SNAPSHOT_FOLDER_PROP} and {@link JarExecutor#PROP_WORK_FOLDER}
+     *  are not set, or if they overlap.
+     */
+    private WorkFolderSnapshot getSnapshot() {
+        final WorkFolderSnapshot existing = slingTestState.getSnapshot();
+        if (existing != null) {
+            return existing;
+        }
+        final String snapshotRoot = systemProperties.getProperty(SERVER_SNAPSHOT_FOLDER_PROP);
+        final String workFolder = systemProperties.getProperty(JarExecutor.PROP_WORK_FOLDER);
+        if (externalServer || slingTestState.getJarExecutor() == null
+                || snapshotRoot == null || snapshotRoot.trim().length() == 0
+                || workFolder == null || workFolder.trim().length() == 0) {
+            fail("No snapshot available for instance " + slingTestState.getInstanceName() + ", "
+                    + SERVER_SNAPSHOT_FOLDER_PROP + " and " + JarExecutor.PROP_WORK_FOLDER + " must be set");
+        }
+        WorkFolderSnapshot snapshot = null;
+        try {
+            snapshot = new WorkFolderSnapshot(new File(workFolder.trim()),
+                    new File(snapshotRoot.trim(), slingTestState.getInstanceName()),
+                    Runtime.getRuntime().availableProcessors());
+        } catch (IllegalArgumentException e) {
+            fail("Invalid snapshot setup for instance " + slingTestState.getInstanceName() + ": " + e.getMessage());
+        }
+        slingTestState.initSnapshot(snapshot);
+        return slingTestState.getSnapshot();
+    }
+
+    /** Restore the snapshot of our work folder and wait for the server to be
+     *  ready again. The snapshot is taken by the first call, so that a server
+     *  that is never reset does not pay for it: that call must happen before
+     *  tests modify the server, typically in a <code>@Before</code> method.
+     *  A warning is logged if tests already ran on our instance when the
+     *  snapshot is taken.
+     *  Requires {@link #SERVER_SNAPSHOT_FOLDER_PROP} and {@link JarExecutor#PROP_WORK_FOLDER}.
+     */
+    public void reset() {
+        startServerIfNeeded();
+        final WorkFolderSnapshot snapshot = getSnapshot();
+        synchronized (snapshot) {
+            restartWarm(snapshot, snapshot.isCaptured());
+        }
+    }
+
+    /** Stop our server, take or restore a snapshot of its work folder, start it again
+     *  and wait for it to be ready. Additional bundles are part of the snapshot so
+     *  they are not installed again.
+     */
+    private void restartWarm(WorkFolderSnapshot snapshot, boolean restore) {
+        final long start = System.currentTimeMillis();
+        final JarExecutor jar = slingTestState.getJarExecutor();
+        final LifecycleState previous = slingTestState.getLifecycleState();
+        // tests that start meanwhile wait for us to get the server ready again
+        slingTestState.setOffline(true);
+        slingTestState.setServerReady(false);
+        slingTestState.rollbackTo(LifecycleState.STARTING);
+        slingTestState.claim(LifecycleState.READY);
+        try {
+            jar.stop();
+            if (restore) {
+                snapshot.restore();
+            } else {
+                final int testsCompleted = slingTestState.getTestsCompleted();
+                if (testsCompleted > 0) {
+                    log.warn("Snapshot of instance {} taken after {} tests ran on it, changes that they made "
+                            + "to the server are restored by each reset. Call reset() before tests modify the server.",
+                            slingTestState.getInstanceName(), testsCompleted);
+                }
+                snapshot.capture();
+            }
+            jar.start();
+            final TimeoutsProvider tp = TimeoutsProvider.getInstance();
+            checkServerReady(
+                    tp.getTimeout(Integer.valueOf(systemProperties.getProperty(SERVER_READY_TIMEOUT_PROP, "60"))),
+                    0,
+                    tp.getTimeout(Integer.valueOf(systemProperties.getProperty(SERVER_READY_TIMEOUT_DELAY_PROP, "1"))) * 1000);
+            // additional bundles and quiet period are part of the snapshot
+            slingTestState.advanceTo(previous);
+        } catch (Exception e) {
+            slingTestState.setServerReadyTestFailed(true);
+            log.error("Snapshot " + (restore ? "restore" : "capture") + " failed", e);
+            fail("Snapshot " + (restore ? "restore" : "capture") + " failed: " + e);
+        } finally {
+            completeLaunch();
+            slingTestState.setOffline(false);
+        }
+        final long msec = System.currentTimeMillis() - start;
+        log.info("Instance {} {} and ready again after {} msec",
+                new Object[] { slingTestState.getInstanceName(), restore ? "reset from snapshot" : "snapshot taken", msec });
+        publish(restore ? InstanceEvent.Type.SNAPSHOT_RESTORED : InstanceEvent.Type.SNAPSHOT_TAKEN, msec + " msec");
+    }
+
+    /** Start watching our server once it's ready, if {@link #SERVER_WATCHDOG_INTERVAL_PROP} is set */
+    private void startWatchdogIfNeeded() {
+        final int intervalSec = Integer.valueOf(systemProperties.getProperty(SERVER_WATCHDOG_INTERVAL_PROP, "0"));
+        if (intervalSec <= 0) {
+            return;
+        }
+        final InstanceWatchdog w = new InstanceWatchdog(this, slingTestState,
+                systemProperties.getProperty(SERVER_WATCHDOG_PATH_PROP, "/"),
+                intervalSec * 1000,
+                Integer.valueOf(systemProperties.getProperty(SERVER_WATCHDOG_TIMEOUT_PROP, "5")) * 1000,
+                Integer.valueOf(systemProperties.getProperty(SERVER_WATCHDOG_MAX_FAILURES_PROP, "3")),
+                !externalServer,
+                Integer.valueOf(systemProperties.getProperty(SERVER_WATCHDOG_MAX_RESTARTS_PROP, "0")));
+        if (slingTestState.initWatchdog(w)) {
+            w.start();
+        }
+    }
+
+    /** Stop our server, if we started it, and start it again from scratch,
+     *  including the readiness checks and additional bundles.
+     */
+    void restartServer() {
+        final JarExecutor jar = slingTestState.getJarExecutor();
+        if (jar != null) {
+            try {
+                jar.stop();
+            } catch (IllegalStateException ise) {
+                log.info("Server was not started by us, not stopping it ({})", ise.getMessage());
+            }
+        }
+        slingTestState.resetForRestart();
+        // never block here, even if KEEP_JAR_RUNNING_PROP is set
+        startServer();
+    }
+
+    /** Run {@link #restartServer} in a background thread, so that the
+     *  caller, like a JMX client or our watchdog, does not wait for it.
+     *  @return false if a restart of our instance is already running
+     */
+    boolean restartServerInBackground(final String reason) {
+        if (!slingTestState.beginRestart()) {
+            log.info("Instance {} is already restarting, ignoring restart ({})", slingTestState.getInstanceName(), reason);
+            return false;
+        }
+        final Thread t = new Thread("SlingInstanceRestart-" + slingTestState.getInstanceName()) {
+            @Override
+            public void run() {
+                try {
+                    restartServer();
+                    log.info("Instance {} restarted ({})", slingTestState.getInstanceName(), reason);
+                } catch (Throwable t) {
+                    log.warn("Restart of instance " + slingTestState.getInstanceName() + " failed", t);
+                } finally {
+                    slingTestState.endRestart();
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        return true;
+    }
+
     /**
      * Wait for the configured duration as a quite period to let the server settle down after
      * doing the startup and install additional bundles work.
+     *
+     * If {@link #SERVER_READY_QUIET_PERIOD_STABLE_PROP} is set, the quiet period ends as soon
+     * as no OSGi activity has been seen for that many seconds, and the configured quiet period
+     * is only used as an upper bound.
      */
     protected void waitForQuietPeriod() throws InterruptedException {
         if (slingTestState.isQuietPeriodComplete()) {
             // already waited, so no need to do that again
             return;
         }
+        final TimeoutsProvider tp = TimeoutsProvider.getInstance();
         final String quietPeriodSecProp = systemProperties.getProperty(SERVER_READY_QUIET_PERIOD_PROP, "0");
-        final int quietPeriodSec = TimeoutsProvider.getInstance().getTimeout(Integer.valueOf(quietPeriodSecProp));
+        final int quietPeriodSec = tp.getTimeout(Integer.valueOf(quietPeriodSecProp));
         final int quietPeriodMs = quietPeriodSec * 1000;
-        if (quietPeriodMs > 0) {
-            log.info("Waiting {} seconds as a quiet period", quietPeriodSec);
-            Thread.sleep(quietPeriodMs);
+        if (!slingTestState.claim(LifecycleState.SETTLED)) {
+            // another test is already waiting, the quiet period ends for everybody at the same time
+            if (!slingTestState.awaitState(LifecycleState.SETTLED, quietPeriodMs + QUIET_PERIOD_AWAIT_MARGIN_MSEC, TimeUnit.MILLISECONDS)) {
+                fail("Instance " + slingTestState.getInstanceName() + " did not settle according to previous tests, state is "
+                        + slingTestState.getLifecycleState());
+            }
+            return;
+        }
+        String regression = null;
+        try {
+            if (quietPeriodMs > 0) {
+                final JfrSupport.Span event = JfrSupport.begin(JfrSupport.QUIET_PERIOD);
+                boolean settledEarly = false;
+                final String stableSecProp = systemProperties.getProperty(SERVER_READY_QUIET_PERIOD_STABLE_PROP, "0");
+                final int stableMs = tp.getTimeout(Integer.valueOf(stableSecProp)) * 1000;
+                if (stableMs > 0) {
+                    final int pollMs = Integer.valueOf(systemProperties.getProperty(SERVER_READY_QUIET_PERIOD_POLL_PROP, "500"));
+                    settledEarly = waitForActivityToSettle(quietPeriodMs, stableMs, pollMs);
+                } else {
+                    log.info("Waiting {} seconds as a quiet period", quietPeriodSec);
+                    Thread.sleep(quietPeriodMs);
+                }
+                if (event.shouldCommit()) {
+                    event.set("instanceName", slingTestState.getInstanceName())
+                        .set("maxMsec", quietPeriodMs)
+                        .set("settledEarly", settledEarly)
+                        .commit();
+                }
+            }
+            regression = recordStartupHistory();
+        } finally {
+            slingTestState.setQuietPeriodComplete(true);
+            publish(InstanceEvent.Type.QUIET_PERIOD_DONE, null);
+        }
+        if (regression != null) {
+            if ("true".equals(systemProperties.getProperty(STARTUP_HISTORY_FAIL_PROP))) {
+                fail(regression);
+            }
+            log.warn(regression);
         }
-        slingTestState.setQuietPeriodComplete(true);
+    }
+
+    /** Append the startup breakdown of the server that we started to the
+     *  {@link #STARTUP_HISTORY_FILE_PROP} file, if set, and compare it with
+     *  the previous startups.
+     *  @return a description of the startup time regression, null if none
+     */
+    private String recordStartupHistory() {
+        final String path = systemProperties.getProperty(STARTUP_HISTORY_FILE_PROP);
+        final long startedAt = slingTestState.getReachedAt(LifecycleState.STARTING);
+        final long installedAt = slingTestState.getReachedAt(LifecycleState.BUNDLES_INSTALLED);
+        if (path == null || path.trim().length() == 0 || externalServer || startedAt < 0 || installedAt < 0) {
+            return null;
+        }
+        final SlingInstanceMonitor m = slingTestState.getMonitor();
+        final long now = System.currentTimeMillis();
+        final long [] timings = {
+            m.getProcessSpawnMsec(),
+            m.getPortOpenMsec(),
+            m.getReadyMsec(),
+            m.getBundlesInstallMsec(),
+            now - installedAt,
+            now - startedAt
+        };
+        return new StartupHistory(new File(path.trim()),
+                Integer.valueOf(systemProperties.getProperty(STARTUP_HISTORY_BASELINE_RUNS_PROP, "20")),
+                Integer.valueOf(systemProperties.getProperty(STARTUP_HISTORY_PERCENTILE_PROP, "50")),
+                Integer.valueOf(systemProperties.getProperty(STARTUP_HISTORY_THRESHOLD_PROP, "25")))
+                .record(slingTestState.getInstanceName(), timings);
+    }
+
+    /**
+     * Poll the OSGi console until its bundles, components and services did not change
+     * for stableMs, or until maxMs have elapsed.
+     * @return true if the activity settled before maxMs
+     */
+    private boolean waitForActivityToSettle(int maxMs, int stableMs, int pollMs) throws InterruptedException {
+        log.info("Waiting up to {} msec as a quiet period, until no OSGi activity is seen for {} msec",
+                maxMs, stableMs);
+        final long start = System.currentTimeMillis();
+        final long endTime = start + maxMs;
+        String lastFingerprint = null;
+        long lastChange = start;
+        long now = start;
+        while (now < endTime) {
+            final String fingerprint = getServerActivityFingerprint();
+            if (!fingerprint.equals(lastFingerprint)) {
+                lastFingerprint = fingerprint;
+                lastChange = now;
+            } else if (now - lastChange >= stableMs) {
+                log.info("No OSGi activity for {} msec, quiet period done after {} msec", stableMs, now - start);
+                return true;
+            }
+            Thread.sleep(Math.max(1, Math.min(pollMs, endTime - now)));
+            now = System.currentTimeMillis();
+        }
+        log.info("Quiet period upper bound of {} msec reached, OSGi activity did not settle", maxMs);
+        return false;
+    }
+
+    /**
+     * Return a value that changes whenever the server's bundle states, components or services
+     * change, used to detect when the server has settled.
+     * Paths that cannot be read contribute a constant marker so that they don't prevent settling.
+     */
+    protected String getServerActivityFingerprint() {
+        final StringBuilder sb = new StringBuilder();
+        for (String path : ACTIVITY_PATHS) {
+            try {
+                sb.append(osgiConsoleClient.doGet(path, 200).getContent().hashCode());
+            } catch (ClientException e) {
+                log.debug("Cannot read {} to detect OSGi activity ({})", path, e);
+                sb.append('-');
+            }
+            sb.append(',');
+        }
+        return sb.toString();
     }
 
     protected void installAdditionalBundles() {
         if (slingTestState.isInstallBundlesFailed()) {
             fail("Bundles could not be installed, cannot run tests");
         } else if(!slingTestState.isExtraBundlesInstalled()) {
-            final List<File> toInstall = getBundlesToInstall();
-            if (!toInstall.isEmpty()) {
+            final int installTimeoutMs = TimeoutsProvider.getInstance().getTimeout(BUNDLE_INSTALL_TIMEOUT_SECONDS, 10) * 1000;
+            final int startTimeoutMs = TimeoutsProvider.getInstance().getTimeout(START_BUNDLES_TIMEOUT_SECONDS, 30) * 1000;
+            if (!slingTestState.claim(LifecycleState.BUNDLES_INSTALLED)) {
+                // another test is installing them, wait for it
                 try {
-                    // Install bundles, check that they are installed and start them all
-                    bundlesInstaller.installBundles(toInstall, false);
-                    final List<String> symbolicNames = new LinkedList<String>();
-                    for (File f : toInstall) {
-                        symbolicNames.add(OsgiConsoleClient.getBundleSymbolicName(f));
+                    if (!slingTestState.awaitState(LifecycleState.BUNDLES_INSTALLED,
+                            installTimeoutMs + startTimeoutMs, TimeUnit.MILLISECONDS)) {
+                        fail("Bundles could not be installed, cannot run tests");
                     }
-                    bundlesInstaller.waitForBundlesInstalled(symbolicNames,
-                            TimeoutsProvider.getInstance().getTimeout(BUNDLE_INSTALL_TIMEOUT_SECONDS, 10) * 1000);
-                    bundlesInstaller.startAllBundles(symbolicNames,
-                            TimeoutsProvider.getInstance().getTimeout(START_BUNDLES_TIMEOUT_SECONDS, 30) * 1000);
-                } catch(AssertionError ae) {
-                    log.info("Exception while installing additional bundles", ae);
-                    slingTestState.setInstallBundlesFailed(true);
-                } catch(Exception e) {
-                    log.info("Exception while installing additional bundles", e);
-                    slingTestState.setInstallBundlesFailed(true);
+                } catch(InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    fail("Interrupted while waiting for additional bundles to be installed");
                 }
-                if(slingTestState.isInstallBundlesFailed()) {
-                    fail("Could not start all installed bundles:" + toInstall);
+                return;
+            }
+            try {
+                doInstallAdditionalBundles(installTimeoutMs, startTimeoutMs);
+            } finally {
+                if (!slingTestState.isInstallBundlesFailed() && !slingTestState.isExtraBundlesInstalled()) {
+                    // do not leave other tests waiting if something unexpected happened
+                    slingTestState.setInstallBundlesFailed(true);
                 }
-            } else {
-                log.info("Not installing additional bundles, probably System property {} not set",
-                        ADDITONAL_BUNDLES_PATH);
             }
         }
+    }
 
+    private void doInstallAdditionalBundles(int installTimeoutMs, int startTimeoutMs) {
+        final List<File> toInstall = getBundlesToInstall();
+        if (!toInstall.isEmpty()) {
+            try {
+                // Install bundles, check that they are installed and start them all
+                final int parallelism = Integer.valueOf(systemProperties.getProperty(BUNDLE_INSTALL_PARALLELISM, "4"));
+                final Map<String, BundleInstallPipeline.BundleTiming> timings =
+                        new BundleInstallPipeline(osgiConsoleClient, bundlesInstaller, parallelism, getBundleDigestCache())
+                        .installAndStart(toInstall, installTimeoutMs, startTimeoutMs);
+                int uploaded = 0;
+                for (BundleInstallPipeline.BundleTiming t : timings.values()) {
+                    if (t.uploadMsec >= 0) {
+                        uploaded++;
+                    }
+                }
+                slingTestState.getMonitor().recordBundlesInstalled(uploaded, timings.size() - uploaded);
+            } catch(AssertionError ae) {
+                log.info("Exception while installing additional bundles", ae);
+                slingTestState.setInstallBundlesFailed(true);
+            } catch(Exception e) {
+                log.info("Exception while installing additional bundles", e);
+                slingTestState.setInstallBundlesFailed(true);
+            }
+            if(slingTestState.isInstallBundlesFailed()) {
+                publish(InstanceEvent.Type.INSTANCE_FAILED, "additional bundles installation failed");
+                fail("Could not start all installed bundles:" + toInstall);
+            }
+            if (uninstallAdditionalBundles) {
+                slingTestState.setReleaseAction(new Runnable() {
+                    public void run() {
+                        log.info("Uninstalling additional bundles...");
+                        uninstallAdditionalBundles();
+                        slingTestState.setQuietPeriodComplete(false);
+                        slingTestState.setExtraBundlesInstalled(false);
+                    }
+                });
+            }
+        } else {
+            log.info("Not installing additional bundles, probably System property {} not set",
+                    ADDITONAL_BUNDLES_PATH);
+        }
         slingTestState.setExtraBundlesInstalled(!slingTestState.isInstallBundlesFailed());
+        publish(InstanceEvent.Type.BUNDLES_INSTALLED, toInstall.size() + " bundles");
     }
     
+    /** Return the digest cache used to skip unchanged bundles, only when
+     *  reusing an already running server that has {@link #ADDITIONAL_BUNDLES_DIGEST_CACHE} set.
+     */
+    private BundleDigestCache getBundleDigestCache() {
+        final String path = systemProperties.getProperty(ADDITIONAL_BUNDLES_DIGEST_CACHE);
+        if (!externalServer || path == null || path.trim().length() == 0) {
+            return null;
+        }
+        return new BundleDigestCache(new File(path.trim()), slingTestState.getServerBaseUrl());
+    }
+
     protected void uninstallAdditionalBundles() {
         try {
             // always uninstall independent of installation status
-            bundlesInstaller.uninstallBundles(getBundlesToInstall());
+            final int parallelism = Integer.valueOf(systemProperties.getProperty(BUNDLE_INSTALL_PARALLELISM, "4"));
+            new BundleInstallPipeline(osgiConsoleClient, bundlesInstaller, parallelism, null).uninstall(getBundlesToInstall());
         } catch (Exception e) {
              log.info("Exception while uninstalling additional bundles", e);
         }
@@ -312,74 +717,198 @@ public class SlingTestBase implements SlingInstance {
         final int timeoutDelaySec = tp.getTimeout(Integer.valueOf(delaySec));
         final int timeoutDelayMs = timeoutDelaySec * 1000;
 
-        log.info("Will wait up to {} seconds for server to become ready with a {} second initial delay and {} seconds between each check",
-                new Object[] {timeoutSec, timeoutInitialDelaySec, timeoutDelaySec});
+        if(!slingTestState.claim(LifecycleState.READY)) {
+            // another test is checking readiness, wait for its outcome
+            final long awaitMs = (timeoutSec + timeoutInitialDelaySec + timeoutDelaySec) * 1000L;
+            if(!slingTestState.awaitReady(awaitMs, TimeUnit.MILLISECONDS)) {
+                fail("Server is not ready according to previous tests");
+            }
+            return;
+        }
+        final BundleActivationTimeline timeline = startBundleActivationTimelineIfNeeded();
+        try {
+            checkServerReady(timeoutSec, timeoutInitialDelayMs, timeoutDelayMs);
+        } finally {
+            completeLaunch();
+            if (timeline != null) {
+                reportBundleActivations(timeline);
+            }
+            if(!slingTestState.isServerReady() && !slingTestState.isServerReadyTestFailed()) {
+                // do not leave other tests waiting if something unexpected happened
+                slingTestState.setServerReadyTestFailed(true);
+            }
+        }
+        if (!externalServer) {
+            slingTestState.getJarExecutor().dumpStartupRecording();
+        }
+    }
+
+    /** Let other servers start, if a launch budget is set, once ours is ready or failed to get ready */
+    private void completeLaunch() {
+        final JarExecutor jar = slingTestState.getJarExecutor();
+        if (!externalServer && jar != null) {
+            jar.launchCompleted();
+        }
+    }
+
+    /** Start polling the bundle states, if {@link #SERVER_READY_BUNDLE_TIMELINE_POLL_PROP} is set
+     *  @return the timeline, or null if not enabled
+     */
+    private BundleActivationTimeline startBundleActivationTimelineIfNeeded() {
+        final int pollMs = Integer.valueOf(systemProperties.getProperty(SERVER_READY_BUNDLE_TIMELINE_POLL_PROP, "0"));
+        if (pollMs <= 0) {
+            return null;
+        }
+        final long started = slingTestState.getReachedAt(LifecycleState.STARTING);
+        final BundleActivationTimeline timeline = new BundleActivationTimeline(osgiConsoleClient,
+                slingTestState.getInstanceName(), pollMs, started < 0 ? System.currentTimeMillis() : started);
+        timeline.start();
+        return timeline;
+    }
+
+    /** Stop the bundle activation timeline, log the slowest activations and write
+     *  all of them to a file in the {@link JarExecutor#PROP_REPORTS_FOLDER} folder
+     */
+    private void reportBundleActivations(BundleActivationTimeline timeline) {
+        timeline.stop();
+        log.info(timeline.getReport(BUNDLE_TIMELINE_LOG_COUNT));
+        final File f = new File(systemProperties.getProperty(JarExecutor.PROP_REPORTS_FOLDER, JarExecutor.DEFAULT_REPORTS_FOLDER),
+                slingTestState.getInstanceName().replaceAll("[^A-Za-z0-9._-]", "_") + "-bundle-activation.txt");
+        try {
+            timeline.write(f);
+        } catch (IOException e) {
+            log.warn("Cannot write bundle activation timeline to " + f.getAbsolutePath(), e);
+        }
+    }
+
+    private void checkServerReady(int timeoutSec, int timeoutInitialDelayMs, int timeoutDelayMs) throws Exception {
+        log.info("Will wait up to {} seconds for server to become ready with a {} msec initial delay and {} msec between each check",
+                new Object[] {timeoutSec, timeoutInitialDelayMs, timeoutDelayMs});
         final long endTime = System.currentTimeMillis() + timeoutSec * 1000L;
 
         // Get the list of paths to test and expected content regexps
-        final List<String> testPaths = new ArrayList<String>();
-        final TreeSet<Object> propertyNames = new TreeSet<Object>();
-        propertyNames.addAll(systemProperties.keySet());
-        for(Object o : propertyNames) {
-            final String key = (String)o;
-            if(key.startsWith(SERVER_READY_PROP_PREFIX)) {
-                testPaths.add(systemProperties.getProperty(key));
-            }
-        }
+        final List<String> testPaths = new ArrayList<String>(
+                withPrefix(SERVER_READY_PROP_PREFIX).values());
 
         if (timeoutInitialDelayMs > 0) {
             // wait for the initial deal duration
             Thread.sleep(timeoutInitialDelayMs);
         }
 
+        if (!externalServer) {
+            waitForPortOpen(endTime);
+        }
+
         // Consider the server ready if it responds to a GET on each of
         // our configured request paths with a 200 result and content
         // that contains the pattern that's optionally supplied with the
         // path, separated by a colon
         log.info("Checking that GET requests return expected content (timeout={} seconds): {}", timeoutSec, testPaths);
+        final Set<String> passedPaths = new HashSet<String>();
         while (System.currentTimeMillis() < endTime) {
-            boolean errors = false;
-            for (String p : testPaths) {
-                final String [] s = p.split(":");
-                final String path = s[0];
-                final String pattern = (s.length > 0 ? s[1] : "");
-                boolean isRegex = s.length > 1 ? "regexp".equals(s[2]) : false;
-                try {
-                    URI uri = new URI(path);
-                    List<NameValuePair> reqParams = extractParams(uri);
-                    SlingHttpResponse get = osgiConsoleClient.doGet(uri.getPath(), reqParams, 200);
-                    if (isRegex) {
-                        get.checkContentRegexp(pattern);
-                    } else {
-                        get.checkContentContains(pattern);
-                    }
-                } catch(ClientException e) {
-                    errors = true;
-                    log.debug("Request to {}@{} failed, will retry ({})",
-                            new Object[] { serverUsername, osgiConsoleClient.getUrl(path), e});
-                } catch(Exception e) {
-                    errors = true;
-                    log.debug("Request to {}@{} failed, will retry ({})",
-                            new Object[] { serverUsername, osgiConsoleClient.getUrl(path), pattern, e });
-                }
-            }
-
-            if (!errors) {
+            if (probeReadyPaths(testPaths, passedPaths)) {
                 slingTestState.setServerReady(true);
                 log.info("All {} paths return expected content, server ready", testPaths.size());
+                publish(InstanceEvent.Type.SERVER_READY, null);
                 break;
             }
             Thread.sleep(timeoutDelayMs);
         }
 
         if (!slingTestState.isServerReady()) {
+            if (!externalServer) {
+                slingTestState.getJarExecutor().captureDiagnostics();
+            }
             slingTestState.setServerReadyTestFailed(true);
             final String msg = "Server not ready after " + timeoutSec + " seconds, giving up";
+            publish(InstanceEvent.Type.INSTANCE_FAILED, msg);
             log.info(msg);
             fail(msg);
         }
     }
 
+    /** Wait until the port of the server that we started accepts connections,
+     *  checking more often than the readiness paths to record when that happens.
+     */
+    private void waitForPortOpen(long endTime) throws InterruptedException {
+        final URI uri = URI.create(slingTestState.getServerBaseUrl());
+        while (System.currentTimeMillis() < endTime) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(uri.getHost(), uri.getPort()), PORT_CHECK_TIMEOUT_MSEC);
+                slingTestState.getMonitor().recordPortOpen(System.currentTimeMillis());
+                log.info("Server port {} open", uri.getPort());
+                return;
+            } catch (IOException e) {
+                Thread.sleep(PORT_CHECK_INTERVAL_MSEC);
+            }
+        }
+    }
+
+    /** Request each readiness check path once.
+     *  @param passedPaths the paths that passed before, a READY_PATH_PASSED
+     *      event is published for the others if they pass
+     *  @return true if all paths return the expected content
+     */
+    private boolean probeReadyPaths(List<String> testPaths, Set<String> passedPaths) {
+        boolean errors = false;
+        for (String p : testPaths) {
+            final ReadyPathSpec spec = ReadyPathSpec.parse(p);
+            final String path = spec.getPath();
+            final String pattern = spec.getPattern();
+            final boolean isRegex = spec.isRegexp();
+            final JfrSupport.Span event = JfrSupport.begin(JfrSupport.READINESS_PROBE);
+            final long start = System.currentTimeMillis();
+            String failure = null;
+            try {
+                URI uri = new URI(path);
+                List<NameValuePair> reqParams = extractParams(uri);
+                SlingHttpResponse get = osgiConsoleClient.doGet(uri.getPath(), reqParams, 200);
+                if (isRegex) {
+                    get.checkContentRegexp(pattern);
+                } else {
+                    get.checkContentContains(pattern);
+                }
+                if (passedPaths.add(p)) {
+                    publish(InstanceEvent.Type.READY_PATH_PASSED, p);
+                }
+            } catch(ClientException e) {
+                errors = true;
+                failure = e.toString();
+                log.debug("Request to {}@{} failed, will retry ({})",
+                        new Object[] { serverUsername, osgiConsoleClient.getUrl(path), e});
+            } catch(Exception e) {
+                errors = true;
+                failure = e.toString();
+                log.debug("Request to {}@{} failed, will retry ({})",
+                        new Object[] { serverUsername, osgiConsoleClient.getUrl(path), pattern, e });
+            } finally {
+                slingTestState.getMonitor().recordProbe(System.currentTimeMillis() - start, failure == null);
+                if (event.shouldCommit()) {
+                    event.set("instanceName", slingTestState.getInstanceName())
+                        .set("path", p)
+                        .set("success", failure == null)
+                        .set("failure", failure)
+                        .commit();
+                }
+            }
+        }
+        return !errors;
+    }
+
+    /** Request each readiness check path once, without changing our state.
+     *  @return true if all paths return the expected content
+     */
+    boolean recheckReadiness() {
+        final List<String> testPaths = new ArrayList<String>(
+                withPrefix(SERVER_READY_PROP_PREFIX).values());
+        return probeReadyPaths(testPaths, new HashSet<String>(testPaths));
+    }
+
+    /** Publish an InstanceEvent for our instance */
+    void publish(InstanceEvent.Type type, String detail) {
+        InstanceEvents.publish(type, slingTestState.getInstanceName(), detail);
+    }
+
     /**
      * Convert the query part of the URI to a list of name value pairs that are suitable
      * for the client calls
@@ -402,6 +931,8 @@ public class SlingTestBase implements SlingInstance {
 
     /**
      * Get the list of additional bundles to install, as specified by the system property {@link #ADDITONAL_BUNDLES_PATH} 
+     * The result is cached in our {@link SlingInstanceState} until the configuration or the
+     * contents of the additional bundles folders change.
      * @return the list of {@link File}s pointing to the Bundle JARs or the empty list in case no additional bundles should be installed (never {@code null}).
      */
     protected List<File> getBundlesToInstall() {
@@ -410,13 +941,26 @@ public class SlingTestBase implements SlingInstance {
             return Collections.emptyList();
         } 
         
+        final List<String> prefixes = getBundleFilenamePrefixes();
+        final AdditionalBundlesIndex.Resolution cached = slingTestState.getBundlesResolution();
+        if (cached != null && cached.isValidFor(paths, prefixes)) {
+            return cached.getFiles();
+        }
+
         final List<File> toInstall = new ArrayList<File>();
+        final List<AdditionalBundlesIndex> indexes = new ArrayList<AdditionalBundlesIndex>();
         // Paths can contain a comma-separated list
         final String [] allPaths = paths.split(",");
         for(String path : allPaths) {
+            final File dir = new File(path.trim());
+            if (dir.isDirectory() && dir.canRead()) {
+                indexes.add(AdditionalBundlesIndex.forDirectory(dir));
+            }
             toInstall.addAll(getBundlesToInstall(path.trim()));
         }
-        return toInstall;
+        final AdditionalBundlesIndex.Resolution resolution = new AdditionalBundlesIndex.Resolution(paths, prefixes, indexes, toInstall);
+        slingTestState.setBundlesResolution(resolution);
+        return resolution.getFiles();
     }
 
     /**
@@ -434,38 +978,33 @@ public class SlingTestBase implements SlingInstance {
             return result;
         }
 
-        // Collect all filenames of candidate bundles
-        final List<String> bundleNames = new ArrayList<String>();
-        final String [] files = dir.list();
-        if (files != null) {
-            for(String file : files) {
-                if(file.endsWith(".jar")) {
-                    bundleNames.add(file);
-                }
-            }
-        }
-
         // We'll install those that are specified by system properties, in order
-        final List<String> sortedPropertyKeys = new ArrayList<String>();
-        for(Object key : systemProperties.keySet()) {
-            final String str = key.toString();
-            if(str.startsWith(BUNDLE_TO_INSTALL_PREFIX)) {
-                sortedPropertyKeys.add(str);
-            }
-        }
-        Collections.sort(sortedPropertyKeys);
-        for (String key : sortedPropertyKeys) {
-            final String filenamePrefix = systemProperties.getProperty(key);
-            for(String bundleFilename : bundleNames) {
-                if(bundleFilename.startsWith(filenamePrefix)) {
-                    result.add(new File(dir, bundleFilename));
-                }
-            }
+        final AdditionalBundlesIndex index = AdditionalBundlesIndex.forDirectory(dir);
+        for (String filenamePrefix : getBundleFilenamePrefixes()) {
+            result.addAll(index.withPrefix(filenamePrefix));
         }
 
         return result;
     }
 
+    /** Return our configuration properties whose key starts with prefix, sorted by key.
+     *  The keys of a plain Properties configuration are indexed in our
+     *  {@link SlingInstanceState}, until they change.
+     */
+    private SortedMap<String, String> withPrefix(String prefix) {
+        if (systemProperties instanceof LayeredProperties) {
+            return LayeredProperties.withPrefix(systemProperties, prefix);
+        }
+        final LayeredProperties.KeyIndex index = LayeredProperties.KeyIndex.of(systemProperties, slingTestState.getConfigKeys());
+        slingTestState.setConfigKeys(index);
+        return LayeredProperties.withPrefix(index, prefix);
+    }
+
+    /** Return the values of the {@link #BUNDLE_TO_INSTALL_PREFIX} properties, sorted by property name */
+    private List<String> getBundleFilenamePrefixes() {
+        return new ArrayList<String>(withPrefix(BUNDLE_TO_INSTALL_PREFIX).values());
+    }
+
     public boolean isServerStartedByThisClass() {
         return serverStartedByThisClass;
     }
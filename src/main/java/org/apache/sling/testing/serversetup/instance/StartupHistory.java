@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Appends the startup breakdown of instances to a CSV history file, and
+ *  compares each startup with a percentile of the previous startups of the
+ *  same instance, to find out early when startup gets slower.
+ */
+class StartupHistory {
+
+    /** Names of the recorded startup phases, in column order */
+    static final String [] PHASES = { "spawn", "port open", "ready", "bundles install", "quiet period", "total" };
+
+    static final String HEADER = "timestamp,instance,spawnMsec,portOpenMsec,readyMsec,bundlesInstallMsec,quietPeriodMsec,totalMsec";
+
+    /** Number of previous runs needed to compute a baseline */
+    static final int MIN_BASELINE_RUNS = 3;
+
+    /** Serializes access to history files by the instances of this JVM */
+    private static final Object LOCK = new Object();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final File file;
+    private final int baselineRuns;
+    private final int percentile;
+    private final int thresholdPercent;
+
+    /** @param baselineRuns number of previous runs used for the baseline
+     *  @param percentile percentile of the previous runs used as the baseline
+     *  @param thresholdPercent how much slower than the baseline is a regression
+     */
+    StartupHistory(File file, int baselineRuns, int percentile, int thresholdPercent) {
+        this.file = file;
+        this.baselineRuns = Math.max(MIN_BASELINE_RUNS, baselineRuns);
+        this.percentile = Math.max(1, Math.min(100, percentile));
+        this.thresholdPercent = thresholdPercent;
+    }
+
+    /** Append a startup to the history and compare it with the previous ones.
+     *  @param timings msec taken by each of the {@link #PHASES}, -1 if unknown
+     *  @return a description of the regression, null if the total startup time
+     *      is within the threshold or if there's not enough history yet
+     */
+    String record(String instanceName, long [] timings) {
+        final String name = instanceName.replaceAll("[,\\r\\n]", "_");
+        final List<long []> previous;
+        synchronized (LOCK) {
+            previous = read(name);
+            append(name, timings);
+        }
+        log.info("Startup of instance {} in msec: {}", instanceName, format(timings));
+
+        if (previous.size() < MIN_BASELINE_RUNS) {
+            log.info("{} previous startups of instance {} in {}, at least {} needed to check for regressions",
+                    new Object[] { previous.size(), instanceName, file.getAbsolutePath(), MIN_BASELINE_RUNS });
+            return null;
+        }
+        final long [] baseline = new long[PHASES.length];
+        for (int i = 0; i < PHASES.length; i++) {
+            baseline[i] = percentile(previous, i);
+        }
+        final int total = PHASES.length - 1;
+        if (baseline[total] < 0 || timings[total] <= baseline[total] * (100 + thresholdPercent) / 100) {
+            log.info("Startup of instance {} within {}% of its baseline (p{} of last {} runs): {}",
+                    new Object[] { instanceName, thresholdPercent, percentile, previous.size(), format(baseline) });
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Startup of instance ").append(instanceName).append(" took ").append(timings[total])
+            .append(" msec, more than ").append(thresholdPercent).append("% over its baseline of ")
+            .append(baseline[total]).append(" msec (p").append(percentile).append(" of last ")
+            .append(previous.size()).append(" runs in ").append(file.getAbsolutePath()).append(")");
+        for (int i = 0; i < total; i++) {
+            if (timings[i] >= 0 && baseline[i] >= 0) {
+                sb.append(", ").append(PHASES[i]).append(": ").append(timings[i]).append(" vs ").append(baseline[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Return the timings of the last baselineRuns startups of the supplied instance */
+    private List<long []> read(String name) {
+        final List<long []> result = new ArrayList<long []>();
+        if (!file.canRead()) {
+            return result;
+        }
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                final String [] fields = line.split(",");
+                if (fields.length != PHASES.length + 2 || !fields[1].equals(name)) {
+                    continue;
+                }
+                try {
+                    final long [] timings = new long[PHASES.length];
+                    for (int i = 0; i < PHASES.length; i++) {
+                        timings[i] = Long.parseLong(fields[i + 2].trim());
+                    }
+                    result.add(timings);
+                } catch (NumberFormatException ignore) {
+                    // header or corrupted line
+                }
+                if (result.size() > baselineRuns) {
+                    result.remove(0);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot read startup history {}, ignored ({})", file.getAbsolutePath(), e);
+        }
+        return result;
+    }
+
+    private void append(String name, long [] timings) {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            log.warn("Cannot create folder for startup history {}", file.getAbsolutePath());
+            return;
+        }
+        final boolean isNew = !file.exists() || file.length() == 0;
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            final StringBuilder sb = new StringBuilder();
+            if (isNew) {
+                sb.append(HEADER).append('\n');
+            }
+            sb.append(String.format("%tFT%<tT", new Date())).append(',').append(name);
+            for (long t : timings) {
+                sb.append(',').append(t);
+            }
+            w.write(sb.append('\n').toString());
+        } catch (IOException e) {
+            log.warn("Cannot write startup history {} ({})", file.getAbsolutePath(), e);
+        }
+    }
+
+    /** Nearest-rank percentile of one column of the supplied runs, ignoring unknown values */
+    private long percentile(List<long []> runs, int column) {
+        final long [] values = new long[runs.size()];
+        int n = 0;
+        for (long [] run : runs) {
+            if (run[column] >= 0) {
+                values[n++] = run[column];
+            }
+        }
+        if (n == 0) {
+            return -1;
+        }
+        Arrays.sort(values, 0, n);
+        final int rank = (int)Math.ceil(percentile / 100.0 * n);
+        return values[Math.max(0, rank - 1)];
+    }
+
+    private static String format(long [] timings) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < PHASES.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(PHASES[i]).append('=').append(timings[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Assigns test classes to a pool of equivalent instances, so that the
+ *  instances finish their share of the tests at about the same time.
+ *
+ *  Test durations recorded in previous runs are read from a history file,
+ *  and the known test classes are planned upfront, longest first, each
+ *  one on the instance that has the least planned work so far. Only the
+ *  classes that can be loaded are planned, the history can also contain
+ *  classes of other modules or classes that were deleted. The work of an
+ *  instance only counts the classes that were requested so far, and test
+ *  classes that are not in the history are assigned on demand to the
+ *  instance that has the least of that work, using the average known
+ *  duration as an estimate. Ties are broken by
+ *  the hash of the test class name, so that schedulers in different
+ *  JVMs do not all pick the first instance.
+ *
+ *  The history file can be shared by concurrent test runs: it is read
+ *  again and merged with our durations under a file lock before being
+ *  written. Its values are the duration and the time when it was last
+ *  recorded, entries that were not recorded for longer than the retention
+ *  time are removed.
+ */
+class TestDurationScheduler {
+
+    /** Estimated duration of test classes when no history is available */
+    static final long DEFAULT_DURATION_MSEC = 1000;
+
+    /** Separates the duration and the time it was recorded in history values */
+    private static final String SEP = ",";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final File historyFile;
+    private final Properties history = new Properties();
+    private final List<String> instanceNames;
+    private final long [] plannedMsec;
+    private final Map<String, Integer> assignments = new HashMap<String, Integer>();
+    private final Set<String> requested = new HashSet<String>();
+    private final Map<String, String> recorded = new HashMap<String, String>();
+    private final long retentionMsec;
+
+    /** @param historyFile can be null to not use and record any history
+     *  @param retentionDays history entries that were not recorded for
+     *      longer than that are removed
+     */
+    TestDurationScheduler(List<String> instanceNames, File historyFile, int retentionDays) {
+        this.instanceNames = new ArrayList<String>(instanceNames);
+        this.plannedMsec = new long[instanceNames.size()];
+        this.historyFile = historyFile;
+        this.retentionMsec = TimeUnit.DAYS.toMillis(retentionDays);
+        if (historyFile != null && historyFile.canRead()) {
+            try (InputStream is = new FileInputStream(historyFile)) {
+                history.load(is);
+            } catch (IOException e) {
+                log.warn("Cannot read test durations history {}, ignored ({})", historyFile.getAbsolutePath(), e);
+            }
+        }
+        plan();
+    }
+
+    /** Assign the test classes found in the history that we can load, longest first */
+    private void plan() {
+        final List<String> known = new ArrayList<String>();
+        int skipped = 0;
+        for (String testId : history.stringPropertyNames()) {
+            if (isLoadable(testId)) {
+                known.add(testId);
+            } else {
+                skipped++;
+            }
+        }
+        if (skipped > 0) {
+            log.info("Not planning {} test classes of the history that are not found, probably from other modules or deleted",
+                    skipped);
+        }
+        Collections.sort(known, new Comparator<String>() {
+            public int compare(String a, String b) {
+                final int result = Long.compare(getDuration(b), getDuration(a));
+                return result != 0 ? result : a.compareTo(b);
+            }
+        });
+        // classes that are planned but not run must not count as work of their instance
+        final long [] load = new long[plannedMsec.length];
+        for (String testId : known) {
+            final long msec = getDuration(testId);
+            if (msec >= 0) {
+                assignToLeastLoaded(testId, msec, load);
+            }
+        }
+        if (!known.isEmpty()) {
+            log.info("Planned {} test classes from history, estimated msec per instance: {}",
+                    known.size(), Arrays.toString(load));
+        }
+    }
+
+    /** True if testId names a class that this run can load */
+    private static boolean isLoadable(String testId) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = TestDurationScheduler.class.getClassLoader();
+        }
+        try {
+            Class.forName(testId, false, loader);
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+        /** Return the name of the instance that runs the supplied test class */
+    synchronized String getInstanceName(String testId) {
+        Integer index = assignments.get(testId);
+        if (index == null) {
+            index = assignToLeastLoaded(testId, getAverageDuration(), plannedMsec);
+            requested.add(testId);
+            log.debug("{} not found in history, assigned to instance {}", testId, instanceNames.get(index));
+        } else if (requested.add(testId)) {
+            // planned from history, its work counts once it's requested
+            plannedMsec[index] += getDuration(testId);
+        }
+        return instanceNames.get(index);
+    }
+
+    /** Record the duration of a test class for the next runs */
+    synchronized void recordDuration(String testId, long msec) {
+        final long previous = getDuration(testId);
+        // smooth out variations between runs
+        final long smoothed = previous > 0 ? (previous + msec) / 2 : msec;
+        final String value = smoothed + SEP + System.currentTimeMillis();
+        history.setProperty(testId, value);
+        recorded.put(testId, value);
+        save();
+    }
+
+    /** Return the estimated msec of work of the test classes requested so far, for each instance */
+    synchronized Map<String, Long> getPlannedMsec() {
+        final Map<String, Long> result = new HashMap<String, Long>();
+        for (int i = 0; i < plannedMsec.length; i++) {
+            result.put(instanceNames.get(i), plannedMsec[i]);
+        }
+        return result;
+    }
+
+    private int assignToLeastLoaded(String testId, long msec, long [] load) {
+        final int start = (testId.hashCode() & Integer.MAX_VALUE) % load.length;
+        int best = start;
+        for (int k = 1; k < load.length; k++) {
+            final int i = (start + k) % load.length;
+            if (load[i] < load[best]) {
+                best = i;
+            }
+        }
+        load[best] += msec;
+        assignments.put(testId, best);
+        return best;
+    }
+
+    private long getDuration(String testId) {
+        return parseField(history.getProperty(testId), 0);
+    }
+
+    /** Return a field of a history value, or -1 if it's missing or invalid.
+     *  Values written by older versions only have the duration.
+     */
+    private static long parseField(String value, int index) {
+        if (value == null) {
+            return -1;
+        }
+        final String [] fields = value.split(SEP);
+        try {
+            return index < fields.length ? Long.parseLong(fields[index].trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long getAverageDuration() {
+        long total = 0;
+        int count = 0;
+        for (String testId : history.stringPropertyNames()) {
+            final long d = getDuration(testId);
+            if (d >= 0) {
+                total += d;
+                count++;
+            }
+        }
+        return count == 0 ? DEFAULT_DURATION_MSEC : total / count;
+    }
+
+    /** Merge our recorded durations into the history file, under a lock
+     *  as other test runs might be writing it at the same time
+     */
+    private void save() {
+        if (historyFile == null) {
+            return;
+        }
+        final File parent = historyFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            log.warn("Cannot create folder for test durations history {}", historyFile.getAbsolutePath());
+            return;
+        }
+        // file locks are held by the JVM, so also serialize the schedulers of this JVM
+        synchronized (TestDurationScheduler.class) {
+            try (FileChannel channel = FileChannel.open(historyFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    FileLock lock = channel.lock()) {
+                final Properties current = new Properties();
+                current.load(new ByteArrayInputStream(read(channel)));
+                final Properties merged = merge(current);
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                merged.store(bos, "Test class durations in msec and when they were recorded, see "
+                        + SlingInstanceManager.class.getName());
+                channel.truncate(0);
+                final ByteBuffer buffer = ByteBuffer.wrap(bos.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                history.clear();
+                history.putAll(merged);
+            } catch (IOException e) {
+                log.warn("Cannot write test durations history {} ({})", historyFile.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /** Return the current history with our recorded values, without
+     *  the entries that were not recorded within the retention time
+     */
+    private Properties merge(Properties current) {
+        final long now = System.currentTimeMillis();
+        final Properties result = new Properties();
+        int pruned = 0;
+        for (String testId : current.stringPropertyNames()) {
+            final String value = current.getProperty(testId);
+            final long msec = parseField(value, 0);
+            long recordedAt = parseField(value, 1);
+            if (recordedAt < 0) {
+                // written by an older version, starts ageing now
+                recordedAt = now;
+            }
+            if (msec < 0 || now - recordedAt > retentionMsec) {
+                pruned++;
+            } else {
+                result.setProperty(testId, msec + SEP + recordedAt);
+            }
+        }
+        result.putAll(recorded);
+        if (pruned > 0) {
+            log.info("Removed {} test classes not recorded for {} days from {}",
+                    new Object[] { pruned, TimeUnit.MILLISECONDS.toDays(retentionMsec), historyFile.getAbsolutePath() });
+        }
+        return result;
+    }
+
+    private static byte [] read(FileChannel channel) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        channel.position(0);
+        while (channel.read(buffer) > 0) {
+            bos.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        return bos.toByteArray();
+    }
+}
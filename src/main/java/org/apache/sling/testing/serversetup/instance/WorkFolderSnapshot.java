@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Copy of the work folder of a stopped Sling instance, used to bring
+ *  it back to the state that it had when the snapshot was taken.
+ *
+ *  Files are copied in parallel. They are not hardlinked, as a running
+ *  instance modifies some of its repository files in place, which would
+ *  also modify the snapshot.
+ */
+class WorkFolderSnapshot {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Path workFolder;
+    private final Path snapshotFolder;
+    private final int parallelism;
+    private volatile boolean captured;
+
+    /** @throws IllegalArgumentException if one folder is the same as the
+     *      other one or inside it, as copying would then delete or copy
+     *      the snapshot into itself
+     */
+    WorkFolderSnapshot(File workFolder, File snapshotFolder, int parallelism) {
+        this.workFolder = workFolder.toPath().toAbsolutePath().normalize();
+        this.snapshotFolder = snapshotFolder.toPath().toAbsolutePath().normalize();
+        this.parallelism = Math.max(1, parallelism);
+        if (this.snapshotFolder.startsWith(this.workFolder) || this.workFolder.startsWith(this.snapshotFolder)) {
+            throw new IllegalArgumentException("Snapshot folder " + this.snapshotFolder
+                    + " must be outside of work folder " + this.workFolder + " and not contain it");
+        }
+    }
+
+    /** True once {@link #capture} succeeded */
+    boolean isCaptured() {
+        return captured;
+    }
+
+    /** Replace the snapshot with a copy of the work folder */
+    void capture() throws IOException {
+        final long start = System.currentTimeMillis();
+        captured = false;
+        deleteContent(snapshotFolder);
+        final int n = copy(workFolder, snapshotFolder);
+        captured = true;
+        log.info("Snapshot of {} taken in {}, {} files copied in {} msec",
+                new Object[] { workFolder, snapshotFolder, n, System.currentTimeMillis() - start });
+    }
+
+    /** Replace the content of the work folder with the snapshot */
+    void restore() throws IOException {
+        if (!captured) {
+            throw new IllegalStateException("No snapshot of " + workFolder + " taken yet");
+        }
+        final long start = System.currentTimeMillis();
+        deleteContent(workFolder);
+        final int n = copy(snapshotFolder, workFolder);
+        log.info("Snapshot {} restored to {}, {} files copied in {} msec",
+                new Object[] { snapshotFolder, workFolder, n, System.currentTimeMillis() - start });
+    }
+
+    /** Copy the content of from to to, creating folders sequentially and copying files in parallel.
+     *  @return the number of files copied
+     */
+    private int copy(final Path from, final Path to) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "WorkFolderSnapshot-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final List<Future<Path>> copies = new ArrayList<Future<Path>>();
+        try {
+            Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectories(to.resolve(from.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, BasicFileAttributes attrs) {
+                    final Path target = to.resolve(from.relativize(file));
+                    copies.add(executor.submit(new Callable<Path>() {
+                        public Path call() throws IOException {
+                            return Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+                        }
+                    }));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            for (Future<Path> f : copies) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while copying " + from + " to " + to, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to copy " + from + " to " + to, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return copies.size();
+    }
+
+    /** Delete everything in folder, but not folder itself */
+    static void deleteContent(final Path folder) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                if (!dir.equals(folder)) {
+                    Files.delete(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -17,9 +17,21 @@
 package org.apache.sling.testing.serversetup.jarexec;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.exec.CommandLine;
@@ -28,6 +40,9 @@ import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.ExecuteResultHandler;
 import org.apache.commons.exec.Executor;
 import org.apache.commons.exec.PumpStreamHandler;
+import org.apache.sling.testing.serversetup.event.InstanceEvent;
+import org.apache.sling.testing.serversetup.event.InstanceEvents;
+import org.apache.sling.testing.serversetup.jfr.JfrSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,7 +54,14 @@ public class JarExecutor {
     private final String jvmFullPath;
     private final int serverPort;
     private final Properties config;
-    private Executor executor;
+    private final String instanceName;
+    private volatile Executor executor;
+    private volatile ProcessResourceSampler sampler;
+    private volatile LaunchScheduler.Launch launch;
+    private volatile OutputRingBuffer output;
+    private volatile AtomicBoolean processEnded = new AtomicBoolean(true);
+    private volatile boolean startupRecordingStarted;
+    private volatile boolean recordingActive;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -60,6 +82,48 @@ public class JarExecutor {
     public static final String PROP_JAVA_PATH = PROP_PREFIX + "java.executable.path";
     public static final String PROP_SYNC_EXEC = PROP_PREFIX + "synchronous.exec";
     public static final String PROP_SYNC_EXEC_EXPECTED = PROP_PREFIX + "synchronous.exec.expected.result";
+    /** Name used in the {@link InstanceEvent}s of this executor, default is jarexec-[server port] */
+    public static final String PROP_INSTANCE_NAME = PROP_PREFIX + "instance.name";
+    /** If true, the process is started with a flight recording that {@link #dumpStartupRecording} saves */
+    public static final String PROP_STARTUP_RECORDING = PROP_PREFIX + "startup.recording";
+    /** JFR settings of the startup recording, default is "profile" */
+    public static final String PROP_STARTUP_RECORDING_SETTINGS = PROP_PREFIX + "startup.recording.settings";
+    /** Folder where recordings and diagnostics of the process are saved */
+    public static final String PROP_REPORTS_FOLDER = PROP_PREFIX + "reports.folder";
+    public static final String DEFAULT_REPORTS_FOLDER = "target/serversetup-reports";
+    /** Maximum number of processes booting at the same time, see {@link LaunchScheduler} */
+    public static final String PROP_LAUNCH_MAX_BOOTING = PROP_PREFIX + "launch.max.booting";
+    /** Maximum number of CPU cores reserved by booting processes, see {@link LaunchScheduler} */
+    public static final String PROP_LAUNCH_MAX_CORES = PROP_PREFIX + "launch.max.cores";
+    /** Maximum heap in MB reserved by running processes, see {@link LaunchScheduler} */
+    public static final String PROP_LAUNCH_MAX_HEAP_MB = PROP_PREFIX + "launch.max.heap.mb";
+    /** CPU cores reserved by our process while it boots, default is 1 */
+    public static final String PROP_LAUNCH_CORES = PROP_PREFIX + "launch.cores";
+    /** Heap in MB reserved by our process while it runs, default is its -Xmx value, or 0 */
+    public static final String PROP_LAUNCH_HEAP_MB = PROP_PREFIX + "launch.heap.mb";
+    /** Maximum time to wait for a launch to be admitted, default is 600 */
+    public static final String PROP_LAUNCH_TIMEOUT_SECONDS = PROP_PREFIX + "launch.timeout.seconds";
+    /** Number of thread dumps taken by {@link #captureDiagnostics}, default is 3 */
+    public static final String PROP_DIAGNOSTICS_THREAD_DUMPS = PROP_PREFIX + "diagnostics.thread.dumps";
+    /** Interval between the thread dumps taken by {@link #captureDiagnostics}, default is 2 */
+    public static final String PROP_DIAGNOSTICS_INTERVAL_SECONDS = PROP_PREFIX + "diagnostics.thread.dump.interval.seconds";
+    /** If true, {@link #captureDiagnostics} also saves a class histogram of the heap */
+    public static final String PROP_DIAGNOSTICS_CLASS_HISTOGRAM = PROP_PREFIX + "diagnostics.class.histogram";
+    /** Size in kB of the last output of the process that is kept for {@link #captureDiagnostics}, default is 256 */
+    public static final String PROP_OUTPUT_BUFFER_KB = PROP_PREFIX + "output.buffer.kb";
+    /** If set, the resources used by the process are sampled at this interval, see {@link #getResourceUsage} */
+    public static final String PROP_RESOURCE_SAMPLING_MSEC = PROP_PREFIX + "resource.sampling.interval.millis";
+
+    /** Name of the flight recording started with the process */
+    private static final String STARTUP_RECORDING_NAME = "serversetup-startup";
+
+    /** Number of methods and locks listed in the startup recording summary */
+    private static final int STARTUP_RECORDING_TOP_COUNT = 20;
+
+    private static final Pattern XMX = Pattern.compile("-Xmx([0-9]+)([kKmMgGtT]?)");
+
+    /** Interval between checks for the server port being open, when publishing events */
+    private static final int PORT_CHECK_INTERVAL_MSEC = 100;
 
     @SuppressWarnings("serial")
     public static class ExecutorException extends Exception {
@@ -87,6 +151,7 @@ public class JarExecutor {
 
         String portStr = config.getProperty(PROP_SERVER_PORT);
         serverPort = portStr == null ? DEFAULT_PORT : Integer.valueOf(portStr);
+        instanceName = config.getProperty(PROP_INSTANCE_NAME, "jarexec-" + serverPort);
 
         final String configJvmPath = config.getProperty(PROP_JAVA_PATH);
         if(configJvmPath == null) {
@@ -125,18 +190,25 @@ public class JarExecutor {
                     + ", candidates are " + Arrays.asList(candidates));
         }
         jarToExecute = f;
+        InstanceEvents.publish(InstanceEvent.Type.JAR_LOCATED, instanceName, jarToExecute.getAbsolutePath());
     }
 
     /** Start the jar if not done yet, and setup runtime hook
      *  to stop it.
      */
     public void start() throws Exception {
+        // the executor registers our process asynchronously, isAlive() is false
+        // until then, so it cannot tell if our process ended
+        final AtomicBoolean ended = new AtomicBoolean();
+        processEnded = ended;
         final ExecuteResultHandler h = new ExecuteResultHandler() {
             public void onProcessFailed(ExecuteException ex) {
+                ended.set(true);
                 log.error("Process execution failed:" + ex, ex);
             }
 
             public void onProcessComplete(int result) {
+                ended.set(true);
                 log.info("Process execution complete, exit code=" + result);
             }
         };
@@ -147,6 +219,13 @@ public class JarExecutor {
         if (vmOptions != null && vmOptions.length() > 0) {
             cl.addArguments(vmOptions);
         }
+        if (isStartupRecordingEnabled() && !startupRecordingStarted) {
+            // only the first launch is recorded, restarts would record without anyone saving it
+            startupRecordingStarted = true;
+            recordingActive = true;
+            cl.addArgument("-XX:StartFlightRecording=name=" + STARTUP_RECORDING_NAME
+                    + ",settings=" + config.getProperty(PROP_STARTUP_RECORDING_SETTINGS, "profile"));
+        }
         cl.addArgument("-jar");
         cl.addArgument(jarToExecute.getAbsolutePath());
 
@@ -173,25 +252,346 @@ public class JarExecutor {
         String tmStr = config.getProperty(PROP_EXIT_TIMEOUT_SECONDS);
         final int exitTimeoutSeconds = tmStr == null ? DEFAULT_EXIT_TIMEOUT : Integer.valueOf(tmStr);
 
-        if("true".equals(config.getProperty(PROP_SYNC_EXEC, ""))) {
-            final long start = System.currentTimeMillis();
-            log.info("Executing and waiting for result: " + cl);
-            final int result = executor.execute(cl);
-            final int expected = Integer.valueOf(config.getProperty(PROP_SYNC_EXEC_EXPECTED, "0"));
-            log.info("Execution took " + (System.currentTimeMillis() - start) + " msec");
-            if(result != expected) {
-                throw new ExecutorException("Expected result code " + expected + ", got " + result);
+        final boolean synchronous = "true".equals(config.getProperty(PROP_SYNC_EXEC, ""));
+        acquireLaunch(vmOptions);
+        final JfrSupport.Span event = JfrSupport.begin(JfrSupport.PROCESS_START);
+        boolean started = false;
+        try {
+            if(synchronous) {
+                final long start = System.currentTimeMillis();
+                log.info("Executing and waiting for result: " + cl);
+                final int result = executor.execute(cl);
+                final int expected = Integer.valueOf(config.getProperty(PROP_SYNC_EXEC_EXPECTED, "0"));
+                log.info("Execution took " + (System.currentTimeMillis() - start) + " msec");
+                if(result != expected) {
+                    throw new ExecutorException("Expected result code " + expected + ", got " + result);
+                }
+            } else {
+                log.info("Executing asynchronously: " + cl);
+                final OutputRingBuffer buffer = new OutputRingBuffer(Integer.valueOf(config.getProperty(PROP_OUTPUT_BUFFER_KB, "256")) * 1024);
+                executor.setStreamHandler(new PumpStreamHandler(buffer.tee(System.out), buffer.tee(System.err)));
+                output = buffer;
+                final ShutdownHookSingleProcessDestroyer pd = new ShutdownHookSingleProcessDestroyer("java -jar " + jarToExecute.getName(), exitTimeoutSeconds, instanceName);
+                final boolean waitOnShutdown = Boolean.valueOf(config.getProperty(PROP_WAIT_ONSHUTDOWN, "false"));
+                log.info("Setting up ProcessDestroyer with waitOnShutdown=" + waitOnShutdown);
+                pd.setWaitOnShutdown(waitOnShutdown);
+                executor.setProcessDestroyer(pd);
+                startSamplerIfNeeded(pd);
+                executor.execute(cl, h);
+                InstanceEvents.publish(InstanceEvent.Type.PROCESS_SPAWNED, instanceName, cl.toString());
+                if (InstanceEvents.hasListeners()) {
+                    watchPortOpen(ended, true, false);
+                }
             }
-        } else {
-            log.info("Executing asynchronously: " + cl);
-            executor.setStreamHandler(new PumpStreamHandler());
-            final ShutdownHookSingleProcessDestroyer pd = new ShutdownHookSingleProcessDestroyer("java -jar " + jarToExecute.getName(), exitTimeoutSeconds);
-            final boolean waitOnShutdown = Boolean.valueOf(config.getProperty(PROP_WAIT_ONSHUTDOWN, "false"));
-            log.info("Setting up ProcessDestroyer with waitOnShutdown=" + waitOnShutdown);
-            pd.setWaitOnShutdown(waitOnShutdown);
-            executor.setProcessDestroyer(pd);
-            executor.execute(cl, h);
+            started = true;
+        } finally {
+            if (synchronous || !started) {
+                ended.set(true);
+                releaseLaunch();
+            }
+            if (event.shouldCommit()) {
+                event.set("instanceName", instanceName)
+                    .set("serverPort", serverPort)
+                    .set("commandLine", cl.toString())
+                    .set("synchronous", synchronous)
+                    .set("failed", !started)
+                    .commit();
+            }
+        }
+    }
+
+    /** Wait in the background until our server port accepts connections,
+     *  or give up if our process ends before that.
+     *  @param ended set once our process ended, or failed to start
+     *  @param publishEvent publish a PORT_OPEN event once the port is open
+     *  @param completeLaunch call {@link #launchCompleted} once the port is open or the process ended
+     */
+    private void watchPortOpen(final AtomicBoolean ended, final boolean publishEvent, final boolean completeLaunch) {
+        final Thread t = new Thread(getClass().getSimpleName() + "-port-" + serverPort) {
+            @Override
+            public void run() {
+                try {
+                    while (!ended.get()) {
+                        try (Socket s = new Socket()) {
+                            s.connect(new InetSocketAddress("localhost", serverPort), PORT_CHECK_INTERVAL_MSEC);
+                            if (publishEvent) {
+                                InstanceEvents.publish(InstanceEvent.Type.PORT_OPEN, instanceName, String.valueOf(serverPort));
+                            }
+                            return;
+                        } catch (IOException notOpenYet) {
+                            Thread.sleep(PORT_CHECK_INTERVAL_MSEC);
+                        }
+                    }
+                } catch (InterruptedException ignore) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (completeLaunch) {
+                        launchCompleted();
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Wait for our launch to be admitted by the {@link LaunchScheduler}, if a budget is set */
+    private void acquireLaunch(String vmOptions) throws ExecutorException, InterruptedException {
+        releaseLaunch();
+        final LaunchScheduler scheduler = LaunchScheduler.forConfig(config);
+        if (scheduler == null) {
+            return;
+        }
+        final int cores = Integer.valueOf(config.getProperty(PROP_LAUNCH_CORES, "1"));
+        final String heapMb = config.getProperty(PROP_LAUNCH_HEAP_MB);
+        final long timeoutSec = Long.valueOf(config.getProperty(PROP_LAUNCH_TIMEOUT_SECONDS, "600"));
+        try {
+            launch = scheduler.acquire(instanceName, cores,
+                    heapMb == null ? getMaxHeapMb(vmOptions) : Long.valueOf(heapMb), timeoutSec * 1000L);
+        } catch (TimeoutException e) {
+            throw new ExecutorException(e.getMessage(), e);
+        }
+    }
+
+    /** Return the -Xmx value of the supplied JVM options in MB, 0 if not set */
+    private static long getMaxHeapMb(String vmOptions) {
+        if (vmOptions == null) {
+            return 0;
+        }
+        final Matcher m = XMX.matcher(vmOptions);
+        long result = 0;
+        while (m.find()) {
+            // the last one wins, like in the JVM
+            final long value = Long.valueOf(m.group(1));
+            final String unit = m.group(2).toLowerCase();
+            if (unit.equals("t")) {
+                result = value * 1024 * 1024;
+            } else if (unit.equals("g")) {
+                result = value * 1024;
+            } else if (unit.equals("m")) {
+                result = value;
+            } else if (unit.equals("k")) {
+                result = value / 1024;
+            } else {
+                result = value / (1024 * 1024);
+            }
+        }
+        return result;
+    }
+
+    /** Release the budget reserved for our process while booting, meant to be
+     *  called once the server is ready, or failed to get ready. The budget
+     *  reserved for a running process is released when it is stopped.
+     */
+    public void launchCompleted() {
+        final LaunchScheduler.Launch l = launch;
+        if (l != null) {
+            l.booted();
+        }
+    }
+
+    /** Call {@link #launchCompleted} once our server port accepts connections, or
+     *  our process ends, without waiting for that. Meant for callers that do not
+     *  check if the server is ready, like the StartRunnableJarPhase.
+     */
+    public void launchCompletedOnPortOpen() {
+        if (launch != null) {
+            watchPortOpen(processEnded, false, true);
+        }
+    }
+
+    private void releaseLaunch() {
+        final LaunchScheduler.Launch l = launch;
+        launch = null;
+        if (l != null) {
+            l.stopped();
+        }
+    }
+
+    /** Start sampling the resources used by our process, if {@link #PROP_RESOURCE_SAMPLING_MSEC} is set.
+     *  Sampling stops, and the resources report is written, before the process is destroyed.
+     */
+    private void startSamplerIfNeeded(ShutdownHookSingleProcessDestroyer pd) {
+        final int intervalMsec = Integer.valueOf(config.getProperty(PROP_RESOURCE_SAMPLING_MSEC, "0"));
+        if (intervalMsec <= 0) {
+            sampler = null;
+            return;
+        }
+        final ProcessResourceSampler s = new ProcessResourceSampler(pd, instanceName, intervalMsec, getReportFile("-resources.txt"));
+        pd.setBeforeDestroy(new Runnable() {
+            public void run() {
+                s.stop();
+            }
+        });
+        sampler = s;
+        s.start();
+    }
+
+    /** Return the resources used so far by the process that we started, or null
+     *  if {@link #PROP_RESOURCE_SAMPLING_MSEC} is not set
+     */
+    public ProcessResourceUsage getResourceUsage() {
+        final ProcessResourceSampler s = sampler;
+        return s == null ? null : s.getUsage();
+    }
+
+    private boolean isStartupRecordingEnabled() {
+        return "true".equals(config.getProperty(PROP_STARTUP_RECORDING));
+    }
+
+    /** Return a file in our reports folder, named after our instance */
+    private File getReportFile(String suffix) {
+        final File folder = new File(config.getProperty(PROP_REPORTS_FOLDER, DEFAULT_REPORTS_FOLDER));
+        folder.mkdirs();
+        return new File(folder, instanceName.replaceAll("[^A-Za-z0-9._-]", "_") + suffix);
+    }
+
+    /** If {@link #PROP_STARTUP_RECORDING} is set, stop the flight recording that was
+     *  started with our process, save it in our reports folder and write a summary of
+     *  its CPU hotspots, class loading, GC pauses and lock contention next to it.
+     *  Only the first process that we start is recorded.
+     *  Meant to be called once the server is ready.
+     *  @return the summary file, or null if no recording was saved
+     */
+    public File dumpStartupRecording() {
+        if (!isStartupRecordingEnabled() || !isAlive() || !recordingActive) {
+            return null;
+        }
+        recordingActive = false;
+        final File recording = getReportFile("-startup.jfr");
+        final File summary = getReportFile("-startup-summary.txt");
+        recording.delete();
+        try {
+            final String output = new Jcmd(jvmFullPath).run(getProcessId(),
+                    "JFR.stop", "name=" + STARTUP_RECORDING_NAME, "filename=" + recording.getAbsolutePath());
+            if (!recording.isFile()) {
+                log.warn("Startup recording of {} not saved: {}", instanceName, output.trim());
+                return null;
+            }
+            final String report = JfrSupport.summarize(recording.toPath(), STARTUP_RECORDING_TOP_COUNT);
+            if (report == null) {
+                log.info("Startup recording of {} saved to {}, summaries require Java 11", instanceName, recording.getAbsolutePath());
+                return null;
+            }
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(summary), StandardCharsets.UTF_8)) {
+                w.write("Startup recording of " + instanceName + ": " + recording.getAbsolutePath() + "\n");
+                w.write(report);
+            }
+            log.info("Startup recording of {} saved, summary in {}", instanceName, summary.getAbsolutePath());
+            return summary;
+        } catch (IOException e) {
+            log.warn("Cannot save startup recording of " + instanceName, e);
+            return null;
+        }
+    }
+
+    /** Save diagnostics of the process that we started in our reports folder:
+     *  thread dumps taken at intervals, optionally a class histogram, and the
+     *  last output of the process. Meant to be called when the server does not
+     *  get ready in time, before stopping it.
+     *  Thread dumps are taken with jcmd, or with a SIGQUIT signal that makes the
+     *  process write them to its output if jcmd fails.
+     *  @return the files that were written
+     */
+    public List<File> captureDiagnostics() {
+        final List<File> result = new ArrayList<File>();
+        final int dumps = Integer.valueOf(config.getProperty(PROP_DIAGNOSTICS_THREAD_DUMPS, "3"));
+        final int intervalSec = Integer.valueOf(config.getProperty(PROP_DIAGNOSTICS_INTERVAL_SECONDS, "2"));
+        final Jcmd jcmd = new Jcmd(jvmFullPath);
+        try {
+            for (int i = 1; i <= dumps && isAlive(); i++) {
+                if (i > 1) {
+                    Thread.sleep(intervalSec * 1000L);
+                }
+                final File f = getReportFile("-threads-" + i + ".txt");
+                if (runJcmd(jcmd, f, "Thread.print", "-l")) {
+                    result.add(f);
+                } else if (sendQuitSignal()) {
+                    log.info("Thread dump {} of {} requested with SIGQUIT, see its output", i, instanceName);
+                }
+            }
+            if (isAlive() && "true".equals(config.getProperty(PROP_DIAGNOSTICS_CLASS_HISTOGRAM))) {
+                final File f = getReportFile("-class-histogram.txt");
+                if (runJcmd(jcmd, f, "GC.class_histogram")) {
+                    result.add(f);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final OutputRingBuffer buffer = output;
+        if (buffer != null) {
+            final File f = getReportFile("-output.txt");
+            try (OutputStream os = new FileOutputStream(f)) {
+                os.write(buffer.getContent());
+                result.add(f);
+            } catch (IOException e) {
+                log.warn("Cannot write output of " + instanceName + " to " + f.getAbsolutePath(), e);
+            }
+        }
+        log.info("Diagnostics of {} saved: {}", instanceName, result);
+        return result;
+    }
+
+    /** Run a jcmd command against our process, writing its output to f
+     *  @return true if that worked
+     */
+    private boolean runJcmd(Jcmd jcmd, File f, String ... command) {
+        try {
+            if (jcmd.run(getProcessId(), f, command)) {
+                return true;
+            }
+            log.info("jcmd {} failed for {}, see {}", new Object[] { command[0], instanceName, f.getAbsolutePath() });
+        } catch (IOException e) {
+            log.info("jcmd {} failed for {} ({})", new Object[] { command[0], instanceName, e });
+        }
+        return false;
+    }
+
+    /** Ask our process to write a thread dump to its output
+     *  @return true if the signal was sent
+     */
+    private boolean sendQuitSignal() {
+        final long pid = getProcessId();
+        if (pid < 0 || System.getProperty("os.name").toLowerCase().contains("windows")) {
+            return false;
+        }
+        try {
+            return new ProcessBuilder("kill", "-QUIT", String.valueOf(pid)).start().waitFor() == 0;
+        } catch (IOException e) {
+            log.info("Cannot send SIGQUIT to process {} ({})", pid, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /** True if we started a process asynchronously and it is still running */
+    public boolean isAlive() {
+        final ShutdownHookSingleProcessDestroyer d = getDestroyer();
+        return d != null && d.isAlive();
+    }
+
+    /** Return the ID of the process that we started, or -1 if it's not running */
+    public long getProcessId() {
+        final ShutdownHookSingleProcessDestroyer d = getDestroyer();
+        return d == null ? -1 : d.getProcessId();
+    }
+
+    /** Return the time at which the process that we started was started, or -1 if it's not running */
+    public long getProcessStartTime() {
+        final ShutdownHookSingleProcessDestroyer d = getDestroyer();
+        return d == null ? -1 : d.getProcessStartTime();
+    }
+
+    private ShutdownHookSingleProcessDestroyer getDestroyer() {
+        final Executor e = executor;
+        if(e == null) {
+            return null;
         }
+        final Object d = e.getProcessDestroyer();
+        return d instanceof ShutdownHookSingleProcessDestroyer ? (ShutdownHookSingleProcessDestroyer)d : null;
     }
 
     /** Stop the process that we started, if any, and wait for it to exit before returning */
@@ -202,6 +602,8 @@ public class JarExecutor {
         final Object d = executor.getProcessDestroyer();
         if(d instanceof ShutdownHookSingleProcessDestroyer) {
             ((ShutdownHookSingleProcessDestroyer)d).destroyProcess(true);
+            recordingActive = false;
+            releaseLaunch();
             log.info("Process destroyed");
         } else {
             throw new IllegalStateException(d + " is not a Runnable, cannot destroy process");
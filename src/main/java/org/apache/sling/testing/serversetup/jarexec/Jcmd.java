@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jarexec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Runs jcmd diagnostic commands against the processes that we started,
+ *  using the jcmd executable that's next to their java executable.
+ */
+class Jcmd {
+
+    static final int TIMEOUT_SECONDS = 60;
+
+    private final String jcmdPath;
+
+    Jcmd(String jvmFullPath) {
+        final boolean isWindows = System.getProperty("os.name").toLowerCase().contains("windows");
+        final String jcmdExecutable = isWindows ? "jcmd.exe" : "jcmd";
+        final File sibling = new File(new File(jvmFullPath).getParentFile(), jcmdExecutable);
+        if (sibling.canExecute()) {
+            jcmdPath = sibling.getAbsolutePath();
+        } else {
+            jcmdPath = System.getProperty("java.home") + File.separator + "bin" + File.separator + jcmdExecutable;
+        }
+    }
+
+    /** Run a jcmd command against the supplied process, and write its output to a file
+     *  @return true if the command succeeded
+     */
+    boolean run(long pid, File output, String ... command) throws IOException {
+        final List<String> args = new ArrayList<String>();
+        args.add(jcmdPath);
+        args.add(String.valueOf(pid));
+        for (String c : command) {
+            args.add(c);
+        }
+        final Process p = new ProcessBuilder(args).redirectErrorStream(true).redirectOutput(output).start();
+        try {
+            if (!p.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                p.destroyForcibly();
+                throw new IOException("jcmd " + command[0] + " did not complete after " + TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            p.destroyForcibly();
+            throw new IOException("Interrupted while waiting for jcmd " + command[0], e);
+        }
+        return p.exitValue() == 0;
+    }
+
+    /** Run a jcmd command against the supplied process
+     *  @return the output of the command
+     *  @throws IOException if the command failed
+     */
+    String run(long pid, String ... command) throws IOException {
+        final File output = File.createTempFile("jcmd", ".txt");
+        try {
+            final boolean ok = run(pid, output, command);
+            final String result = new String(Files.readAllBytes(output.toPath()), Charset.defaultCharset());
+            if (!ok) {
+                throw new IOException("jcmd " + command[0] + " failed: " + result.trim());
+            }
+            return result;
+        } finally {
+            output.delete();
+        }
+    }
+}
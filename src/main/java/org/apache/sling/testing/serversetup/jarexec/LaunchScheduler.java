@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jarexec;
+
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Admission control for the processes started by {@link JarExecutor}s, so
+ *  that starting many of them at the same time does not oversubscribe the
+ *  machine. The budget limits the number of booting processes, the CPU
+ *  cores reserved by booting processes and the heap reserved by running
+ *  processes. Launches that exceed it wait, in order, until a booting
+ *  process is ready or a running process is stopped.
+ *
+ *  A launch that needs more than the whole budget is only admitted when
+ *  nothing else is booting or running.
+ */
+public class LaunchScheduler {
+
+    private static final ConcurrentMap<String, LaunchScheduler> schedulers = new ConcurrentHashMap<String, LaunchScheduler>();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final int maxBooting;
+    private final int maxCores;
+    private final long maxHeapMb;
+    private final LinkedList<Launch> queue = new LinkedList<Launch>();
+    private int booting;
+    private int reservedCores;
+    private long reservedHeapMb;
+    private int running;
+
+    /** An admitted launch, which holds its resources until released */
+    public class Launch {
+        private final String name;
+        private final int cores;
+        private final long heapMb;
+        private boolean booted;
+        private boolean stopped;
+
+        private Launch(String name, int cores, long heapMb) {
+            this.name = name;
+            this.cores = cores;
+            this.heapMb = heapMb;
+        }
+
+        /** Release the resources reserved for booting: the process is ready, or failed to get ready */
+        public void booted() {
+            synchronized (LaunchScheduler.this) {
+                if (booted) {
+                    return;
+                }
+                booted = true;
+                booting--;
+                reservedCores -= cores;
+                LaunchScheduler.this.notifyAll();
+            }
+        }
+
+        /** Release all resources of this launch, its process is stopped */
+        public void stopped() {
+            synchronized (LaunchScheduler.this) {
+                booted();
+                if (stopped) {
+                    return;
+                }
+                stopped = true;
+                running--;
+                reservedHeapMb -= heapMb;
+                LaunchScheduler.this.notifyAll();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + cores + " cores, " + heapMb + " MB heap)";
+        }
+    }
+
+    /** @param maxBooting maximum number of booting processes, 0 for no limit
+     *  @param maxCores maximum number of cores reserved by booting processes, 0 for no limit
+     *  @param maxHeapMb maximum heap reserved by running processes, 0 for no limit
+     */
+    public LaunchScheduler(int maxBooting, int maxCores, long maxHeapMb) {
+        this.maxBooting = maxBooting;
+        this.maxCores = maxCores;
+        this.maxHeapMb = maxHeapMb;
+    }
+
+    /** Return the scheduler for the budget defined by the {@link JarExecutor}
+     *  configuration, shared by all executors that have the same budget, or
+     *  null if no budget is set.
+     */
+    public static LaunchScheduler forConfig(Properties config) {
+        final int maxBooting = Integer.valueOf(config.getProperty(JarExecutor.PROP_LAUNCH_MAX_BOOTING, "0"));
+        final int maxCores = Integer.valueOf(config.getProperty(JarExecutor.PROP_LAUNCH_MAX_CORES, "0"));
+        final long maxHeapMb = Long.valueOf(config.getProperty(JarExecutor.PROP_LAUNCH_MAX_HEAP_MB, "0"));
+        if (maxBooting <= 0 && maxCores <= 0 && maxHeapMb <= 0) {
+            return null;
+        }
+        final String key = maxBooting + "/" + maxCores + "/" + maxHeapMb;
+        LaunchScheduler result = schedulers.get(key);
+        if (result == null) {
+            final LaunchScheduler created = new LaunchScheduler(maxBooting, maxCores, maxHeapMb);
+            result = schedulers.putIfAbsent(key, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /** Wait until the budget allows a launch, in order of arrival
+     *  @param cores cores reserved until the launch is booted
+     *  @param heapMb heap reserved until the launch is stopped
+     *  @throws TimeoutException if the launch is not admitted within timeoutMsec
+     */
+    public Launch acquire(String name, int cores, long heapMb, long timeoutMsec) throws InterruptedException, TimeoutException {
+        final Launch launch = new Launch(name, cores, heapMb);
+        final long start = System.currentTimeMillis();
+        final long endTime = start + timeoutMsec;
+        synchronized (this) {
+            queue.add(launch);
+            boolean logged = false;
+            try {
+                while (queue.getFirst() != launch || !fits(launch)) {
+                    final long waitMsec = endTime - System.currentTimeMillis();
+                    if (waitMsec <= 0) {
+                        throw new TimeoutException("Launch of " + launch + " not admitted after " + timeoutMsec
+                                + " msec, " + getStatus());
+                    }
+                    if (!logged) {
+                        log.info("Launch of {} waiting, {}", launch, getStatus());
+                        logged = true;
+                    }
+                    wait(waitMsec);
+                }
+            } finally {
+                queue.remove(launch);
+                notifyAll();
+            }
+            booting++;
+            running++;
+            reservedCores += cores;
+            reservedHeapMb += heapMb;
+            log.info("Launch of {} admitted after {} msec, {}",
+                    new Object[] { launch, System.currentTimeMillis() - start, getStatus() });
+        }
+        return launch;
+    }
+
+    /** Must be called while synchronized */
+    private boolean fits(Launch launch) {
+        if (running == 0) {
+            return true;
+        }
+        return (maxBooting <= 0 || booting + 1 <= maxBooting)
+                && (maxCores <= 0 || booting == 0 || reservedCores + launch.cores <= maxCores)
+                && (maxHeapMb <= 0 || reservedHeapMb + launch.heapMb <= maxHeapMb);
+    }
+
+    private String getStatus() {
+        return booting + " booting, " + running + " running, " + reservedCores + " cores and "
+                + reservedHeapMb + " MB heap reserved, " + queue.size() + " launches waiting";
+    }
+
+    public synchronized int getBooting() {
+        return booting;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getReservedCores() {
+        return reservedCores;
+    }
+
+    public synchronized long getReservedHeapMb() {
+        return reservedHeapMb;
+    }
+
+    public synchronized int getWaiting() {
+        return queue.size();
+    }
+}
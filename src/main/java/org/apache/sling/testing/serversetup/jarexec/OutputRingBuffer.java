@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jarexec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Keeps the last bytes written by a process to its standard output
+ *  and error, while copying them to other streams, so that they can be
+ *  saved for diagnostics.
+ */
+class OutputRingBuffer {
+    private final byte [] buffer;
+    private int position;
+    private boolean full;
+
+    OutputRingBuffer(int capacity) {
+        buffer = new byte[Math.max(1, capacity)];
+    }
+
+    private synchronized void append(byte [] b, int off, int len) {
+        if (len >= buffer.length) {
+            System.arraycopy(b, off + len - buffer.length, buffer, 0, buffer.length);
+            position = 0;
+            full = true;
+            return;
+        }
+        final int first = Math.min(len, buffer.length - position);
+        System.arraycopy(b, off, buffer, position, first);
+        System.arraycopy(b, off + first, buffer, 0, len - first);
+        position += len;
+        if (position >= buffer.length) {
+            position -= buffer.length;
+            full = true;
+        }
+    }
+
+    /** Return the bytes that we kept, oldest first */
+    synchronized byte [] getContent() {
+        if (!full) {
+            final byte [] result = new byte[position];
+            System.arraycopy(buffer, 0, result, 0, position);
+            return result;
+        }
+        final byte [] result = new byte[buffer.length];
+        System.arraycopy(buffer, position, result, 0, buffer.length - position);
+        System.arraycopy(buffer, 0, result, buffer.length - position, position);
+        return result;
+    }
+
+    /** Return a stream that writes to out and to this buffer. Closing it does not close out. */
+    OutputStream tee(final OutputStream out) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte)b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte [] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                append(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+            }
+        };
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jarexec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Samples the CPU time, resident memory, threads and open files of the
+ *  process started by a {@link JarExecutor}, reading <code>/proc/pid</code>
+ *  on Linux. Only the CPU time is available on other platforms, and it
+ *  requires Java 9 or later.
+ */
+class ProcessResourceSampler implements Runnable {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final ShutdownHookSingleProcessDestroyer destroyer;
+    private final String instanceName;
+    private final int intervalMsec;
+    private final File report;
+    private ScheduledExecutorService executor;
+
+    private long pid = -1;
+    private int samples;
+    private long firstSampleTime = -1;
+    private long lastSampleTime = -1;
+    private long firstCpuMsec = -1;
+    private long lastCpuMsec = -1;
+    private double peakCpuLoad = -1;
+    private long peakRss = -1;
+    private long totalRss;
+    private int rssSamples;
+    private int peakThreads = -1;
+    private long totalThreads;
+    private int threadSamples;
+    private int peakFiles = -1;
+    private long totalFiles;
+    private int fileSamples;
+
+    /** @param report file where the usage is written when sampling stops, null for none */
+    ProcessResourceSampler(ShutdownHookSingleProcessDestroyer destroyer, String instanceName, int intervalMsec, File report) {
+        this.destroyer = destroyer;
+        this.instanceName = instanceName;
+        this.intervalMsec = intervalMsec;
+        this.report = report;
+    }
+
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "ProcessResourceSampler-" + instanceName);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(this, 0, intervalMsec, TimeUnit.MILLISECONDS);
+    }
+
+    /** Take a last sample, stop sampling and write our report */
+    void stop() {
+        final ScheduledExecutorService e;
+        synchronized (this) {
+            e = executor;
+            executor = null;
+        }
+        if (e == null) {
+            return;
+        }
+        e.shutdownNow();
+        run();
+        final ProcessResourceUsage usage = getUsage();
+        log.info("Resources used by the process of {}: {}", instanceName, usage);
+        if (report != null) {
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(report), StandardCharsets.UTF_8)) {
+                w.write("Resources used by the process of " + instanceName + "\n");
+                w.write(usage.toString());
+            } catch (IOException ioe) {
+                log.warn("Cannot write resources report " + report.getAbsolutePath(), ioe);
+            }
+        }
+    }
+
+    public synchronized void run() {
+        if (pid < 0) {
+            // our process is registered asynchronously by the executor
+            pid = destroyer.getProcessId();
+            if (pid < 0) {
+                return;
+            }
+        }
+        final long now = System.currentTimeMillis();
+        if (!destroyer.isAlive()) {
+            return;
+        }
+        final long cpuMsec = Processes.getCpuTimeMsec(pid);
+        final File proc = new File("/proc/" + pid);
+        final long [] status = readStatus(proc);
+        final long rss = status[0] < 0 ? -1 : status[0] * 1024;
+        final long threads = status[1];
+        final String [] fds = new File(proc, "fd").list();
+
+        samples++;
+        if (cpuMsec >= 0) {
+            if (firstCpuMsec < 0) {
+                firstCpuMsec = cpuMsec;
+            } else if (now > lastSampleTime) {
+                peakCpuLoad = Math.max(peakCpuLoad, (double)(cpuMsec - lastCpuMsec) / (now - lastSampleTime));
+            }
+            lastCpuMsec = cpuMsec;
+        }
+        if (firstSampleTime < 0) {
+            firstSampleTime = now;
+        }
+        lastSampleTime = now;
+        if (rss >= 0) {
+            peakRss = Math.max(peakRss, rss);
+            totalRss += rss;
+            rssSamples++;
+        }
+        if (threads >= 0) {
+            peakThreads = Math.max(peakThreads, (int)threads);
+            totalThreads += threads;
+            threadSamples++;
+        }
+        if (fds != null) {
+            peakFiles = Math.max(peakFiles, fds.length);
+            totalFiles += fds.length;
+            fileSamples++;
+        }
+    }
+
+    /** Return the resident set size in kB and the number of threads found
+     *  in /proc/pid/status, -1 for the values that are not available
+     */
+    private static long [] readStatus(File proc) {
+        final long [] result = { -1, -1 };
+        final File status = new File(proc, "status");
+        if (!status.canRead()) {
+            return result;
+        }
+        try {
+            for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    result[0] = parseValue(line);
+                } else if (line.startsWith("Threads:")) {
+                    result[1] = parseValue(line);
+                }
+            }
+        } catch (IOException e) {
+            // process ended
+        }
+        return result;
+    }
+
+    private static long parseValue(String statusLine) {
+        try {
+            return Long.parseLong(statusLine.substring(statusLine.indexOf(':') + 1).trim().split("\\s+")[0]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    synchronized ProcessResourceUsage getUsage() {
+        return new ProcessResourceUsage(pid, samples,
+                firstSampleTime < 0 ? 0 : lastSampleTime - firstSampleTime,
+                firstCpuMsec < 0 ? -1 : lastCpuMsec,
+                firstCpuMsec < 0 || lastSampleTime <= firstSampleTime
+                    ? -1 : (double)(lastCpuMsec - firstCpuMsec) / (lastSampleTime - firstSampleTime),
+                peakCpuLoad,
+                peakRss, rssSamples == 0 ? -1 : totalRss / rssSamples,
+                peakThreads, threadSamples == 0 ? -1 : (int)(totalThreads / threadSamples),
+                peakFiles, fileSamples == 0 ? -1 : (int)(totalFiles / fileSamples));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jarexec;
+
+/** Resources used by a process started by a {@link JarExecutor}, sampled
+ *  at regular intervals, see {@link JarExecutor#PROP_RESOURCE_SAMPLING_MSEC}.
+ *  Values are -1 if they could not be sampled, memory, threads and file
+ *  descriptors are only available on Linux.
+ */
+public class ProcessResourceUsage {
+    private final long pid;
+    private final int samples;
+    private final long durationMsec;
+    private final long cpuTimeMsec;
+    private final double averageCpuLoad;
+    private final double peakCpuLoad;
+    private final long peakRssBytes;
+    private final long averageRssBytes;
+    private final int peakThreads;
+    private final int averageThreads;
+    private final int peakOpenFiles;
+    private final int averageOpenFiles;
+
+    ProcessResourceUsage(long pid, int samples, long durationMsec, long cpuTimeMsec, double averageCpuLoad, double peakCpuLoad,
+            long peakRssBytes, long averageRssBytes, int peakThreads, int averageThreads,
+            int peakOpenFiles, int averageOpenFiles) {
+        this.pid = pid;
+        this.samples = samples;
+        this.durationMsec = durationMsec;
+        this.cpuTimeMsec = cpuTimeMsec;
+        this.averageCpuLoad = averageCpuLoad;
+        this.peakCpuLoad = peakCpuLoad;
+        this.peakRssBytes = peakRssBytes;
+        this.averageRssBytes = averageRssBytes;
+        this.peakThreads = peakThreads;
+        this.averageThreads = averageThreads;
+        this.peakOpenFiles = peakOpenFiles;
+        this.averageOpenFiles = averageOpenFiles;
+    }
+
+    public long getProcessId() {
+        return pid;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    /** Time between the first and last samples */
+    public long getDurationMsec() {
+        return durationMsec;
+    }
+
+    /** CPU time used by the process since it started, user and system */
+    public long getCpuTimeMsec() {
+        return cpuTimeMsec;
+    }
+
+    /** Average number of cores used by the process between the first and last samples */
+    public double getAverageCpuLoad() {
+        return averageCpuLoad;
+    }
+
+    /** Highest number of cores used by the process between two samples */
+    public double getPeakCpuLoad() {
+        return peakCpuLoad;
+    }
+
+    /** Resident set size */
+    public long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    public long getAverageRssBytes() {
+        return averageRssBytes;
+    }
+
+    public int getPeakThreads() {
+        return peakThreads;
+    }
+
+    public int getAverageThreads() {
+        return averageThreads;
+    }
+
+    public int getPeakOpenFiles() {
+        return peakOpenFiles;
+    }
+
+    public int getAverageOpenFiles() {
+        return averageOpenFiles;
+    }
+
+    private static String mb(long bytes) {
+        return bytes < 0 ? "-1" : String.valueOf(bytes / (1024 * 1024));
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Process ").append(pid).append(": ").append(samples).append(" samples over ").append(durationMsec).append(" msec\n");
+        sb.append(String.format("CPU time: %d msec, average load %.2f cores, peak %.2f cores%n",
+                cpuTimeMsec, averageCpuLoad, peakCpuLoad));
+        sb.append("RSS: peak ").append(mb(peakRssBytes)).append(" MB, average ").append(mb(averageRssBytes)).append(" MB\n");
+        sb.append("Threads: peak ").append(peakThreads).append(", average ").append(averageThreads).append('\n');
+        sb.append("Open files: peak ").append(peakOpenFiles).append(", average ").append(averageOpenFiles).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jarexec;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Optional;
+
+/** Access to the process IDs and CPU times of Java 9 and later, through
+ *  reflection so that this package still runs on Java 8. There the process
+ *  ID is read from the JDK's process implementation, and the CPU time is
+ *  not available.
+ */
+class Processes {
+
+    private static final Method PID = findMethod("java.lang.Process", "pid");
+    private static final Method HANDLE_OF = findMethod("java.lang.ProcessHandle", "of", long.class);
+    private static final Method HANDLE_INFO = findMethod("java.lang.ProcessHandle", "info");
+    private static final Method INFO_CPU = findMethod("java.lang.ProcessHandle$Info", "totalCpuDuration");
+
+    private Processes() {
+    }
+
+    private static Method findMethod(String className, String name, Class<?> ... parameterTypes) {
+        try {
+            return Class.forName(className).getMethod(name, parameterTypes);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Return the ID of the supplied process, -1 if it's not available */
+    static long getPid(Process p) {
+        try {
+            if (PID != null) {
+                return (Long)PID.invoke(p);
+            }
+            // Java 8 on Unix
+            final Field f = p.getClass().getDeclaredField("pid");
+            f.setAccessible(true);
+            return f.getInt(p);
+        } catch (Exception e) {
+            // UnsupportedOperationException from pid(), or not a Unix process
+            return -1;
+        }
+    }
+
+    /** Return the CPU time used so far by the supplied process,
+     *  -1 if it's not available or the process is not running
+     */
+    static long getCpuTimeMsec(long pid) {
+        if (HANDLE_OF == null || HANDLE_INFO == null || INFO_CPU == null) {
+            return -1;
+        }
+        try {
+            final Optional<?> h = (Optional<?>)HANDLE_OF.invoke(null, pid);
+            if (!h.isPresent()) {
+                return -1;
+            }
+            final Optional<?> cpu = (Optional<?>)INFO_CPU.invoke(HANDLE_INFO.invoke(h.get()));
+            return cpu.isPresent() ? ((Duration)cpu.get()).toMillis() : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -20,6 +20,9 @@ import java.util.Timer;
 import java.util.TimerTask;
 
 import org.apache.commons.exec.ProcessDestroyer;
+import org.apache.sling.testing.serversetup.event.InstanceEvent;
+import org.apache.sling.testing.serversetup.event.InstanceEvents;
+import org.apache.sling.testing.serversetup.jfr.JfrSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,13 +34,22 @@ class ShutdownHookSingleProcessDestroyer implements ProcessDestroyer, Runnable {
     private final Logger log = LoggerFactory.getLogger(getClass());
     private Thread shutdownHookThread;
     private Process process;
+    private long processStartTime = -1;
     private final int timeoutSeconds;
     private final String processInfo;
+    private final String instanceName;
     private boolean waitOnShutdown = false;
+    private volatile Runnable beforeDestroy;
     
     public ShutdownHookSingleProcessDestroyer(String processInfo, int timeoutSeconds) {
+        this(processInfo, timeoutSeconds, processInfo);
+    }
+
+    /** @param instanceName used for the {@link InstanceEvent}s that we publish */
+    public ShutdownHookSingleProcessDestroyer(String processInfo, int timeoutSeconds, String instanceName) {
         this.processInfo = processInfo;
         this.timeoutSeconds = timeoutSeconds;
+        this.instanceName = instanceName;
     }
     
     public boolean getWaitOnShutdown() {
@@ -48,6 +60,11 @@ class ShutdownHookSingleProcessDestroyer implements ProcessDestroyer, Runnable {
         this.waitOnShutdown = waitOnShutdown;
     }
 
+    /** Set an action that runs before our process is destroyed, while it's still alive */
+    public void setBeforeDestroy(Runnable r) {
+        beforeDestroy = r;
+    }
+
     public synchronized boolean add(Process p) {
         if(process != null) {
             throw new IllegalStateException("Process already set: " + process);
@@ -59,6 +76,7 @@ class ShutdownHookSingleProcessDestroyer implements ProcessDestroyer, Runnable {
         }
         
         process = p;
+        processStartTime = System.currentTimeMillis();
         return true;
     }
 
@@ -70,12 +88,39 @@ class ShutdownHookSingleProcessDestroyer implements ProcessDestroyer, Runnable {
     public int size() {
         return 1;
     }
+
+    /** True if our process is set and still running */
+    public synchronized boolean isAlive() {
+        return process != null && process.isAlive();
+    }
+
+    /** Return the ID of our process, or -1 if it's not set or not running */
+    public synchronized long getProcessId() {
+        if (!isAlive()) {
+            return -1;
+        }
+        return Processes.getPid(process);
+    }
+
+    /** Return the time at which our process was started, or -1 if it's not set or not running */
+    public synchronized long getProcessStartTime() {
+        return isAlive() ? processStartTime : -1;
+    }
     
     public void run() {
         destroyProcess(waitOnShutdown);
     }
     
    public void destroyProcess(boolean waitForIt) {
+       final Runnable r = beforeDestroy;
+       if (r != null && isAlive()) {
+           try {
+               r.run();
+           } catch (RuntimeException e) {
+               log.warn("Exception before destroying process " + processInfo, e);
+           }
+       }
+
        Process toDestroy = null;
        synchronized (this) {
            toDestroy = process;
@@ -86,32 +131,48 @@ class ShutdownHookSingleProcessDestroyer implements ProcessDestroyer, Runnable {
            return;
        }
        
+       final JfrSupport.Span event = JfrSupport.begin(JfrSupport.PROCESS_STOP);
        toDestroy.destroy();
+       InstanceEvents.publish(InstanceEvent.Type.PROCESS_STOPPED, instanceName, processInfo);
        
-       if(waitForIt) {
-           log.info("Waiting for destroyed process {} to exit (timeout={} seconds)", processInfo, timeoutSeconds);
-           final Thread mainThread = Thread.currentThread();
-           final Timer t = new Timer(true);
-           final TimerTask task = new TimerTask() {
-                @Override
-                public void run() {
-                    mainThread.interrupt();
-                }
-           };
-           t.schedule(task, timeoutSeconds * 1000L);
-           try {
-               toDestroy.waitFor();
-               try {
-                   final int exit = toDestroy.exitValue();
-                   log.info("Process {} ended with exit code {}", processInfo, exit);
-               } catch(IllegalStateException ise) {
-                   log.error("Failed to destroy process " + processInfo);
-               }
-           } catch (InterruptedException e) {
-               log.error("Timeout waiting for process " + processInfo + " to exit");
-            } finally {
-                t.cancel();
-            }
+       try {
+           if(waitForIt) {
+               waitForExit(toDestroy);
+           }
+       } finally {
+           if (event.shouldCommit()) {
+               event.set("instanceName", instanceName)
+                   .set("processInfo", processInfo)
+                   .set("waited", waitForIt)
+                   .set("exitCode", toDestroy.isAlive() ? -1 : toDestroy.exitValue())
+                   .commit();
+           }
        }
    }
+
+   private void waitForExit(Process toDestroy) {
+       log.info("Waiting for destroyed process {} to exit (timeout={} seconds)", processInfo, timeoutSeconds);
+       final Thread mainThread = Thread.currentThread();
+       final Timer t = new Timer(true);
+       final TimerTask task = new TimerTask() {
+            @Override
+            public void run() {
+                mainThread.interrupt();
+            }
+       };
+       t.schedule(task, timeoutSeconds * 1000L);
+       try {
+           toDestroy.waitFor();
+           try {
+               final int exit = toDestroy.exitValue();
+               log.info("Process {} ended with exit code {}", processInfo, exit);
+           } catch(IllegalStateException ise) {
+               log.error("Failed to destroy process " + processInfo);
+           }
+       } catch (InterruptedException e) {
+           log.error("Timeout waiting for process " + processInfo + " to exit");
+        } finally {
+            t.cancel();
+        }
+   }
 }
\ No newline at end of file
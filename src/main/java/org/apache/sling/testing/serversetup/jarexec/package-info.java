@@ -17,7 +17,7 @@
  * under the License.
  */
 
-@Version("1.0.0")
+@Version("1.2.0")
 package org.apache.sling.testing.serversetup.jarexec;
 
 import org.osgi.annotation.versioning.Version;
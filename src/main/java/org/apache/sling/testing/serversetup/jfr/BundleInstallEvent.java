@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** One step of the installation of an additional bundle */
+@Name("org.apache.sling.testing.serversetup.BundleInstall")
+@Label("Bundle Install Step")
+@Category({ "Sling", "Server Setup" })
+@StackTrace(false)
+public class BundleInstallEvent extends Event {
+
+    @Label("Server URL")
+    public String serverUrl;
+
+    @Label("Bundle Symbolic Name")
+    public String symbolicName;
+
+    @Label("Step")
+    @Description("upload, start or uninstall")
+    public String step;
+
+    @Label("Skipped")
+    @Description("True if the bundle was already installed unchanged and not uploaded")
+    public boolean skipped;
+
+    @Label("Failed")
+    public boolean failed;
+}
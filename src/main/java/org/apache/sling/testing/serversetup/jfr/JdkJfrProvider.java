@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jfr;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import jdk.jfr.Event;
+
+/** The {@link JfrSupport} provider that uses jdk.jfr, compiled for Java 11
+ *  like our event classes, and loaded by name.
+ */
+class JdkJfrProvider implements JfrSupport.Provider {
+
+    private static class EventSpan implements JfrSupport.Span {
+        private final Event event;
+
+        EventSpan(Event event) {
+            this.event = event;
+            event.begin();
+        }
+
+        public boolean shouldCommit() {
+            return event.shouldCommit();
+        }
+
+        public JfrSupport.Span set(String field, Object value) {
+            try {
+                event.getClass().getField(field).set(event, value);
+            } catch (NoSuchFieldException e) {
+                throw new IllegalArgumentException("No field " + field + " in " + event.getClass().getName(), e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot set field " + field + " of " + event.getClass().getName(), e);
+            }
+            return this;
+        }
+
+        public void commit() {
+            event.commit();
+        }
+    }
+
+    public JfrSupport.Span begin(String eventType) {
+        final Event event;
+        if (JfrSupport.SETUP_PHASE.equals(eventType)) {
+            event = new SetupPhaseEvent();
+        } else if (JfrSupport.PROCESS_START.equals(eventType)) {
+            event = new ProcessStartEvent();
+        } else if (JfrSupport.PROCESS_STOP.equals(eventType)) {
+            event = new ProcessStopEvent();
+        } else if (JfrSupport.READINESS_PROBE.equals(eventType)) {
+            event = new ReadinessProbeEvent();
+        } else if (JfrSupport.BUNDLE_INSTALL.equals(eventType)) {
+            event = new BundleInstallEvent();
+        } else if (JfrSupport.QUIET_PERIOD.equals(eventType)) {
+            event = new QuietPeriodEvent();
+        } else {
+            throw new IllegalArgumentException("Unknown event type " + eventType);
+        }
+        return new EventSpan(event);
+    }
+
+    public String summarize(Path recording, int top) throws IOException {
+        return RecordingSummary.parse(recording, top).toString();
+    }
+}
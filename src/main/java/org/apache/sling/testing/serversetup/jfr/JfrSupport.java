@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jfr;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Entry point to the Java Flight Recorder features of this package, that
+ *  require the jdk.jfr module of Java 11 or later. On older JVMs events are
+ *  not emitted and recordings are not summarized, so that the server setup
+ *  tools also run on Java 8.
+ *
+ *  Our event classes and {@link RecordingSummary} are only loaded when
+ *  jdk.jfr is available, code that must run on Java 8 uses them through
+ *  this class.
+ */
+public final class JfrSupport {
+
+    public static final String SETUP_PHASE = "SetupPhaseEvent";
+    public static final String PROCESS_START = "ProcessStartEvent";
+    public static final String PROCESS_STOP = "ProcessStopEvent";
+    public static final String READINESS_PROBE = "ReadinessProbeEvent";
+    public static final String BUNDLE_INSTALL = "BundleInstallEvent";
+    public static final String QUIET_PERIOD = "QuietPeriodEvent";
+
+    private static final Logger log = LoggerFactory.getLogger(JfrSupport.class);
+
+    /** An event that is being timed. Its fields only need to be set, by name,
+     *  if {@link #shouldCommit} is true.
+     */
+    public interface Span {
+        boolean shouldCommit();
+
+        Span set(String field, Object value);
+
+        void commit();
+    }
+
+    /** Implemented by the classes that use jdk.jfr */
+    interface Provider {
+        Span begin(String eventType);
+
+        String summarize(Path recording, int top) throws IOException;
+    }
+
+    private static final Span NO_SPAN = new Span() {
+        public boolean shouldCommit() {
+            return false;
+        }
+
+        public Span set(String field, Object value) {
+            return this;
+        }
+
+        public void commit() {
+        }
+    };
+
+    private static final Provider PROVIDER = loadProvider();
+
+    private JfrSupport() {
+    }
+
+    private static Provider loadProvider() {
+        try {
+            return (Provider)Class.forName(JfrSupport.class.getPackage().getName() + ".JdkJfrProvider").newInstance();
+        } catch (Exception e) {
+            log.debug("Java Flight Recorder not available ({})", e.toString());
+        } catch (LinkageError e) {
+            log.debug("Java Flight Recorder not available ({})", e.toString());
+        }
+        return null;
+    }
+
+    /** True if our events can be emitted and recordings summarized */
+    public static boolean isAvailable() {
+        return PROVIDER != null;
+    }
+
+    /** Start timing an event of the supplied type, one of the constants of this class */
+    public static Span begin(String eventType) {
+        return PROVIDER == null ? NO_SPAN : PROVIDER.begin(eventType);
+    }
+
+    /** Return the report of a {@link RecordingSummary} of the supplied recording,
+     *  or null if that's not available on this JVM.
+     */
+    public static String summarize(Path recording, int top) throws IOException {
+        return PROVIDER == null ? null : PROVIDER.summarize(recording, top);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Destruction of a server process that a JarExecutor started */
+@Name("org.apache.sling.testing.serversetup.ProcessStop")
+@Label("Process Stop")
+@Category({ "Sling", "Server Setup" })
+@StackTrace(false)
+public class ProcessStopEvent extends Event {
+
+    @Label("Instance Name")
+    public String instanceName;
+
+    @Label("Process")
+    public String processInfo;
+
+    @Label("Waited For Exit")
+    public boolean waited;
+
+    @Label("Exit Code")
+    @Description("Exit code of the process, -1 if not known")
+    public int exitCode = -1;
+}
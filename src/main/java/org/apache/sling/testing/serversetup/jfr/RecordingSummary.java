@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.jfr;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+/** Summary of a flight recording of a server startup: the methods that
+ *  used the most CPU, the share of class loading, the GC pauses and the
+ *  most contended locks.
+ */
+public class RecordingSummary {
+
+    private Instant start;
+    private Instant end;
+    private int cpuSamples;
+    private int classLoadingSamples;
+    private long classesLoaded;
+    private int gcPauses;
+    private Duration gcPauseTotal = Duration.ZERO;
+    private Duration gcPauseMax = Duration.ZERO;
+    private int monitorEnters;
+    private final Map<String, Integer> methodSamples = new HashMap<String, Integer>();
+    private final Map<String, Duration> lockWaits = new HashMap<String, Duration>();
+    private final int top;
+
+    private RecordingSummary(int top) {
+        this.top = top;
+    }
+
+    /** Read a recording
+     *  @param top how many methods and locks to report
+     */
+    public static RecordingSummary parse(Path recording, int top) throws IOException {
+        final RecordingSummary result = new RecordingSummary(top);
+        try (RecordingFile f = new RecordingFile(recording)) {
+            while (f.hasMoreEvents()) {
+                result.add(f.readEvent());
+            }
+        }
+        return result;
+    }
+
+    private void add(RecordedEvent e) {
+        if (start == null || e.getStartTime().isBefore(start)) {
+            start = e.getStartTime();
+        }
+        if (end == null || e.getEndTime().isAfter(end)) {
+            end = e.getEndTime();
+        }
+        final String type = e.getEventType().getName();
+        if ("jdk.ExecutionSample".equals(type)) {
+            addSample(e.getStackTrace());
+        } else if ("jdk.ClassLoadingStatistics".equals(type)) {
+            classesLoaded = Math.max(classesLoaded, e.getLong("loadedClassCount"));
+        } else if ("jdk.GCPhasePause".equals(type)) {
+            gcPauses++;
+            gcPauseTotal = gcPauseTotal.plus(e.getDuration());
+            if (e.getDuration().compareTo(gcPauseMax) > 0) {
+                gcPauseMax = e.getDuration();
+            }
+        } else if ("jdk.JavaMonitorEnter".equals(type)) {
+            monitorEnters++;
+            final RecordedClass c = e.getClass("monitorClass");
+            final String name = c == null ? "unknown" : c.getName();
+            final Duration d = lockWaits.get(name);
+            lockWaits.put(name, d == null ? e.getDuration() : d.plus(e.getDuration()));
+        }
+    }
+
+    private void addSample(RecordedStackTrace stack) {
+        if (stack == null || stack.getFrames().isEmpty()) {
+            return;
+        }
+        cpuSamples++;
+        final String method = format(stack.getFrames().get(0).getMethod());
+        final Integer n = methodSamples.get(method);
+        methodSamples.put(method, n == null ? 1 : n + 1);
+        for (RecordedFrame frame : stack.getFrames()) {
+            if (frame.getMethod().getType().getName().endsWith("ClassLoader")) {
+                classLoadingSamples++;
+                break;
+            }
+        }
+    }
+
+    private static String format(RecordedMethod m) {
+        return m.getType().getName() + "." + m.getName();
+    }
+
+    /** Return the keys of the supplied map with the highest values, in decreasing order */
+    private <T extends Comparable<T>> Map<String, T> top(final Map<String, T> values) {
+        final List<String> keys = new ArrayList<String>(values.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            public int compare(String a, String b) {
+                final int result = values.get(b).compareTo(values.get(a));
+                return result != 0 ? result : a.compareTo(b);
+            }
+        });
+        final Map<String, T> result = new LinkedHashMap<String, T>();
+        for (String key : keys.subList(0, Math.min(top, keys.size()))) {
+            result.put(key, values.get(key));
+        }
+        return result;
+    }
+
+    /** Duration covered by the recorded events, in msec */
+    public long getDurationMsec() {
+        return start == null ? 0 : Duration.between(start, end).toMillis();
+    }
+
+    public int getCpuSamples() {
+        return cpuSamples;
+    }
+
+    /** Number of CPU samples per method, for the methods found at the top of most samples */
+    public Map<String, Integer> getTopMethods() {
+        return top(methodSamples);
+    }
+
+    /** Number of CPU samples with a class loader method in their stack */
+    public int getClassLoadingSamples() {
+        return classLoadingSamples;
+    }
+
+    public long getClassesLoaded() {
+        return classesLoaded;
+    }
+
+    public int getGcPauses() {
+        return gcPauses;
+    }
+
+    public long getGcPauseTotalMsec() {
+        return gcPauseTotal.toMillis();
+    }
+
+    public long getGcPauseMaxMsec() {
+        return gcPauseMax.toMillis();
+    }
+
+    /** Time spent waiting to enter contended monitors, by monitor class, for the most contended ones */
+    public Map<String, Duration> getTopLocks() {
+        return top(lockWaits);
+    }
+
+    private static String percent(int n, int total) {
+        return total == 0 ? "0%" : String.format("%.1f%%", 100.0 * n / total);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Recording duration: ").append(getDurationMsec()).append(" msec\n");
+        sb.append("\nCPU samples: ").append(cpuSamples).append(", top methods:\n");
+        for (Map.Entry<String, Integer> e : getTopMethods().entrySet()) {
+            sb.append(String.format("  %6s %6d  %s%n", percent(e.getValue(), cpuSamples), e.getValue(), e.getKey()));
+        }
+        sb.append("\nClass loading: ").append(classesLoaded).append(" classes loaded, ")
+            .append(classLoadingSamples).append(" CPU samples (").append(percent(classLoadingSamples, cpuSamples))
+            .append(") in class loaders\n");
+        sb.append("\nGC pauses: ").append(gcPauses).append(", total ").append(getGcPauseTotalMsec())
+            .append(" msec, longest ").append(getGcPauseMaxMsec()).append(" msec\n");
+        sb.append("\nContended monitor enters: ").append(monitorEnters).append(", top monitor classes:\n");
+        for (Map.Entry<String, Duration> e : getTopLocks().entrySet()) {
+            sb.append(String.format("  %8d msec  %s%n", e.getValue().toMillis(), e.getKey()));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/** Java Flight Recorder events emitted by the server setup tools, in the
+ *  "Sling / Server Setup" category. They only cost something while a
+ *  recording that enables them is running.
+ *
+ *  Except for {@link org.apache.sling.testing.serversetup.jfr.JfrSupport}
+ *  the classes of this package require Java 11.
+ *
+ *  Also provides a summary of the startup recordings of the servers that
+ *  we start.
+ */
+@Version("1.0.0")
+package org.apache.sling.testing.serversetup.jfr;
+
+import org.osgi.annotation.versioning.Version;
@@ -0,0 +1,647 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.stub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/** A lightweight stand-in for a Sling server, that answers the requests
+ *  that the server setup tools make: readiness checks, and the OSGi console
+ *  bundles list, bundle info, install, start and uninstall requests.
+ *  Installed bundles only exist in memory.
+ *
+ *  Used in-process via {@link #start} and {@link #stop}, or as a runnable
+ *  jar written by {@link #writeRunnableJar} and started by a JarExecutor,
+ *  which passes <code>-p port</code> like the Sling launchpad, see the
+ *  <code>jar.executor.jar.options</code> property. The stub is configured
+ *  by the <code>stub.server.*</code> properties, which are system properties
+ *  for the runnable jar.
+ *
+ *  Only uses JDK classes, so that the runnable jar contains nothing else
+ *  than this class and its nested classes.
+ */
+public class StubSlingServer {
+    public static final String PROP_PREFIX = "stub.server.";
+
+    /** Time before the server is ready, requests get a 503 status until then */
+    public static final String PROP_STARTUP_DELAY_MSEC = PROP_PREFIX + "startup.delay.msec";
+
+    /** Random time added to the startup delay, up to this value */
+    public static final String PROP_STARTUP_JITTER_MSEC = PROP_PREFIX + "startup.jitter.msec";
+
+    /** If true the server never gets ready */
+    public static final String PROP_NEVER_READY = PROP_PREFIX + "never.ready";
+
+    /** Time added to the processing of each request */
+    public static final String PROP_REQUEST_DELAY_MSEC = PROP_PREFIX + "request.delay.msec";
+
+    /** Probability, between 0 and 1, that a request to a ready server gets a 500 status */
+    public static final String PROP_FAILURE_RATE = PROP_PREFIX + "failure.rate";
+
+    /** Time between the start request of a bundle and its Active state */
+    public static final String PROP_BUNDLE_START_DELAY_MSEC = PROP_PREFIX + "bundle.start.delay.msec";
+
+    /** Time over which the initial bundles get resolved and active, one after the
+     *  other and for a random share of that time each, from the start of the server.
+     *  The OSGi console answers GET requests during that time, like a starting Sling
+     *  instance. 0 means that the initial bundles are active from the start.
+     */
+    public static final String PROP_BUNDLE_ACTIVATION_MSEC = PROP_PREFIX + "bundle.activation.msec";
+
+    /** Number of active bundles that the server starts with, besides the framework */
+    public static final String PROP_BUNDLES = PROP_PREFIX + "bundles";
+
+    /** Content returned by GET requests outside of the OSGi console */
+    public static final String PROP_READY_CONTENT = PROP_PREFIX + "ready.content";
+
+    /** Seed of the jitter and failure injection, for repeatable runs */
+    public static final String PROP_SEED = PROP_PREFIX + "seed";
+
+    /** Number of threads that process requests */
+    public static final String PROP_THREADS = PROP_PREFIX + "threads";
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final String DEFAULT_READY_CONTENT = "Stub Sling server ready";
+
+    private static final String CONSOLE_PATH = "/system/console";
+    private static final String BUNDLES_PATH = CONSOLE_PATH + "/bundles";
+    private static final String JSON = "application/json";
+    private static final Pattern PART_NAME = Pattern.compile("[;\\s]name=\"([^\"]*)\"");
+
+    private final int requestedPort;
+    private final long startupDelayMsec;
+    private final boolean neverReady;
+    private final long requestDelayMsec;
+    private final double failureRate;
+    private final long bundleStartDelayMsec;
+    private final long bundleActivationMsec;
+    private final String readyContent;
+    private final int threads;
+    private final Random random;
+    private final Map<String, StubBundle> bundles = new LinkedHashMap<String, StubBundle>();
+    private final List<StubBundle> initialBundles = new ArrayList<StubBundle>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final Map<String, Integer> installCounts = new HashMap<String, Integer>();
+    private long nextBundleId;
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile long readyAt = Long.MAX_VALUE;
+
+    /** A bundle, as seen by the OSGi console */
+    private static class StubBundle {
+        private final long id;
+        private final String symbolicName;
+        private final String version;
+        private final boolean fragment;
+        private String state;
+        private long resolvedAt = -1;
+        private long activeAt = -1;
+
+        StubBundle(long id, String symbolicName, String version, boolean fragment, String state) {
+            this.id = id;
+            this.symbolicName = symbolicName;
+            this.version = version;
+            this.fragment = fragment;
+            this.state = state;
+        }
+
+        String getState(long now) {
+            if (resolvedAt >= 0 && now >= resolvedAt) {
+                state = "Resolved";
+                resolvedAt = -1;
+            }
+            if (activeAt >= 0 && now >= activeAt) {
+                state = "Active";
+                activeAt = -1;
+            }
+            return state;
+        }
+
+        int getStateRaw(long now) {
+            final String s = getState(now);
+            return "Active".equals(s) ? 32 : "Installed".equals(s) ? 2 : 4;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "StubSlingServer-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /** @param port the HTTP port, 0 to use any free port
+     *  @param config our stub.server.* properties
+     */
+    public StubSlingServer(int port, Properties config) {
+        this.requestedPort = port;
+        final String seed = config.getProperty(PROP_SEED);
+        random = seed == null ? new Random() : new Random(Long.parseLong(seed));
+        final int jitter = Integer.parseInt(config.getProperty(PROP_STARTUP_JITTER_MSEC, "0"));
+        startupDelayMsec = Long.parseLong(config.getProperty(PROP_STARTUP_DELAY_MSEC, "0"))
+                + (jitter > 0 ? random.nextInt(jitter) : 0);
+        neverReady = "true".equals(config.getProperty(PROP_NEVER_READY));
+        requestDelayMsec = Long.parseLong(config.getProperty(PROP_REQUEST_DELAY_MSEC, "0"));
+        failureRate = Double.parseDouble(config.getProperty(PROP_FAILURE_RATE, "0"));
+        bundleStartDelayMsec = Long.parseLong(config.getProperty(PROP_BUNDLE_START_DELAY_MSEC, "0"));
+        bundleActivationMsec = Long.parseLong(config.getProperty(PROP_BUNDLE_ACTIVATION_MSEC, "0"));
+        readyContent = config.getProperty(PROP_READY_CONTENT, DEFAULT_READY_CONTENT);
+        threads = Integer.parseInt(config.getProperty(PROP_THREADS, "8"));
+
+        addBundle("org.apache.felix.framework", "6.0.0", false, "Active");
+        final int n = Integer.parseInt(config.getProperty(PROP_BUNDLES, "10"));
+        for (int i = 1; i <= n; i++) {
+            initialBundles.add(addBundle("org.apache.sling.stub.bundle" + i, "1.0." + i, false, "Active"));
+        }
+    }
+
+    /** Start listening, the startup delay starts now */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(requestedPort), 0);
+        executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+        server.setExecutor(executor);
+        server.createContext("/", new Handler());
+        final long now = System.currentTimeMillis();
+        readyAt = now + startupDelayMsec;
+        if (bundleActivationMsec > 0) {
+            scheduleActivation(now);
+        }
+        server.start();
+    }
+
+    /** Make the initial bundles resolved and active one after the other */
+    private void scheduleActivation(long start) {
+        final double [] weights = new double[initialBundles.size()];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 0.5 + random.nextDouble();
+            total += weights[i];
+        }
+        synchronized (bundles) {
+            double elapsed = 0;
+            for (int i = 0; i < weights.length; i++) {
+                final StubBundle b = initialBundles.get(i);
+                final long duration = (long)(bundleActivationMsec * weights[i] / total);
+                b.state = "Installed";
+                b.resolvedAt = start + (long)elapsed + duration / 2;
+                elapsed += bundleActivationMsec * weights[i] / total;
+                b.activeAt = start + (long)elapsed;
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    public synchronized int getPort() {
+        if (server == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return server.getAddress().getPort();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + getPort();
+    }
+
+    public boolean isReady() {
+        return !neverReady && System.currentTimeMillis() >= readyAt;
+    }
+
+    /** The startup delay, including the jitter */
+    public long getStartupDelayMsec() {
+        return startupDelayMsec;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /** Return how many times a bundle was uploaded to this server */
+    public int getInstallCount(String symbolicName) {
+        synchronized (bundles) {
+            final Integer n = installCounts.get(symbolicName);
+            return n == null ? 0 : n;
+        }
+    }
+
+    /** Return the state of a bundle, as shown by the OSGi console, or null if it's not installed */
+    public String getBundleState(String symbolicName) {
+        synchronized (bundles) {
+            final StubBundle b = bundles.get(symbolicName);
+            return b == null ? null : b.getState(System.currentTimeMillis());
+        }
+    }
+
+    private StubBundle addBundle(String symbolicName, String version, boolean fragment, String state) {
+        synchronized (bundles) {
+            final StubBundle b = new StubBundle(nextBundleId++, symbolicName, version, fragment, state);
+            bundles.put(symbolicName, b);
+            return b;
+        }
+    }
+
+    /** Find a bundle by symbolic name or id, must be called while synchronized on bundles */
+    private StubBundle findBundle(String nameOrId) {
+        final StubBundle b = bundles.get(nameOrId);
+        if (b != null) {
+            return b;
+        }
+        for (StubBundle candidate : bundles.values()) {
+            if (String.valueOf(candidate.id).equals(nameOrId)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private class Handler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            requestCount.incrementAndGet();
+            try {
+                if (requestDelayMsec > 0) {
+                    Thread.sleep(requestDelayMsec);
+                }
+                if (!isReady() && !isConsoleAvailable(exchange)) {
+                    send(exchange, 503, "text/plain", "Server is starting");
+                } else if (failureRate > 0 && random.nextDouble() < failureRate) {
+                    send(exchange, 500, "text/plain", "Injected failure");
+                } else {
+                    route(exchange);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(exchange, 503, "text/plain", "Server is stopping");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /** While the initial bundles are being activated, the OSGi console can be read */
+    private boolean isConsoleAvailable(HttpExchange exchange) {
+        return bundleActivationMsec > 0 && "GET".equals(exchange.getRequestMethod())
+                && exchange.getRequestURI().getPath().startsWith(CONSOLE_PATH + "/");
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        final String path = exchange.getRequestURI().getPath();
+        if ("GET".equals(method)) {
+            if (path.equals(BUNDLES_PATH + ".json")) {
+                send(exchange, 200, JSON, bundlesJson(null));
+            } else if (path.startsWith(BUNDLES_PATH + "/") && path.endsWith(".json")) {
+                final String json = bundlesJson(path.substring(BUNDLES_PATH.length() + 1, path.length() - ".json".length()));
+                if (json == null) {
+                    send(exchange, 404, "text/plain", "Bundle not found");
+                } else {
+                    send(exchange, 200, JSON, json);
+                }
+            } else if (path.equals(CONSOLE_PATH + "/components.json")) {
+                send(exchange, 200, JSON, "{\"status\":" + countActive() + ",\"data\":[]}");
+            } else if (path.equals(CONSOLE_PATH + "/services.json")) {
+                final int n = countActive();
+                send(exchange, 200, JSON, "{\"status\":\"Services information: " + n + " services in total.\",\"serviceCount\":"
+                        + n + ",\"data\":[]}");
+            } else if (path.startsWith(CONSOLE_PATH)) {
+                send(exchange, 404, "text/plain", "Not found");
+            } else {
+                send(exchange, 200, "text/html", readyContent);
+            }
+        } else if ("POST".equals(method)) {
+            final byte [] body = readBody(exchange.getRequestBody());
+            if (path.equals(BUNDLES_PATH)) {
+                final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                if (contentType != null && contentType.startsWith("multipart/")) {
+                    install(exchange, parseMultipart(contentType, body));
+                } else {
+                    // refreshPackages, nothing to do
+                    send(exchange, 200, JSON, "{}");
+                }
+            } else if (path.startsWith(BUNDLES_PATH + "/")) {
+                bundleAction(exchange, path.substring(BUNDLES_PATH.length() + 1), parseForm(body).get("action"));
+            } else {
+                send(exchange, 404, "text/plain", "Not found");
+            }
+        } else {
+            send(exchange, 405, "text/plain", "Method not allowed");
+        }
+    }
+
+    private void install(HttpExchange exchange, Map<String, byte []> parts) throws IOException {
+        final byte [] bundleFile = parts.get("bundlefile");
+        Manifest m = null;
+        if (bundleFile != null) {
+            try (JarInputStream jis = new JarInputStream(new ByteArrayInputStream(bundleFile))) {
+                m = jis.getManifest();
+            }
+        }
+        final String symbolicName = m == null ? null : m.getMainAttributes().getValue("Bundle-SymbolicName");
+        if (symbolicName == null) {
+            send(exchange, 400, "text/plain", "Not a bundle");
+            return;
+        }
+        final String version = m.getMainAttributes().getValue("Bundle-Version");
+        final boolean fragment = m.getMainAttributes().getValue("Fragment-Host") != null;
+        final String name = symbolicName.split(";")[0].trim();
+        final StubBundle b;
+        synchronized (bundles) {
+            b = addBundle(name, version == null ? "0.0.0" : version, fragment, fragment ? "Fragment" : "Installed");
+            installCounts.put(name, getInstallCount(name) + 1);
+        }
+        final byte [] start = parts.get("bundlestart");
+        if (start != null && "true".equals(new String(start, StandardCharsets.UTF_8).trim())) {
+            startBundle(b);
+        }
+        exchange.getResponseHeaders().set("Location", BUNDLES_PATH);
+        send(exchange, 302, "text/plain", "");
+    }
+
+    private void bundleAction(HttpExchange exchange, String nameOrId, String action) throws IOException {
+        synchronized (bundles) {
+            final StubBundle b = findBundle(nameOrId);
+            if (b == null) {
+                send(exchange, 404, "text/plain", "Bundle not found");
+                return;
+            }
+            if ("start".equals(action)) {
+                startBundle(b);
+            } else if ("stop".equals(action)) {
+                if (!b.fragment) {
+                    b.state = "Resolved";
+                    b.activeAt = -1;
+                }
+            } else if ("uninstall".equals(action)) {
+                bundles.remove(b.symbolicName);
+                send(exchange, 200, JSON, "{\"fragment\":" + b.fragment + ",\"stateRaw\":1}");
+                return;
+            }
+            send(exchange, 200, JSON, "{\"fragment\":" + b.fragment + ",\"stateRaw\":" + b.getStateRaw(System.currentTimeMillis()) + "}");
+        }
+    }
+
+    private void startBundle(StubBundle b) {
+        synchronized (bundles) {
+            final long now = System.currentTimeMillis();
+            if (b.fragment || "Active".equals(b.getState(now)) || b.activeAt >= 0) {
+                return;
+            }
+            b.state = "Resolved";
+            b.activeAt = now + bundleStartDelayMsec;
+        }
+    }
+
+    private int countActive() {
+        synchronized (bundles) {
+            final long now = System.currentTimeMillis();
+            int n = 0;
+            for (StubBundle b : bundles.values()) {
+                if ("Active".equals(b.getState(now))) {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+    /** Return the JSON of the OSGi console bundles list, or of a single bundle
+     *  if nameOrId is not null, null if that bundle is not found.
+     */
+    private String bundlesJson(String nameOrId) {
+        synchronized (bundles) {
+            final long now = System.currentTimeMillis();
+            final List<StubBundle> selected = new ArrayList<StubBundle>();
+            if (nameOrId == null) {
+                selected.addAll(bundles.values());
+            } else {
+                final StubBundle b = findBundle(nameOrId);
+                if (b == null) {
+                    return null;
+                }
+                selected.add(b);
+            }
+
+            // counts are total, active, fragment, resolved, installed
+            final int [] s = new int[5];
+            final StringBuilder data = new StringBuilder();
+            for (StubBundle b : bundles.values()) {
+                final String state = b.getState(now);
+                s[0]++;
+                s["Active".equals(state) ? 1 : "Fragment".equals(state) ? 2 : "Resolved".equals(state) ? 3 : 4]++;
+            }
+            for (StubBundle b : selected) {
+                if (data.length() > 0) {
+                    data.append(',');
+                }
+                data.append("{\"id\":").append(b.id)
+                    .append(",\"name\":").append(quote(b.symbolicName))
+                    .append(",\"fragment\":").append(b.fragment)
+                    .append(",\"stateRaw\":").append(b.getStateRaw(now))
+                    .append(",\"state\":").append(quote(b.getState(now)))
+                    .append(",\"version\":").append(quote(b.version))
+                    .append(",\"symbolicName\":").append(quote(b.symbolicName))
+                    .append(",\"category\":\"\",\"props\":[]}");
+            }
+            return "{\"status\":\"Bundle information: " + s[0] + " bundles in total, " + s[1] + " bundles active, "
+                    + s[2] + " bundles active fragments, " + s[3] + " bundles resolved, " + s[4] + " bundles installed.\""
+                    + ",\"s\":[" + s[0] + "," + s[1] + "," + s[2] + "," + s[3] + "," + s[4] + "]"
+                    + ",\"data\":[" + data + "]}";
+        }
+    }
+
+    private static String quote(String str) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (char c : str.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int)c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        final byte [] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + ";charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            final OutputStream os = exchange.getResponseBody();
+            os.write(bytes);
+            os.flush();
+        }
+    }
+
+    private static byte [] readBody(InputStream is) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final byte [] buffer = new byte[16384];
+        int n;
+        while ((n = is.read(buffer)) > 0) {
+            bos.write(buffer, 0, n);
+        }
+        return bos.toByteArray();
+    }
+
+    private static Map<String, String> parseForm(byte [] body) throws IOException {
+        final Map<String, String> result = new HashMap<String, String>();
+        for (String pair : new String(body, StandardCharsets.ISO_8859_1).split("&")) {
+            final int idx = pair.indexOf('=');
+            if (idx > 0) {
+                result.put(URLDecoder.decode(pair.substring(0, idx), "UTF-8"), URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+            }
+        }
+        return result;
+    }
+
+    /** Return the parts of a multipart/form-data body, by name */
+    static Map<String, byte []> parseMultipart(String contentType, byte [] body) {
+        final Map<String, byte []> parts = new HashMap<String, byte []>();
+        final int b = contentType.indexOf("boundary=");
+        if (b < 0) {
+            return parts;
+        }
+        String boundary = contentType.substring(b + "boundary=".length());
+        if (boundary.indexOf(';') >= 0) {
+            boundary = boundary.substring(0, boundary.indexOf(';'));
+        }
+        final byte [] delimiter = ("--" + boundary.trim().replace("\"", "")).getBytes(StandardCharsets.ISO_8859_1);
+        final byte [] headersEnd = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        int pos = indexOf(body, delimiter, 0);
+        while (pos >= 0) {
+            final int partStart = pos + delimiter.length + 2;
+            final int next = indexOf(body, delimiter, partStart);
+            if (next < 0) {
+                break;
+            }
+            final int h = indexOf(body, headersEnd, partStart);
+            if (h >= 0 && h < next) {
+                final Matcher m = PART_NAME.matcher(new String(body, partStart, h - partStart, StandardCharsets.ISO_8859_1));
+                if (m.find()) {
+                    // the part's content is followed by CRLF and the next delimiter
+                    parts.put(m.group(1), Arrays.copyOfRange(body, h + headersEnd.length, next - 2));
+                }
+            }
+            pos = next;
+        }
+        return parts;
+    }
+
+    private static int indexOf(byte [] data, byte [] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** Write a runnable jar that starts a StubSlingServer, to be started
+     *  by a JarExecutor. Its name must match the jar.executor.jar.name.regexp
+     *  pattern, which by default requires names that start with org.apache.sling.
+     *  @return jarFile
+     */
+    public static File writeRunnableJar(File jarFile) throws IOException {
+        final Manifest m = new Manifest();
+        m.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        m.getMainAttributes().put(Attributes.Name.MAIN_CLASS, StubSlingServer.class.getName());
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jarFile), m)) {
+            addClass(jos, StubSlingServer.class);
+        }
+        return jarFile;
+    }
+
+    private static void addClass(JarOutputStream jos, Class<?> c) throws IOException {
+        final String name = c.getName().replace('.', '/') + ".class";
+        try (InputStream is = c.getClassLoader().getResourceAsStream(name)) {
+            if (is == null) {
+                throw new IOException("Class file not found: " + name);
+            }
+            jos.putNextEntry(new JarEntry(name));
+            jos.write(readBody(is));
+            jos.closeEntry();
+        }
+        for (Class<?> nested : c.getDeclaredClasses()) {
+            addClass(jos, nested);
+        }
+    }
+
+    /** Start a stub server on the port specified by <code>-p port</code>,
+     *  configured by system properties.
+     */
+    public static void main(String [] args) throws IOException {
+        int port = DEFAULT_PORT;
+        for (int i = 0; i < args.length - 1; i++) {
+            if ("-p".equals(args[i])) {
+                port = Integer.parseInt(args[i + 1]);
+            }
+        }
+        final StubSlingServer server = new StubSlingServer(port, System.getProperties());
+        server.start();
+        System.out.println("StubSlingServer listening on port " + server.getPort()
+                + ", ready in " + server.getStartupDelayMsec() + " msec");
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test that the whole Map API of LayeredProperties reads the resolved values.
+ *  In this package as LayeredProperties is not public.
+ */
+public class LayeredPropertiesTest {
+    private Properties global;
+    private LayeredProperties layered;
+    private Properties expected;
+
+    @Before
+    public void setup() {
+        global = new Properties();
+        global.setProperty("a", "global-a");
+        global.setProperty("b", "global-b");
+        global.setProperty("i1.a", "i1-a");
+        global.setProperty("i1.c", "i1-c");
+        global.setProperty("i2.a", "i2-a");
+        layered = new LayeredProperties(global, LayeredProperties.indexKeys(global), "i1");
+
+        expected = new Properties();
+        expected.setProperty("a", "i1-a");
+        expected.setProperty("b", "global-b");
+        expected.setProperty("c", "i1-c");
+        expected.setProperty("i1.a", "i1-a");
+        expected.setProperty("i1.c", "i1-c");
+        expected.setProperty("i2.a", "i2-a");
+    }
+
+    @Test
+    public void testReads() {
+        assertEquals("i1-a", layered.getProperty("a"));
+        assertEquals("i1-a", layered.get("a"));
+        assertEquals("i1-c", layered.getOrDefault("c", "none"));
+        assertEquals("none", layered.getOrDefault("d", "none"));
+        assertTrue(layered.containsKey("c"));
+        assertTrue(layered.containsValue("global-b"));
+        assertTrue(layered.contains("i1-c"));
+        assertFalse(layered.containsValue("global-a"));
+        assertEquals(6, layered.size());
+        assertEquals(new TreeSet<Object>(expected.values()), new TreeSet<Object>(layered.values()));
+        assertEquals(new TreeSet<Object>(expected.values()), new TreeSet<Object>(Collections.list(layered.elements())));
+        assertEquals(new TreeSet<Object>(expected.keySet()), new TreeSet<Object>(Collections.list(layered.keys())));
+    }
+
+    @Test
+    public void testForEach() {
+        final Map<Object, Object> seen = new TreeMap<Object, Object>();
+        layered.forEach(new BiConsumer<Object, Object>() {
+            public void accept(Object key, Object value) {
+                seen.put(key, value);
+            }
+        });
+        assertEquals(new TreeMap<Object, Object>(expected), seen);
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        assertTrue(layered.equals(expected));
+        assertTrue(expected.equals(layered));
+        assertEquals(expected.hashCode(), layered.hashCode());
+        assertFalse(layered.equals(global));
+    }
+
+    @Test
+    public void testCloneIsPlainCopy() {
+        final Object copy = layered.clone();
+        assertEquals(Properties.class, copy.getClass());
+        assertEquals(expected, copy);
+    }
+
+    @Test
+    public void testStoreAndList() throws Exception {
+        final StringWriter w = new StringWriter();
+        layered.store(w, null);
+        final Properties loaded = new Properties();
+        loaded.load(new StringReader(w.toString()));
+        assertEquals(expected, loaded);
+
+        final ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        layered.storeToXML(xml, null);
+        final Properties loadedXml = new Properties();
+        loadedXml.loadFromXML(new ByteArrayInputStream(xml.toByteArray()));
+        assertEquals(expected, loadedXml);
+
+        final StringWriter listed = new StringWriter();
+        layered.list(new PrintWriter(listed));
+        assertTrue(listed.toString(), listed.toString().contains("c=i1-c"));
+    }
+
+    @Test
+    public void testSerializedAsPlainCopy() throws Exception {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(layered);
+        oos.close();
+        final Object copy = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+        assertNotSame(layered, copy);
+        assertEquals(Properties.class, copy.getClass());
+        assertEquals(expected, copy);
+    }
+
+    @Test
+    public void testReadOnly() {
+        try {
+            layered.setProperty("d", "x");
+            fail("Expected setProperty to fail");
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            layered.putIfAbsent("d", "x");
+            fail("Expected putIfAbsent to fail");
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            layered.merge("a", "x", null);
+            fail("Expected merge to fail");
+        } catch (UnsupportedOperationException expected) {
+        }
+        assertNull(layered.getProperty("d"));
+    }
+
+    @Test
+    public void testKeyIndexSeesReplacedKeys() {
+        final Properties props = new Properties();
+        props.setProperty("p.1", "one");
+        final LayeredProperties.KeyIndex index = LayeredProperties.KeyIndex.of(props, null);
+        assertSame(index, LayeredProperties.KeyIndex.of(props, index));
+
+        // same size, other keys
+        props.remove("p.1");
+        props.setProperty("p.2", "two");
+        final LayeredProperties.KeyIndex updated = LayeredProperties.KeyIndex.of(props, index);
+        assertNotSame(index, updated);
+        assertEquals(Collections.singletonMap("p.2", "two"), LayeredProperties.withPrefix(updated, "p."));
+    }
+
+    @Test
+    public void testKeyIndexSeesDefaults() {
+        final Properties defaults = new Properties();
+        final Properties props = new Properties(defaults);
+        final LayeredProperties.KeyIndex index = LayeredProperties.KeyIndex.of(props, null);
+        assertTrue(LayeredProperties.withPrefix(index, "p.").isEmpty());
+
+        defaults.setProperty("p.1", "one");
+        final LayeredProperties.KeyIndex updated = LayeredProperties.KeyIndex.of(props, index);
+        assertEquals(Collections.singletonMap("p.1", "one"), LayeredProperties.withPrefix(updated, "p."));
+    }
+}
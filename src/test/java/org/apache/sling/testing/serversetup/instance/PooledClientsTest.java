@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import org.apache.sling.testing.clients.osgi.OsgiConsoleClient;
+import org.apache.sling.testing.serversetup.stub.StubSlingServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test the sharing of OsgiConsoleClients by PooledClients.
+ *  In this package as PooledClients is not public.
+ */
+public class PooledClientsTest {
+    private StubSlingServer stub;
+    private PooledClients clients;
+
+    @Before
+    public void setup() throws Exception {
+        stub = new StubSlingServer(0, new Properties());
+        stub.start();
+        clients = new PooledClients();
+    }
+
+    @After
+    public void cleanup() {
+        clients.close();
+        stub.stop();
+    }
+
+    private OsgiConsoleClient get(String username, String password) throws Exception {
+        return clients.get(stub.getUrl(), username, password, 2, 30);
+    }
+
+    @Test
+    public void testSameCredentialsShareClient() throws Exception {
+        assertSame(get("admin", "admin"), get("admin", "admin"));
+    }
+
+    @Test
+    public void testOtherCredentialsGetOtherClient() throws Exception {
+        final OsgiConsoleClient client = get("admin", "admin");
+        assertNotSame(client, get("admin", "other"));
+        assertNotSame(client, get("other", "admin"));
+        assertSame(client, get("admin", "admin"));
+    }
+
+    @Test
+    public void testCloseShutsDownPools() throws Exception {
+        final OsgiConsoleClient client = get("admin", "admin");
+        assertEquals(200, client.doGet("/").getStatusLine().getStatusCode());
+        clients.close();
+        try {
+            client.doGet("/");
+            fail("Expected a closed client to fail");
+        } catch (Exception expected) {
+        }
+
+        final OsgiConsoleClient created = get("admin", "admin");
+        assertNotSame(client, created);
+        assertEquals(200, created.doGet("/").getStatusLine().getStatusCode());
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/** Test the SlingInstanceMonitor of instances that are no longer managed.
+ *  In this package as SlingInstanceMonitor is not public.
+ */
+public class SlingInstanceMonitorTest {
+
+    @Test
+    public void testRecheckAfterRemove() {
+        final String name = getClass().getName();
+        final SlingInstanceMonitor monitor = SlingInstanceState.getInstance(name).getMonitor();
+        SlingInstanceState.remove(name);
+        try {
+            monitor.recheckReadiness();
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("no longer managed"));
+        }
+    }
+}
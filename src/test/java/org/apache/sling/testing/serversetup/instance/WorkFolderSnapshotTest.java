@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.instance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Test capturing and restoring a WorkFolderSnapshot.
+ *  In this package as WorkFolderSnapshot is not public.
+ */
+public class WorkFolderSnapshotTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File work;
+
+    @Before
+    public void setup() throws IOException {
+        work = tmp.newFolder("work");
+        write(new File(work, "a.txt"), "a");
+        write(new File(work, "repository/segments/b.tar"), "b");
+    }
+
+    private static void write(File f, String content) throws IOException {
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File f) throws IOException {
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCaptureAndRestore() throws Exception {
+        final File snapshotFolder = new File(tmp.getRoot(), "snapshots/instance");
+        final WorkFolderSnapshot snapshot = new WorkFolderSnapshot(work, snapshotFolder, 2);
+        assertFalse(snapshot.isCaptured());
+        snapshot.capture();
+        assertTrue(snapshot.isCaptured());
+        assertEquals("b", read(new File(snapshotFolder, "repository/segments/b.tar")));
+
+        write(new File(work, "a.txt"), "modified");
+        write(new File(work, "repository/segments/c.tar"), "added");
+        assertTrue(new File(work, "repository/segments/b.tar").delete());
+        snapshot.restore();
+        assertEquals("a", read(new File(work, "a.txt")));
+        assertEquals("b", read(new File(work, "repository/segments/b.tar")));
+        assertFalse(new File(work, "repository/segments/c.tar").exists());
+    }
+
+    @Test
+    public void testCaptureReplacesPreviousSnapshot() throws Exception {
+        final File snapshotFolder = new File(tmp.getRoot(), "snapshot");
+        write(new File(snapshotFolder, "stale.txt"), "stale");
+        new WorkFolderSnapshot(work, snapshotFolder, 1).capture();
+        assertFalse(new File(snapshotFolder, "stale.txt").exists());
+        assertEquals("a", read(new File(snapshotFolder, "a.txt")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRestoreRequiresCapture() throws Exception {
+        new WorkFolderSnapshot(work, new File(tmp.getRoot(), "snapshot"), 1).restore();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSameFolder() {
+        new WorkFolderSnapshot(work, new File(work, "."), 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSnapshotInsideWorkFolder() {
+        new WorkFolderSnapshot(work, new File(work, "snapshots/instance"), 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSnapshotContainsWorkFolder() {
+        new WorkFolderSnapshot(work, tmp.getRoot(), 1);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Test the resolution of additional bundles to install */
+public class AdditionalBundlesTest {
+    private static int instanceCounter;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private Properties props;
+
+    static class TestBase extends SlingTestBase {
+        TestBase(SlingInstanceState state, Properties props) {
+            super(state, props);
+        }
+
+        @Override
+        public List<File> getBundlesToInstall() {
+            return super.getBundlesToInstall();
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        dir = tmp.newFolder("bundles");
+        for (String name : new String [] { "b-core-1.0.jar", "a-api-2.0.jar", "a-impl-2.0.jar", "a-api-notes.txt" }) {
+            assertTrue(new File(dir, name).createNewFile());
+        }
+        props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:1234");
+        props.setProperty(SlingTestBase.ADDITONAL_BUNDLES_PATH, dir.getAbsolutePath());
+        props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + ".2", "b-");
+        props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + ".1", "a-");
+    }
+
+    private TestBase newTestBase() {
+        return new TestBase(SlingInstanceState.getInstance(getClass().getName() + instanceCounter++), props);
+    }
+
+    private static List<String> names(List<File> files) {
+        final List<String> result = new ArrayList<String>();
+        for (File f : files) {
+            result.add(f.getName());
+        }
+        return result;
+    }
+
+    @Test
+    public void testOrderedByPropertyThenFilename() {
+        assertEquals("[a-api-2.0.jar, a-impl-2.0.jar, b-core-1.0.jar]", names(newTestBase().getBundlesToInstall()).toString());
+    }
+
+    @Test
+    public void testNoPath() {
+        props.remove(SlingTestBase.ADDITONAL_BUNDLES_PATH);
+        assertTrue(newTestBase().getBundlesToInstall().isEmpty());
+    }
+
+    @Test
+    public void testResolutionIsCached() {
+        final TestBase tb = newTestBase();
+        assertSame(tb.getBundlesToInstall(), tb.getBundlesToInstall());
+    }
+
+    @Test
+    public void testConfigChangeInvalidatesCache() {
+        final TestBase tb = newTestBase();
+        assertEquals(3, tb.getBundlesToInstall().size());
+        props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + ".1", "a-impl");
+        assertEquals("[a-impl-2.0.jar, b-core-1.0.jar]", names(tb.getBundlesToInstall()).toString());
+    }
+
+    @Test
+    public void testAddedPrefixInvalidatesCache() {
+        final TestBase tb = newTestBase();
+        props.remove(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + ".2");
+        assertEquals("[a-api-2.0.jar, a-impl-2.0.jar]", names(tb.getBundlesToInstall()).toString());
+        props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + ".0", "b-");
+        assertEquals("[b-core-1.0.jar, a-api-2.0.jar, a-impl-2.0.jar]", names(tb.getBundlesToInstall()).toString());
+    }
+
+    @Test
+    public void testFolderChangeInvalidatesCache() throws Exception {
+        final TestBase tb = newTestBase();
+        assertEquals(3, tb.getBundlesToInstall().size());
+        assertTrue(new File(dir, "b-extra-1.0.jar").createNewFile());
+        assertTrue(dir.setLastModified(dir.lastModified() + 2000));
+        assertEquals("[a-api-2.0.jar, a-impl-2.0.jar, b-core-1.0.jar, b-extra-1.0.jar]",
+                names(tb.getBundlesToInstall()).toString());
+    }
+}
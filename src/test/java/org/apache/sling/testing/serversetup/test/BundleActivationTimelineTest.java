@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.apache.sling.testing.serversetup.stub.StubSlingServer;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Test the bundle activation timeline captured while waiting for a server to be ready */
+public class BundleActivationTimelineTest {
+    @Rule
+    public StubServerRule fixture = new StubServerRule();
+
+    @Test
+    public void testTimelineReport() throws Exception {
+        final Properties config = new Properties();
+        config.setProperty(StubSlingServer.PROP_BUNDLES, "5");
+        config.setProperty(StubSlingServer.PROP_BUNDLE_ACTIVATION_MSEC, "2000");
+        config.setProperty(StubSlingServer.PROP_STARTUP_DELAY_MSEC, "2500");
+        final StubSlingServer stub = fixture.newStub(config);
+
+        final Properties props = fixture.serverProperties();
+        props.setProperty(SlingTestBase.SERVER_READY_BUNDLE_TIMELINE_POLL_PROP, "20");
+        props.setProperty(JarExecutor.PROP_REPORTS_FOLDER, fixture.getFolder().getAbsolutePath());
+        final SlingTestBase base = new SlingTestBase(SlingInstanceState.getInstance("timeline"), props);
+        stub.start();
+        base.getServerBaseUrl();
+
+        final File report = new File(fixture.getFolder(), "timeline-bundle-activation.txt");
+        assertTrue(report.isFile());
+        final String text = new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+        assertTrue(text, text.matches("(?s)Bundle activations of instance timeline: [1-5] of 6 bundles seen getting active.*"));
+        // the last bundle gets active long after the first poll
+        assertTrue(text, text.contains("org.apache.sling.stub.bundle5\n"));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.management.ObjectName;
+
+import org.apache.sling.testing.serversetup.instance.ElasticInstancePool;
+import org.apache.sling.testing.serversetup.instance.SlingInstance;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Test the ElasticInstancePool configuration */
+public class ElasticInstancePoolTest {
+
+    @Rule
+    public StubServerRule fixture = new StubServerRule();
+
+    @Test
+    public void testMemoryBudget() {
+        final Properties props = new Properties();
+        props.setProperty(ElasticInstancePool.PROP_CPUS_PER_INSTANCE, "1");
+        props.setProperty(ElasticInstancePool.PROP_MEMORY_PER_INSTANCE_MB, "1024");
+        props.setProperty(ElasticInstancePool.PROP_MEMORY_BUDGET_MB, "2048");
+        final ElasticInstancePool pool = new ElasticInstancePool(props);
+        try {
+            assertEquals(Math.min(2, Runtime.getRuntime().availableProcessors()), pool.getMaxInstances());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testConfiguredMaximum() {
+        final Properties props = new Properties();
+        props.setProperty(ElasticInstancePool.PROP_CPUS_PER_INSTANCE, "1");
+        props.setProperty(ElasticInstancePool.PROP_MAX_INSTANCES, "1");
+        final ElasticInstancePool pool = new ElasticInstancePool(props);
+        try {
+            assertEquals(1, pool.getMaxInstances());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotWithExternalServer() {
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4502");
+        new ElasticInstancePool(props);
+    }
+
+    @Test
+    public void testNoJarToStart() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty(JarExecutor.PROP_JAR_FOLDER, "/this/folder/does/not/exist");
+        final ElasticInstancePool pool = new ElasticInstancePool(props);
+        boolean failed = false;
+        try {
+            pool.acquire();
+        } catch (AssertionError expected) {
+            // JarExecutor setup failed
+            failed = true;
+        } finally {
+            pool.close();
+        }
+        assertTrue("Expected acquire to fail", failed);
+        assertEquals(0, pool.getInstanceCount());
+    }
+
+    @Test
+    public void testCloseRemovesInstances() throws Exception {
+        // the pool assigns its own ports
+        final Properties props = fixture.runnableJarProperties();
+        props.setProperty(ElasticInstancePool.PROP_MAX_INSTANCES, "1");
+
+        final ElasticInstancePool pool = new ElasticInstancePool(props);
+        final String name;
+        final File workFolder;
+        try {
+            final SlingInstance instance = pool.acquire();
+            final Set<ObjectName> mbeans = ManagementFactory.getPlatformMBeanServer().queryNames(
+                    new ObjectName("org.apache.sling.testing.serversetup:type=SlingInstance,name=\"elastic*\""), null);
+            assertEquals(1, mbeans.size());
+            name = ObjectName.unquote(mbeans.iterator().next().getKeyProperty("name"));
+            workFolder = getWorkFolder(name);
+            assertTrue("Expected a work folder for " + name, workFolder != null && workFolder.isDirectory());
+            pool.release(instance);
+        } finally {
+            pool.close();
+        }
+        assertFalse("Expected work folder to be deleted", workFolder.exists());
+        assertFalse("Expected MBean to be unregistered", ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName("org.apache.sling.testing.serversetup:type=SlingInstance,name=" + ObjectName.quote(name))));
+    }
+
+    /** Return the newest temporary folder of the supplied instance, older
+     *  test runs might have left folders with the same prefix
+     */
+    private static File getWorkFolder(String instanceName) {
+        File result = null;
+        for (File f : new File(System.getProperty("java.io.tmpdir")).listFiles()) {
+            if (f.getName().startsWith(instanceName + "-") && (result == null || f.lastModified() > result.lastModified())) {
+                result = f;
+            }
+        }
+        return result;
+    }
+}
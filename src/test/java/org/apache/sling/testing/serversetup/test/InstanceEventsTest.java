@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.testing.serversetup.event.InstanceEvent;
+import org.apache.sling.testing.serversetup.event.InstanceEventListener;
+import org.apache.sling.testing.serversetup.event.InstanceEvents;
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test the InstanceEvents published by SlingTestBase */
+public class InstanceEventsTest {
+
+    private final BlockingQueue<InstanceEvent> events = new LinkedBlockingQueue<InstanceEvent>();
+    private final String instanceName = getClass().getName();
+
+    private final InstanceEventListener listener = new InstanceEventListener() {
+        public void onEvent(InstanceEvent event) {
+            if (instanceName.equals(event.getInstanceName())) {
+                events.add(event);
+            }
+        }
+    };
+
+    @Before
+    public void setup() {
+        InstanceEvents.addListener(listener);
+    }
+
+    @After
+    public void cleanup() {
+        InstanceEvents.removeListener(listener);
+    }
+
+    @Test
+    public void testStartupEvents() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4508");
+        new SlingTestBase(SlingInstanceState.getInstance(instanceName), props).getServerBaseUrl();
+
+        final List<InstanceEvent.Type> types = new ArrayList<InstanceEvent.Type>();
+        long lastNanoTime = Long.MIN_VALUE;
+        for (int i = 0; i < 3; i++) {
+            final InstanceEvent e = events.poll(10, TimeUnit.SECONDS);
+            types.add(e.getType());
+            assertTrue("Expecting monotonic timestamps", e.getNanoTime() >= lastNanoTime);
+            lastNanoTime = e.getNanoTime();
+        }
+        assertEquals("[SERVER_READY, BUNDLES_INSTALLED, QUIET_PERIOD_DONE]", types.toString());
+    }
+}
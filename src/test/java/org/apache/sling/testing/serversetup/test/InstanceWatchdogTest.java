@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.testing.serversetup.instance.LifecycleState;
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/** Test the watchdog against an HTTP server that goes away */
+public class InstanceWatchdogTest {
+
+    @Test
+    public void testUnhealthyServerFailsFast() throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:" + server.getAddress().getPort());
+        props.setProperty(SlingTestBase.SERVER_WATCHDOG_INTERVAL_PROP, "1");
+        props.setProperty(SlingTestBase.SERVER_WATCHDOG_TIMEOUT_PROP, "1");
+        props.setProperty(SlingTestBase.SERVER_WATCHDOG_MAX_FAILURES_PROP, "2");
+        final SlingInstanceState state = SlingInstanceState.getInstance(getClass().getName());
+
+        try {
+            assertFalse(state.awaitReady(10, TimeUnit.MILLISECONDS));
+            new SlingTestBase(state, props).getServerBaseUrl();
+            assertEquals(LifecycleState.SETTLED, state.getLifecycleState());
+            Thread.sleep(1500);
+            assertEquals("Server still healthy", LifecycleState.SETTLED, state.getLifecycleState());
+            assertTrue(state.awaitReady(0, TimeUnit.MILLISECONDS));
+        } finally {
+            server.stop(0);
+        }
+
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (state.getLifecycleState() != LifecycleState.FAILED && System.currentTimeMillis() < timeout) {
+            Thread.sleep(100);
+        }
+        assertEquals(LifecycleState.FAILED, state.getLifecycleState());
+        assertFalse("Expected unhealthy server to not be ready", state.awaitReady(100, TimeUnit.MILLISECONDS));
+
+        final long start = System.currentTimeMillis();
+        boolean failed = false;
+        try {
+            new SlingTestBase(state, props).getServerBaseUrl();
+        } catch (AssertionError expected) {
+            failed = true;
+        }
+        assertTrue("Expected unhealthy server to fail the test", failed);
+        assertTrue("Expected to fail fast", System.currentTimeMillis() - start < 5000);
+        assertEquals(0, state.getRestartCount());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.apache.sling.testing.serversetup.ServerSetup;
+import org.apache.sling.testing.serversetup.SetupPhase;
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.apache.sling.testing.serversetup.stub.StubSlingServer;
+import org.junit.Test;
+
+/** Test that our JFR events are recorded */
+public class JfrEventsTest {
+
+    private static final String PREFIX = "org.apache.sling.testing.serversetup.";
+
+    @Test
+    public void testEventsRecorded() throws Exception {
+        final StubSlingServer stub = new StubSlingServer(0, new Properties());
+        final File dump = File.createTempFile(getClass().getSimpleName(), ".jfr");
+        final List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        try (Recording r = new Recording()) {
+            r.enable(PREFIX + "SetupPhase");
+            r.enable(PREFIX + "ReadinessProbe");
+            r.start();
+
+            final ServerSetup setup = new ServerSetup();
+            setup.addSetupPhase(new SetupPhase() {
+                public void run(ServerSetup owner) {
+                }
+
+                public boolean isStartupPhase() {
+                    return false;
+                }
+
+                public String getId() {
+                    return "jfr.test.shutdown";
+                }
+            });
+            final Properties config = new Properties();
+            config.setProperty(ServerSetup.PHASES_TO_RUN_PROP, "jfr.test.shutdown");
+            setup.setConfig(config);
+            setup.shutdown();
+
+            stub.start();
+            final Properties props = new Properties();
+            props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, stub.getUrl());
+            props.setProperty(SlingTestBase.SERVER_READY_PROP_PREFIX + ".1", "/:" + StubSlingServer.DEFAULT_READY_CONTENT);
+            new SlingTestBase(SlingInstanceState.getInstance(getClass().getName()), props).getServerBaseUrl();
+
+            r.stop();
+            r.dump(dump.toPath());
+            events.addAll(RecordingFile.readAllEvents(dump.toPath()));
+        } finally {
+            stub.stop();
+            dump.delete();
+        }
+
+        int phases = 0;
+        int probes = 0;
+        for (RecordedEvent e : events) {
+            final String name = e.getEventType().getName();
+            if (name.equals(PREFIX + "SetupPhase")) {
+                phases++;
+                assertEquals("jfr.test.shutdown", e.getString("phaseId"));
+                assertFalse(e.getBoolean("startup"));
+            } else if (name.equals(PREFIX + "ReadinessProbe")) {
+                probes++;
+                assertEquals(getClass().getName(), e.getString("instanceName"));
+                assertTrue(e.getBoolean("success"));
+            }
+        }
+        assertEquals(1, phases);
+        assertEquals(1, probes);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.sling.testing.serversetup.ServerSetup;
+import org.apache.sling.testing.serversetup.SetupPhase;
+import org.apache.sling.testing.serversetup.instance.LifecycleState;
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.apache.sling.testing.serversetup.stub.StubSlingServer;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Test the MBeans that expose setup and instance metrics */
+public class JmxMonitorTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Rule
+    public StubServerRule fixture = new StubServerRule();
+
+    @Test
+    public void testInstanceMBean() throws Exception {
+        final StubSlingServer stub = fixture.newStub(new Properties());
+        stub.start();
+        new SlingTestBase(SlingInstanceState.getInstance(getClass().getName()), fixture.serverProperties()).getServerBaseUrl();
+
+        final ObjectName name = new ObjectName("org.apache.sling.testing.serversetup:type=SlingInstance,name="
+                + ObjectName.quote(getClass().getName()));
+        assertEquals("SETTLED", server.getAttribute(name, "LifecycleState"));
+        assertEquals(stub.getUrl(), server.getAttribute(name, "ServerBaseUrl"));
+        assertTrue((Long)server.getAttribute(name, "ReadinessProbeCount") >= 1);
+        assertEquals(-1L, server.getAttribute(name, "ProcessId"));
+        assertEquals(Boolean.TRUE, server.invoke(name, "recheckReadiness", null, null));
+    }
+
+    @Test
+    public void testRestartDoesNotBlock() throws Exception {
+        final Properties props = fixture.runnableJarProperties();
+        props.setProperty(SlingTestBase.KEEP_JAR_RUNNING_PROP, "true");
+        final String instanceName = getClass().getName() + ".restart";
+        final SlingInstanceState state = fixture.getInstance(instanceName);
+        final ObjectName name = new ObjectName("org.apache.sling.testing.serversetup:type=SlingInstance,name="
+                + ObjectName.quote(instanceName));
+
+        // blocks once the server is started, as requested by keepJarRunning
+        final Thread starter = new Thread() {
+            @Override
+            public void run() {
+                new SlingTestBase(state, props).getServerBaseUrl();
+            }
+        };
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            assertTrue(state.awaitState(LifecycleState.SETTLED, 30, TimeUnit.SECONDS));
+            final long pid = (Long)server.getAttribute(name, "ProcessId");
+
+            final long start = System.currentTimeMillis();
+            server.invoke(name, "restart", null, null);
+            assertTrue("Expected restart to return immediately", System.currentTimeMillis() - start < 5000);
+
+            final long timeout = System.currentTimeMillis() + 30000;
+            while (!(state.getRestartCount() == 1 && state.getLifecycleState() == LifecycleState.SETTLED)
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(100);
+            }
+            assertEquals(LifecycleState.SETTLED, state.getLifecycleState());
+            assertEquals(1, state.getRestartCount());
+            assertTrue("Expected a new server process", pid != (Long)server.getAttribute(name, "ProcessId"));
+        } finally {
+            starter.interrupt();
+        }
+    }
+
+    @Test
+    public void testServerSetupMBean() throws Exception {
+        final String id = "jmx.test.phase";
+        final ServerSetup setup = new ServerSetup();
+        setup.addSetupPhase(new SetupPhase() {
+            public void run(ServerSetup owner) {
+                owner.getContext().put(ServerSetup.SERVER_BASE_URL, "http://localhost:1234");
+            }
+
+            public boolean isStartupPhase() {
+                return true;
+            }
+
+            public String getId() {
+                return id;
+            }
+        });
+        final Properties config = new Properties();
+        config.setProperty(ServerSetup.PHASES_TO_RUN_PROP, id);
+        setup.setConfig(config);
+        setup.setupTestServer();
+
+        ObjectName found = null;
+        for (ObjectName name : server.queryNames(new ObjectName("org.apache.sling.testing.serversetup:type=ServerSetup,*"), null)) {
+            if (Arrays.asList((String[])server.getAttribute(name, "PhasesToRun")).contains(id)) {
+                found = name;
+            }
+        }
+        assertNotNull("Expecting a ServerSetup MBean that runs " + id, found);
+        assertArrayEquals(new String[] { id }, (String[])server.getAttribute(found, "DonePhases"));
+        assertArrayEquals(new String[] {}, (String[])server.getAttribute(found, "FailedPhases"));
+        final String[] durations = (String[])server.getAttribute(found, "PhaseDurations");
+        assertEquals(1, durations.length);
+        assertTrue(durations[0], durations[0].matches(id + ": [0-9]+ msec"));
+        assertEquals("http://localhost:1234", server.getAttribute(found, "ServerBaseUrl"));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.apache.sling.testing.serversetup.jarexec.LaunchScheduler;
+import org.junit.After;
+import org.junit.Test;
+
+/** Test the admission control of LaunchScheduler */
+public class LaunchSchedulerTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    private Future<LaunchScheduler.Launch> acquireAsync(final LaunchScheduler s, final String name, final int cores, final long heapMb) {
+        return executor.submit(new Callable<LaunchScheduler.Launch>() {
+            public LaunchScheduler.Launch call() throws Exception {
+                return s.acquire(name, cores, heapMb, 10000);
+            }
+        });
+    }
+
+    /** Wait until the supplied number of launches are waiting */
+    private void awaitWaiting(LaunchScheduler s, int n) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (s.getWaiting() != n && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(n, s.getWaiting());
+    }
+
+    @Test
+    public void testBootingSlotReleasedWhenBooted() throws Exception {
+        final LaunchScheduler s = new LaunchScheduler(1, 0, 0);
+        final LaunchScheduler.Launch a = s.acquire("a", 1, 0, 1000);
+        final Future<LaunchScheduler.Launch> b = acquireAsync(s, "b", 1, 0);
+        awaitWaiting(s, 1);
+        assertFalse(b.isDone());
+        a.booted();
+        assertNotNull(b.get(10, TimeUnit.SECONDS));
+        assertEquals(1, s.getBooting());
+        assertEquals(2, s.getRunning());
+    }
+
+    @Test
+    public void testHeapReleasedWhenStopped() throws Exception {
+        final LaunchScheduler s = new LaunchScheduler(0, 0, 1000);
+        final LaunchScheduler.Launch a = s.acquire("a", 1, 600, 1000);
+        a.booted();
+        final Future<LaunchScheduler.Launch> b = acquireAsync(s, "b", 1, 600);
+        awaitWaiting(s, 1);
+        a.stopped();
+        b.get(10, TimeUnit.SECONDS).stopped();
+        assertEquals(0, s.getRunning());
+        assertEquals(0, s.getReservedHeapMb());
+    }
+
+    @Test
+    public void testOversizedLaunchAdmittedAlone() throws Exception {
+        final LaunchScheduler s = new LaunchScheduler(0, 2, 1000);
+        final LaunchScheduler.Launch a = s.acquire("a", 4, 2000, 1000);
+        assertEquals(4, s.getReservedCores());
+        try {
+            s.acquire("b", 1, 100, 100);
+            fail("Expecting a TimeoutException");
+        } catch (TimeoutException expected) {
+        }
+        assertEquals(0, s.getWaiting());
+        a.stopped();
+        s.acquire("b", 1, 100, 100);
+    }
+
+    @Test
+    public void testSharedSchedulerForConfig() {
+        final Properties config = new Properties();
+        assertNull(LaunchScheduler.forConfig(config));
+        config.setProperty(JarExecutor.PROP_LAUNCH_MAX_BOOTING, "2");
+        final Properties other = new Properties();
+        other.setProperty(JarExecutor.PROP_LAUNCH_MAX_BOOTING, "2");
+        assertSame(LaunchScheduler.forConfig(config), LaunchScheduler.forConfig(other));
+    }
+}
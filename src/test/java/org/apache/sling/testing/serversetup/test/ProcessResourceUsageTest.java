@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.apache.sling.testing.serversetup.jarexec.ProcessResourceUsage;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Test the sampling of the resources used by a process started by JarExecutor */
+public class ProcessResourceUsageTest {
+    @Rule
+    public StubServerRule fixture = new StubServerRule();
+
+    @Test
+    public void testSampling() throws Exception {
+        assumeTrue("Requires /proc", new File("/proc/self/status").canRead());
+        final Properties props = fixture.runnableJarProperties();
+        props.setProperty(JarExecutor.PROP_RESOURCE_SAMPLING_MSEC, "50");
+        props.setProperty(JarExecutor.PROP_REPORTS_FOLDER, fixture.getFolder().getAbsolutePath());
+        props.setProperty(JarExecutor.PROP_INSTANCE_NAME, "sampled");
+        final SlingInstanceState state = fixture.getInstance(getClass().getName());
+
+        new SlingTestBase(state, props).getServerBaseUrl();
+        final JarExecutor jar = state.getJarExecutor();
+        Thread.sleep(200);
+        final ProcessResourceUsage usage = jar.getResourceUsage();
+        assertEquals(jar.getProcessId(), usage.getProcessId());
+        assertTrue(usage.toString(), usage.getSamples() >= 2);
+        assertTrue(usage.toString(), usage.getCpuTimeMsec() > 0);
+        assertTrue(usage.toString(), usage.getPeakRssBytes() >= usage.getAverageRssBytes());
+        assertTrue(usage.toString(), usage.getAverageRssBytes() > 0);
+        assertTrue(usage.toString(), usage.getPeakThreads() > 1);
+        assertTrue(usage.toString(), usage.getPeakOpenFiles() > 2);
+        jar.stop();
+
+        final File report = new File(fixture.getFolder(), "sampled-resources.txt");
+        assertTrue(report.isFile());
+        final String text = new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+        assertTrue(text, text.contains("RSS: peak "));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.testing.serversetup.instance.LifecycleState;
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.apache.sling.testing.serversetup.stub.StubSlingServer;
+import org.junit.After;
+import org.junit.Test;
+
+/** Test the adaptive quiet period against a StubSlingServer */
+public class QuietPeriodTest {
+    private StubSlingServer stub;
+
+    @After
+    public void cleanup() {
+        if (stub != null) {
+            stub.stop();
+        }
+    }
+
+    /** Start a stub server and wait for its quiet period to end
+     *  @return how long that took, in msec
+     */
+    private long waitForQuietPeriod(String name, Properties stubConfig, int quietPeriodSec) throws Exception {
+        stub = new StubSlingServer(0, stubConfig);
+        stub.start();
+
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, stub.getUrl());
+        props.setProperty(SlingTestBase.SERVER_READY_PROP_PREFIX + ".1", "/:" + StubSlingServer.DEFAULT_READY_CONTENT);
+        props.setProperty(SlingTestBase.SERVER_READY_QUIET_PERIOD_PROP, String.valueOf(quietPeriodSec));
+        props.setProperty(SlingTestBase.SERVER_READY_QUIET_PERIOD_STABLE_PROP, "1");
+        props.setProperty(SlingTestBase.SERVER_READY_QUIET_PERIOD_POLL_PROP, "100");
+        final SlingInstanceState state = SlingInstanceState.getInstance(getClass().getName() + "." + name);
+
+        final long start = System.currentTimeMillis();
+        new SlingTestBase(state, props).getServerBaseUrl();
+        final long elapsed = System.currentTimeMillis() - start;
+        assertEquals(LifecycleState.SETTLED, state.getLifecycleState());
+        return elapsed;
+    }
+
+    @Test
+    public void testEndsEarlyOnceSettled() throws Exception {
+        final long elapsed = waitForQuietPeriod("settled", new Properties(), 30);
+        assertTrue("Expected the quiet period to end early, took " + elapsed + " msec", elapsed < 10000);
+    }
+
+    @Test
+    public void testUpperBoundIfNeverSettled() throws Exception {
+        // a bundle changes state every 300 msec on average while the quiet period runs
+        final Properties config = new Properties();
+        config.setProperty(StubSlingServer.PROP_BUNDLES, "100");
+        config.setProperty(StubSlingServer.PROP_BUNDLE_ACTIVATION_MSEC, "60000");
+        final long elapsed = waitForQuietPeriod("busy", config, 3);
+        assertTrue("Expected the full quiet period, took " + elapsed + " msec", elapsed >= 3000);
+        assertTrue("Expected the quiet period to stop at its upper bound, took " + elapsed + " msec", elapsed < 10000);
+    }
+
+    @Test
+    public void testFailsIfOtherTestDoesNotSettle() throws Exception {
+        stub = new StubSlingServer(0, new Properties());
+        stub.start();
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, stub.getUrl());
+        props.setProperty(SlingTestBase.SERVER_READY_PROP_PREFIX + ".1", "/:" + StubSlingServer.DEFAULT_READY_CONTENT);
+        props.setProperty(SlingTestBase.SERVER_READY_QUIET_PERIOD_PROP, "3");
+        final SlingInstanceState state = SlingInstanceState.getInstance(getClass().getName() + ".failed");
+
+        // the first test waits for the quiet period, and the instance fails meanwhile
+        final Thread first = new Thread() {
+            @Override
+            public void run() {
+                new SlingTestBase(state, props).getServerBaseUrl();
+            }
+        };
+        first.setDaemon(true);
+        first.start();
+        assertTrue(state.awaitReady(10, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        final Thread failer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException ignore) {
+                }
+                state.setServerReadyTestFailed(true);
+            }
+        };
+        failer.setDaemon(true);
+        failer.start();
+
+        try {
+            new SlingTestBase(state, props).getServerBaseUrl();
+            fail("Expected the second test to fail as the instance did not settle");
+        } catch (AssertionError expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(state.getInstanceName() + " did not settle"));
+            assertTrue(expected.getMessage(), expected.getMessage().endsWith("FAILED"));
+        } finally {
+            first.join(10000);
+        }
+    }
+}
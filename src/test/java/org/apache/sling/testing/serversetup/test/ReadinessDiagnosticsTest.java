@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.apache.sling.testing.serversetup.stub.StubSlingServer;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Test the diagnostics captured when a server started by JarExecutor does not get ready */
+public class ReadinessDiagnosticsTest {
+    @Rule
+    public StubServerRule fixture = new StubServerRule();
+
+    private static String read(File f) throws IOException {
+        assertTrue(f.getAbsolutePath(), f.isFile());
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testDiagnosticsOnReadinessTimeout() throws Exception {
+        final File folder = fixture.getFolder();
+        final Properties props = fixture.runnableJarProperties();
+        props.setProperty(JarExecutor.PROP_VM_OPTIONS, "-D" + StubSlingServer.PROP_NEVER_READY + "=true");
+        props.setProperty(JarExecutor.PROP_REPORTS_FOLDER, folder.getAbsolutePath());
+        props.setProperty(JarExecutor.PROP_INSTANCE_NAME, "stuck");
+        props.setProperty(JarExecutor.PROP_DIAGNOSTICS_THREAD_DUMPS, "2");
+        props.setProperty(JarExecutor.PROP_DIAGNOSTICS_INTERVAL_SECONDS, "1");
+        props.setProperty(SlingTestBase.SERVER_READY_TIMEOUT_PROP, "2");
+        final SlingInstanceState state = fixture.getInstance(getClass().getName());
+
+        try {
+            new SlingTestBase(state, props).getServerBaseUrl();
+            fail("Expected the server to never get ready");
+        } catch (AssertionError expected) {
+        }
+
+        for (int i = 1; i <= 2; i++) {
+            final String dump = read(new File(folder, "stuck-threads-" + i + ".txt"));
+            assertTrue(dump, dump.contains("StubSlingServer-"));
+        }
+        final String output = read(new File(folder, "stuck-output.txt"));
+        assertTrue(output, output.contains("StubSlingServer listening on port " + fixture.getPort()));
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.testing.serversetup.instance.LifecycleState;
+import org.apache.sling.testing.serversetup.instance.SlingInstance;
+import org.apache.sling.testing.serversetup.instance.SlingInstanceManager;
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Test the SlingInstanceManager, using external server URLs
+ *  without any readiness checks so that no server is needed.
+ */
+public class SlingInstanceManagerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testStartAll() throws Exception {
+        final String author = getClass().getName() + ".author";
+        final String publish = getClass().getName() + ".publish";
+        final Properties props = new Properties();
+        props.setProperty(author + "." + SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4502");
+        props.setProperty(publish + "." + SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4503");
+        props.setProperty(SlingTestBase.START_ALL_INSTANCES_PROP, "true");
+
+        new SlingInstanceManager(props, author, publish);
+        assertEquals(LifecycleState.SETTLED, SlingInstanceState.getInstance(author).getLifecycleState());
+        assertEquals(LifecycleState.SETTLED, SlingInstanceState.getInstance(publish).getLifecycleState());
+    }
+
+    @Test
+    public void testStartAllTimings() throws Exception {
+        final String name = getClass().getName() + ".timings";
+        final Properties props = new Properties();
+        props.setProperty(name + "." + SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4504");
+
+        final SlingInstanceManager m = new SlingInstanceManager(props, name);
+        assertEquals(LifecycleState.STARTING, SlingInstanceState.getInstance(name).getLifecycleState());
+        final Map<String, Long> timings = m.startAll();
+        assertEquals(1, timings.size());
+        assertTrue(timings.get(name) >= 0);
+    }
+
+    @Test
+    public void testInstancePropertiesOverrideGlobalOnes() throws Exception {
+        final String a = getClass().getName() + ".layered.a";
+        final String b = getClass().getName() + ".layered.b";
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4505");
+        props.setProperty(b + "." + SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4506");
+
+        final SlingInstanceManager m = new SlingInstanceManager(props, a, b);
+        assertEquals("http://localhost:4505", SlingInstanceState.getInstance(a).getServerBaseUrl());
+        assertEquals("http://localhost:4506", SlingInstanceState.getInstance(b).getServerBaseUrl());
+        assertEquals("http://localhost:4506", m.getInstance(b).getSlingClient().getUrl().toString().replaceAll("/$", ""));
+    }
+
+    @Test
+    public void testLongestTestsFirstScheduling() throws Exception {
+        final String a = getClass().getName() + ".pool.a";
+        final String b = getClass().getName() + ".pool.b";
+        final File history = tmp.newFile("durations.properties");
+        final Properties durations = new Properties();
+        durations.setProperty(String.class.getName(), "100");
+        durations.setProperty(Integer.class.getName(), "60");
+        durations.setProperty(Long.class.getName(), "50");
+        durations.setProperty(Double.class.getName(), "10");
+        try (OutputStream os = new FileOutputStream(history)) {
+            durations.store(os, null);
+        }
+
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4507");
+        props.setProperty(SlingTestBase.TEST_DURATIONS_FILE_PROP, history.getAbsolutePath());
+        final SlingInstanceManager m = new SlingInstanceManager(props, a, b);
+
+        // 100 + 10 on one instance, 60 + 50 on the other
+        assertSame(m.getInstanceFor(String.class), m.getInstanceFor(Double.class));
+        assertSame(m.getInstanceFor(Integer.class), m.getInstanceFor(Long.class));
+        assertTrue(m.getInstanceFor(String.class) != m.getInstanceFor(Integer.class));
+
+        m.recordDuration(Float.class, 42);
+        final Properties recorded = new Properties();
+        try (InputStream is = new FileInputStream(history)) {
+            recorded.load(is);
+        }
+        assertTrue(recorded.getProperty(Float.class.getName()).startsWith("42,"));
+        assertTrue(recorded.getProperty(String.class.getName()).startsWith("100,"));
+    }
+
+    @Test
+    public void testClassesNotFoundAreNotPlanned() throws Exception {
+        final String a = getClass().getName() + ".phantom.a";
+        final String b = getClass().getName() + ".phantom.b";
+        final File history = tmp.newFile("phantom.properties");
+        final Properties durations = new Properties();
+        // deleted, or from another module
+        durations.setProperty("org.example.DeletedTest", "1000");
+        durations.setProperty(String.class.getName(), "100");
+        durations.setProperty(Integer.class.getName(), "60");
+        durations.setProperty(Long.class.getName(), "50");
+        try (OutputStream os = new FileOutputStream(history)) {
+            durations.store(os, null);
+        }
+
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4508");
+        props.setProperty(SlingTestBase.TEST_DURATIONS_FILE_PROP, history.getAbsolutePath());
+        final SlingInstanceManager m = new SlingInstanceManager(props, a, b);
+
+        // 100 on one instance, 60 + 50 on the other
+        assertSame(m.getInstanceFor(Integer.class), m.getInstanceFor(Long.class));
+        assertTrue(m.getInstanceFor(String.class) != m.getInstanceFor(Integer.class));
+    }
+
+    @Test
+    public void testConcurrentRunsMergeHistory() throws Exception {
+        final File history = tmp.newFile("merged.properties");
+        final long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10);
+        final Properties durations = new Properties();
+        durations.setProperty("stale.Test", "100," + old);
+        durations.setProperty("recent.Test", "200," + System.currentTimeMillis());
+        try (OutputStream os = new FileOutputStream(history)) {
+            durations.store(os, null);
+        }
+
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4508");
+        props.setProperty(SlingTestBase.TEST_DURATIONS_FILE_PROP, history.getAbsolutePath());
+        props.setProperty(SlingTestBase.TEST_DURATIONS_RETENTION_DAYS_PROP, "7");
+        final SlingInstanceManager first = new SlingInstanceManager(props, getClass().getName() + ".merge.a");
+        final SlingInstanceManager second = new SlingInstanceManager(props, getClass().getName() + ".merge.b");
+        first.recordDuration(String.class, 10);
+        second.recordDuration(Integer.class, 20);
+
+        final Properties recorded = new Properties();
+        try (InputStream is = new FileInputStream(history)) {
+            recorded.load(is);
+        }
+        assertTrue(recorded.getProperty(String.class.getName()).startsWith("10,"));
+        assertTrue(recorded.getProperty(Integer.class.getName()).startsWith("20,"));
+        assertTrue(recorded.getProperty("recent.Test").startsWith("200,"));
+        assertNull("Expected stale entry to be removed", recorded.getProperty("stale.Test"));
+    }
+
+    @Test
+    public void testUnknownTestsAreSpread() throws Exception {
+        final String [] names = new String[4];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = getClass().getName() + ".spread." + i;
+        }
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:4509");
+        final Set<String> used = new HashSet<String>();
+        for (Class<?> c : new Class<?> [] { String.class, Integer.class, Long.class, Double.class, Float.class, Short.class }) {
+            // a new manager for each class, like in separate JVMs
+            final SlingInstanceManager m = new SlingInstanceManager(props, names);
+            final SlingInstance instance = m.getInstanceFor(c);
+            for (String name : names) {
+                if (m.getInstance(name) == instance) {
+                    used.add(name);
+                }
+            }
+        }
+        assertTrue("Expected unknown test classes on more than one instance: " + used, used.size() > 1);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.testing.serversetup.instance.LifecycleState;
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.junit.Test;
+
+/** Test the SlingInstanceState lifecycle transitions */
+public class SlingInstanceStateTest {
+    private static int instanceCounter;
+
+    private SlingInstanceState newState() {
+        return SlingInstanceState.getInstance(getClass().getName() + instanceCounter++);
+    }
+
+    @Test
+    public void testSameInstanceForName() {
+        final SlingInstanceState s = newState();
+        assertSame(s, SlingInstanceState.getInstance(s.getInstanceName()));
+    }
+
+    @Test
+    public void testSingleWinnerForTransition() throws Exception {
+        final SlingInstanceState s = newState();
+        final int nThreads = 8;
+        final AtomicInteger winners = new AtomicInteger();
+        final CountDownLatch go = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            for (int i = 0; i < nThreads; i++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            go.await();
+                            if (s.transition(LifecycleState.NEW, LifecycleState.STARTING)) {
+                                winners.incrementAndGet();
+                            }
+                        } catch (InterruptedException ignore) {
+                        }
+                    }
+                });
+            }
+            go.countDown();
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, winners.get());
+        assertEquals(LifecycleState.STARTING, s.getLifecycleState());
+    }
+
+    @Test
+    public void testAwaitReady() throws Exception {
+        final SlingInstanceState s = newState();
+        assertFalse(s.awaitReady(10, TimeUnit.MILLISECONDS));
+        new Thread() {
+            public void run() {
+                s.setServerReady(true);
+            }
+        }.start();
+        assertTrue(s.awaitReady(10, TimeUnit.SECONDS));
+        assertTrue(s.awaitState(LifecycleState.STARTING, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFailureReleasesWaiters() throws Exception {
+        final SlingInstanceState s = newState();
+        s.setServerStarted(true);
+        new Thread() {
+            public void run() {
+                s.setServerReadyTestFailed(true);
+            }
+        }.start();
+        assertFalse(s.awaitReady(10, TimeUnit.SECONDS));
+        assertEquals(LifecycleState.FAILED, s.getLifecycleState());
+        s.setQuietPeriodComplete(true);
+        assertEquals("Failed state is final", LifecycleState.FAILED, s.getLifecycleState());
+    }
+
+    @Test
+    public void testNotReadyOnceFailed() throws Exception {
+        final SlingInstanceState s = newState();
+        // waiting before the state is reached creates the future that it completes
+        assertFalse(s.awaitReady(10, TimeUnit.MILLISECONDS));
+        s.setServerReady(true);
+        assertTrue(s.awaitReady(10, TimeUnit.MILLISECONDS));
+        s.setServerReadyTestFailed(true);
+        assertEquals(LifecycleState.FAILED, s.getLifecycleState());
+        assertFalse(s.awaitReady(10, TimeUnit.MILLISECONDS));
+        assertFalse(s.awaitState(LifecycleState.STARTING, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBundlesUninstalledGoesBackToReady() {
+        final SlingInstanceState s = newState();
+        s.setServerReady(true);
+        s.setExtraBundlesInstalled(true);
+        s.setQuietPeriodComplete(true);
+        assertEquals(LifecycleState.SETTLED, s.getLifecycleState());
+        s.setExtraBundlesInstalled(false);
+        assertEquals(LifecycleState.READY, s.getLifecycleState());
+    }
+}
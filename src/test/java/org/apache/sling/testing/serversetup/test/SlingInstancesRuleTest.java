@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.testing.clients.SlingClient;
+import org.apache.sling.testing.serversetup.instance.SlingInstance;
+import org.apache.sling.testing.serversetup.instance.SlingInstancesRule;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.MultipleFailureException;
+import org.junit.runners.model.Statement;
+
+/** Test the concurrent mode of SlingInstancesRule */
+public class SlingInstancesRuleTest {
+
+    private static List<SlingInstance> instances(int n) {
+        final List<SlingInstance> result = new ArrayList<SlingInstance>();
+        for (int i = 0; i < n; i++) {
+            final String url = "http://localhost:" + (4500 + i);
+            result.add(new SlingInstance() {
+                public String getServerBaseUrl() {
+                    return url;
+                }
+
+                public String getServerUsername() {
+                    return "admin";
+                }
+
+                public String getServerPassword() {
+                    return "admin";
+                }
+
+                public SlingClient getSlingClient() {
+                    return null;
+                }
+            });
+        }
+        return result;
+    }
+
+    @Test
+    public void testConcurrentEvaluation() throws Throwable {
+        final int n = 5;
+        final SlingInstancesRule rule = new SlingInstancesRule(instances(n), true);
+        final CountDownLatch allRunning = new CountDownLatch(n);
+        final Set<String> seen = new TreeSet<String>();
+        rule.apply(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                allRunning.countDown();
+                // only completes if all instances are evaluated at the same time
+                assertTrue(allRunning.await(10, TimeUnit.SECONDS));
+                synchronized (seen) {
+                    seen.add(rule.getSlingInstance().getServerBaseUrl());
+                }
+            }
+        }, Description.EMPTY).evaluate();
+        assertEquals(n, seen.size());
+    }
+
+    @Test
+    public void testFailuresAreAggregated() throws Throwable {
+        final SlingInstancesRule rule = new SlingInstancesRule(instances(3), true);
+        try {
+            rule.apply(new Statement() {
+                @Override
+                public void evaluate() throws Throwable {
+                    if (!rule.getSlingInstance().getServerBaseUrl().endsWith("4501")) {
+                        fail("failed for " + rule.getSlingInstance().getServerBaseUrl());
+                    }
+                }
+            }, Description.EMPTY).evaluate();
+            fail("Expected a MultipleFailureException");
+        } catch (MultipleFailureException e) {
+            assertEquals(2, e.getFailures().size());
+            final Set<String> messages = new TreeSet<String>();
+            for (Throwable t : e.getFailures()) {
+                assertTrue(t instanceof AssertionError);
+                messages.add(t.getMessage());
+            }
+            assertEquals("[Instance http://localhost:4500: java.lang.AssertionError: failed for http://localhost:4500, "
+                    + "Instance http://localhost:4502: java.lang.AssertionError: failed for http://localhost:4502]",
+                    messages.toString());
+        }
+    }
+}
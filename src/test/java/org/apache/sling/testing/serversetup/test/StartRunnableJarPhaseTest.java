@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Properties;
+
+import org.apache.sling.testing.serversetup.ServerSetup;
+import org.apache.sling.testing.serversetup.StartRunnableJarPhase;
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.apache.sling.testing.serversetup.jarexec.LaunchScheduler;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Test the StartRunnableJarPhase */
+public class StartRunnableJarPhaseTest {
+    @Rule
+    public StubServerRule fixture = new StubServerRule();
+
+    private boolean isPortOpen() {
+        try {
+            new Socket("localhost", fixture.getPort()).close();
+            return true;
+        } catch (IOException notYet) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testBootSlotReleasedOncePortIsOpen() throws Exception {
+        final Properties props = fixture.runnableJarProperties();
+        // a budget that no other test uses, so that the scheduler is ours
+        props.setProperty(JarExecutor.PROP_LAUNCH_MAX_BOOTING, "1");
+        props.setProperty(JarExecutor.PROP_LAUNCH_MAX_CORES, "1000");
+        final LaunchScheduler scheduler = LaunchScheduler.forConfig(props);
+        final ServerSetup owner = new ServerSetup();
+        final StartRunnableJarPhase phase = new StartRunnableJarPhase(owner, "start", "test", props);
+
+        phase.run(owner);
+        try {
+            // the slot is held until the port is open, booting is read first
+            // so that a closed port means it was closed when it was read
+            int closedSamples = 0;
+            final long timeout = System.currentTimeMillis() + 30000;
+            while (System.currentTimeMillis() < timeout) {
+                final int booting = scheduler.getBooting();
+                if (isPortOpen()) {
+                    break;
+                }
+                closedSamples++;
+                assertEquals("Expecting the boot slot to be held before the port is open", 1, booting);
+                Thread.sleep(10);
+            }
+            assertTrue("Expecting the port to be closed right after the phase", closedSamples > 0);
+
+            while (scheduler.getBooting() > 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, scheduler.getBooting());
+            assertEquals(1, scheduler.getRunning());
+        } finally {
+            phase.getKillPhase("kill").run(owner);
+        }
+        assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test
+    public void testBootSlotReleasedWhenProcessEnds() throws Exception {
+        final Properties props = fixture.runnableJarProperties();
+        // the stub exits at once with an invalid port
+        props.setProperty(JarExecutor.PROP_JAR_OPTIONS, "-p invalid");
+        props.setProperty(JarExecutor.PROP_LAUNCH_MAX_BOOTING, "1");
+        props.setProperty(JarExecutor.PROP_LAUNCH_MAX_CORES, "1001");
+        final LaunchScheduler scheduler = LaunchScheduler.forConfig(props);
+        final ServerSetup owner = new ServerSetup();
+        final StartRunnableJarPhase phase = new StartRunnableJarPhase(owner, "start", "test", props);
+
+        phase.run(owner);
+        final long timeout = System.currentTimeMillis() + 30000;
+        while (scheduler.getBooting() > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, scheduler.getBooting());
+        assertFalse(isPortOpen());
+        phase.getKillPhase("kill").run(owner);
+        assertEquals(0, scheduler.getRunning());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Test the startup history and its regression check */
+public class StartupHistoryTest {
+    @Rule
+    public StubServerRule fixture = new StubServerRule();
+
+    @Test
+    public void testRegressionDetected() throws Exception {
+        final String instanceName = getClass().getName();
+        final File history = new File(fixture.getFolder(), "startup-history.csv");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(history), StandardCharsets.UTF_8)) {
+            w.write("timestamp,instance,spawnMsec,portOpenMsec,readyMsec,bundlesInstallMsec,quietPeriodMsec,totalMsec\n");
+            for (int i = 0; i < 5; i++) {
+                w.write("2024-01-01T00:00:0" + i + "," + instanceName + ",1,1,1,1,1,5\n");
+                w.write("2024-01-01T00:00:0" + i + ",some.other.instance,1,1,1,1,1,999999\n");
+            }
+        }
+
+        final Properties props = fixture.runnableJarProperties();
+        props.setProperty(SlingTestBase.STARTUP_HISTORY_FILE_PROP, history.getAbsolutePath());
+        props.setProperty(SlingTestBase.STARTUP_HISTORY_FAIL_PROP, "true");
+        final SlingInstanceState state = fixture.getInstance(instanceName);
+
+        try {
+            new SlingTestBase(state, props).getServerBaseUrl();
+            fail("Expecting a startup time regression");
+        } catch (AssertionError expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Startup of instance " + instanceName + " took"));
+        }
+
+        final List<String> lines = Files.readAllLines(history.toPath(), StandardCharsets.UTF_8);
+        assertEquals(12, lines.size());
+        final String [] last = lines.get(11).split(",");
+        assertEquals(8, last.length);
+        assertEquals(instanceName, last[1]);
+        for (int i = 2; i < last.length; i++) {
+            assertTrue("Expecting a known duration in " + lines.get(11), Long.parseLong(last[i]) >= 0);
+        }
+    }
+}
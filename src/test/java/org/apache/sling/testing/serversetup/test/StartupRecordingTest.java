@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Test the startup recording of a server started by JarExecutor */
+public class StartupRecordingTest {
+    @Rule
+    public StubServerRule fixture = new StubServerRule();
+
+    private Properties recordingProperties() throws IOException {
+        final Properties props = fixture.runnableJarProperties();
+        props.setProperty(JarExecutor.PROP_STARTUP_RECORDING, "true");
+        props.setProperty(JarExecutor.PROP_REPORTS_FOLDER, fixture.getFolder().getAbsolutePath());
+        props.setProperty(JarExecutor.PROP_INSTANCE_NAME, "recorded");
+        return props;
+    }
+
+    @Test
+    public void testRecordingSummary() throws Exception {
+        final SlingInstanceState state = fixture.getInstance(getClass().getName());
+        new SlingTestBase(state, recordingProperties()).getServerBaseUrl();
+
+        assertTrue(new File(fixture.getFolder(), "recorded-startup.jfr").isFile());
+        final File summary = new File(fixture.getFolder(), "recorded-startup-summary.txt");
+        assertTrue(summary.isFile());
+        final String text = new String(Files.readAllBytes(summary.toPath()), StandardCharsets.UTF_8);
+        assertTrue(text, text.contains("CPU samples: "));
+        assertTrue(text, text.contains("classes loaded"));
+        assertTrue(text, text.contains("GC pauses: "));
+    }
+
+    @Test
+    public void testRestartIsNotRecorded() throws Exception {
+        final SlingInstanceState state = fixture.getInstance(getClass().getName() + ".restart");
+        new SlingTestBase(state, recordingProperties()).getServerBaseUrl();
+        final JarExecutor jar = state.getJarExecutor();
+        final File recording = new File(fixture.getFolder(), "recorded-startup.jfr");
+        assertTrue(recording.delete());
+
+        jar.stop();
+        jar.start();
+        waitForPort(jar.getServerPort());
+        assertNull(jar.dumpStartupRecording());
+        assertFalse(recording.exists());
+    }
+
+    private static void waitForPort(int port) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < timeout) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException notYet) {
+                Thread.sleep(100);
+            }
+        }
+        fail("Port " + port + " did not open");
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.apache.sling.testing.serversetup.stub.StubSlingServer;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.TemporaryFolder;
+
+/** Test fixture that provides a temporary folder and a free port to run
+ *  a StubSlingServer, either in-process or as a runnable jar started by
+ *  JarExecutor. Servers and processes started through this rule are
+ *  stopped and the folder deleted after each test.
+ */
+public class StubServerRule extends ExternalResource {
+    private final TemporaryFolder tmp = new TemporaryFolder();
+    private final List<StubSlingServer> stubs = new ArrayList<StubSlingServer>();
+    private final List<SlingInstanceState> instances = new ArrayList<SlingInstanceState>();
+    private int port;
+
+    @Override
+    protected void before() throws Throwable {
+        tmp.create();
+        final ServerSocket s = new ServerSocket(0);
+        port = s.getLocalPort();
+        s.close();
+    }
+
+    @Override
+    protected void after() {
+        for (StubSlingServer stub : stubs) {
+            stub.stop();
+        }
+        for (SlingInstanceState state : instances) {
+            final JarExecutor jar = state.getJarExecutor();
+            if (jar != null && jar.isAlive()) {
+                jar.stop();
+            }
+        }
+        tmp.delete();
+    }
+
+    public File getFolder() {
+        return tmp.getRoot();
+    }
+
+    /** @return a port that was free when the test started */
+    public int getPort() {
+        return port;
+    }
+
+    /** @return a StubSlingServer on our port, stopped after the test. Not started yet. */
+    public StubSlingServer newStub(Properties config) {
+        final StubSlingServer stub = new StubSlingServer(port, config);
+        stubs.add(stub);
+        return stub;
+    }
+
+    /** @return the named instance state, its JarExecutor process is stopped after the test */
+    public SlingInstanceState getInstance(String name) {
+        final SlingInstanceState state = SlingInstanceState.getInstance(name);
+        instances.add(state);
+        return state;
+    }
+
+    /** @return properties to use a server on our port, that is ready once the stub is */
+    public Properties serverProperties() {
+        final Properties props = new Properties();
+        props.setProperty(SlingTestBase.TEST_SERVER_URL_PROP, "http://localhost:" + port);
+        props.setProperty(SlingTestBase.SERVER_READY_PROP_PREFIX + ".1", "/:" + StubSlingServer.DEFAULT_READY_CONTENT);
+        return props;
+    }
+
+    /** Write the runnable stub jar to our folder
+     *  @return properties to start it on our port with JarExecutor
+     */
+    public Properties runnableJarProperties() throws IOException {
+        final File jar = new File(getFolder(), "org.apache.sling.stub.jar");
+        if (!jar.exists()) {
+            StubSlingServer.writeRunnableJar(jar);
+        }
+        final Properties props = new Properties();
+        props.setProperty(JarExecutor.PROP_JAR_FOLDER, getFolder().getAbsolutePath());
+        props.setProperty(JarExecutor.PROP_SERVER_PORT, String.valueOf(port));
+        props.setProperty(JarExecutor.PROP_JAR_OPTIONS, "-p $JAREXEC_SERVER_PORT$");
+        props.setProperty(SlingTestBase.SERVER_READY_PROP_PREFIX + ".1", "/:" + StubSlingServer.DEFAULT_READY_CONTENT);
+        return props;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.testing.serversetup.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.apache.sling.testing.serversetup.instance.LifecycleState;
+import org.apache.sling.testing.serversetup.instance.SlingInstanceState;
+import org.apache.sling.testing.serversetup.instance.SlingTestBase;
+import org.apache.sling.testing.serversetup.jarexec.JarExecutor;
+import org.apache.sling.testing.serversetup.stub.StubSlingServer;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Test the startup and bundles installation against a StubSlingServer */
+public class StubSlingServerTest {
+    @Rule
+    public StubServerRule fixture = new StubServerRule();
+
+    private StubSlingServer stub;
+
+    private void writeBundle(String symbolicName) throws IOException {
+        final Manifest m = new Manifest();
+        m.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        m.getMainAttributes().putValue("Bundle-SymbolicName", symbolicName);
+        m.getMainAttributes().putValue("Bundle-Version", "1.0.0");
+        new JarOutputStream(new FileOutputStream(new File(fixture.getFolder(), symbolicName + "-1.0.0.jar")), m).close();
+    }
+
+    /** Write a SNAPSHOT bundle, which is reinstalled on each run unless the
+     *  digest cache knows it. Its size only depends on the length of content.
+     */
+    private File writeSnapshotBundle(String symbolicName, String content) throws IOException {
+        final Manifest m = new Manifest();
+        m.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        m.getMainAttributes().putValue("Bundle-SymbolicName", symbolicName);
+        m.getMainAttributes().putValue("Bundle-Version", "1.0.0.SNAPSHOT");
+        final File f = new File(fixture.getFolder(), symbolicName + "-1.0.0-SNAPSHOT.jar");
+        final byte [] bytes = content.getBytes(StandardCharsets.UTF_8);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        final JarEntry e = new JarEntry("content.txt");
+        e.setMethod(ZipEntry.STORED);
+        e.setSize(bytes.length);
+        e.setCrc(crc.getValue());
+        e.setTime(0);
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(f), m)) {
+            jos.putNextEntry(e);
+            jos.write(bytes);
+            jos.closeEntry();
+        }
+        return f;
+    }
+
+    /** Install the bundles of props on our stub, as a new test run would */
+    private void installBundles(Properties props, String run) {
+        new SlingTestBase(SlingInstanceState.getInstance(getClass().getName() + ".digest." + run), props).getServerBaseUrl();
+    }
+
+    private int getStatus(String path) throws IOException {
+        final HttpURLConnection c = (HttpURLConnection)new URL(path.startsWith("/") ? stub.getUrl() + path : path).openConnection();
+        try {
+            return c.getResponseCode();
+        } finally {
+            c.disconnect();
+        }
+    }
+
+    @Test
+    public void testStartupDelayAndFailures() throws Exception {
+        final Properties config = new Properties();
+        config.setProperty(StubSlingServer.PROP_STARTUP_DELAY_MSEC, "300");
+        config.setProperty(StubSlingServer.PROP_FAILURE_RATE, "1");
+        stub = fixture.newStub(config);
+        stub.start();
+        assertEquals(503, getStatus("/"));
+        Thread.sleep(400);
+        assertEquals(500, getStatus("/"));
+    }
+
+    @Test
+    public void testInstallAdditionalBundles() throws Exception {
+        final Properties config = new Properties();
+        config.setProperty(StubSlingServer.PROP_STARTUP_DELAY_MSEC, "200");
+        config.setProperty(StubSlingServer.PROP_BUNDLE_START_DELAY_MSEC, "100");
+        stub = fixture.newStub(config);
+        stub.start();
+        writeBundle("org.example.stub.a");
+        writeBundle("org.example.stub.b");
+
+        final Properties props = fixture.serverProperties();
+        props.setProperty(SlingTestBase.ADDITONAL_BUNDLES_PATH, fixture.getFolder().getAbsolutePath());
+        props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + ".1", "org.example.stub.a");
+        props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + ".2", "org.example.stub.b");
+        final SlingInstanceState state = SlingInstanceState.getInstance(getClass().getName() + ".install");
+
+        new SlingTestBase(state, props).getServerBaseUrl();
+        assertEquals(LifecycleState.SETTLED, state.getLifecycleState());
+        assertEquals("Active", stub.getBundleState("org.example.stub.a"));
+        assertEquals("Active", stub.getBundleState("org.example.stub.b"));
+    }
+
+    private SlingTestBase newUninstallingTestBase(SlingInstanceState state) throws IOException {
+        final Properties config = new Properties();
+        stub = fixture.newStub(config);
+        stub.start();
+        writeBundle("org.example.stub.c");
+
+        final Properties props = fixture.serverProperties();
+        props.setProperty(SlingTestBase.ADDITONAL_BUNDLES_PATH, fixture.getFolder().getAbsolutePath());
+        props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + ".1", "org.example.stub.c");
+        props.setProperty(SlingTestBase.ADDITONAL_BUNDLES_UNINSTALL, "true");
+        final SlingTestBase base = new SlingTestBase(state, props);
+        base.getServerBaseUrl();
+        assertEquals("Active", stub.getBundleState("org.example.stub.c"));
+        return base;
+    }
+
+    @Test
+    public void testUninstallAfterEachTest() throws Exception {
+        final SlingInstanceState state = SlingInstanceState.getInstance(getClass().getName() + ".uninstall");
+        final SlingTestBase base = newUninstallingTestBase(state);
+        base.uninstallAdditionalBundlesIfNecessary();
+        assertNull(stub.getBundleState("org.example.stub.c"));
+        assertEquals(LifecycleState.READY, state.getLifecycleState());
+
+        // the next test installs them again
+        base.getServerBaseUrl();
+        assertEquals("Active", stub.getBundleState("org.example.stub.c"));
+        base.uninstallAdditionalBundlesIfNecessary();
+        assertNull(stub.getBundleState("org.example.stub.c"));
+    }
+
+    @Test
+    public void testUninstallOnLastRelease() throws Exception {
+        final SlingInstanceState state = SlingInstanceState.getInstance(getClass().getName() + ".release");
+        assertEquals(1, state.acquire());
+        assertEquals(2, state.acquire());
+        final SlingTestBase base = newUninstallingTestBase(state);
+        base.uninstallAdditionalBundlesIfNecessary();
+        assertEquals(1, state.release());
+        assertEquals("Active", stub.getBundleState("org.example.stub.c"));
+        assertEquals(0, state.release());
+        assertNull(stub.getBundleState("org.example.stub.c"));
+        try {
+            state.release();
+            fail("Expected release without acquire to fail");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(0, state.getUsageCount());
+    }
+
+    @Test
+    public void testRunnableJar() throws Exception {
+        final Properties props = fixture.runnableJarProperties();
+        props.setProperty(JarExecutor.PROP_VM_OPTIONS, "-D" + StubSlingServer.PROP_STARTUP_DELAY_MSEC + "=500");
+        final SlingInstanceState state = fixture.getInstance(getClass().getName() + ".jar");
+
+        final SlingTestBase base = new SlingTestBase(state, props);
+        assertEquals("http://localhost:" + fixture.getPort(), base.getServerBaseUrl());
+        assertTrue(base.isServerStartedByThisClass());
+        assertEquals(LifecycleState.SETTLED, state.getLifecycleState());
+    }
+
+    @Test
+    public void testResetFromSnapshot() throws Exception {
+        final File work = new File(fixture.getFolder(), "work");
+        assertTrue(work.mkdirs());
+        final File snapshots = new File(fixture.getFolder(), "snapshots");
+        final Properties props = fixture.runnableJarProperties();
+        props.setProperty(JarExecutor.PROP_WORK_FOLDER, work.getAbsolutePath());
+        props.setProperty(SlingTestBase.SERVER_SNAPSHOT_FOLDER_PROP, snapshots.getAbsolutePath());
+        final SlingInstanceState state = fixture.getInstance(getClass().getName() + ".reset");
+        final File marker = new File(work, "marker.txt");
+
+        final SlingTestBase base = new SlingTestBase(state, props);
+        base.getServerBaseUrl();
+        assertFalse("Expected no snapshot before the first reset", snapshots.exists());
+
+        // the first reset takes the snapshot
+        base.reset();
+        assertEquals(LifecycleState.SETTLED, state.getLifecycleState());
+        assertTrue(new File(snapshots, state.getInstanceName()).isDirectory());
+
+        assertTrue(marker.createNewFile());
+        base.reset();
+        assertFalse("Expected work folder to be restored", marker.exists());
+        assertEquals(LifecycleState.SETTLED, state.getLifecycleState());
+        assertEquals(200, getStatus("http://localhost:" + fixture.getPort() + "/"));
+    }
+
+    @Test
+    public void testDigestCacheSkipsUnchangedBundles() throws Exception {
+        stub = fixture.newStub(new Properties());
+        stub.start();
+        writeSnapshotBundle("org.example.stub.d", "aaaa");
+        final File changed = writeSnapshotBundle("org.example.stub.e", "aaaa");
+        // in a folder that does not exist yet
+        final File cache = new File(fixture.getFolder(), "cache/digests.properties");
+
+        final Properties props = fixture.serverProperties();
+        props.setProperty(SlingTestBase.ADDITONAL_BUNDLES_PATH, fixture.getFolder().getAbsolutePath());
+        props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + ".1", "org.example.stub.d");
+        props.setProperty(SlingTestBase.BUNDLE_TO_INSTALL_PREFIX + ".2", "org.example.stub.e");
+        props.setProperty(SlingTestBase.ADDITIONAL_BUNDLES_DIGEST_CACHE, cache.getAbsolutePath());
+
+        installBundles(props, "1");
+        assertEquals(1, stub.getInstallCount("org.example.stub.d"));
+        assertEquals(1, stub.getInstallCount("org.example.stub.e"));
+        assertTrue(cache.isFile());
+
+        installBundles(props, "2");
+        assertEquals("Expected no uploads for unchanged bundles", 1, stub.getInstallCount("org.example.stub.d"));
+        assertEquals("Expected no uploads for unchanged bundles", 1, stub.getInstallCount("org.example.stub.e"));
+
+        // same size, new content and modification time
+        final long size = changed.length();
+        final long lastModified = changed.lastModified();
+        writeSnapshotBundle("org.example.stub.e", "bbbb");
+        assertTrue(changed.setLastModified(lastModified + 2000));
+        assertEquals(size, changed.length());
+        installBundles(props, "3");
+        assertEquals(1, stub.getInstallCount("org.example.stub.d"));
+        assertEquals(2, stub.getInstallCount("org.example.stub.e"));
+
+        // a corrupted cache is ignored, and everything is uploaded again
+        Files.write(cache.toPath(), "server.x=\\uzzzz\n".getBytes(StandardCharsets.ISO_8859_1));
+        installBundles(props, "4");
+        assertEquals(2, stub.getInstallCount("org.example.stub.d"));
+        assertEquals(3, stub.getInstallCount("org.example.stub.e"));
+
+        installBundles(props, "5");
+        assertEquals(2, stub.getInstallCount("org.example.stub.d"));
+        assertEquals(3, stub.getInstallCount("org.example.stub.e"));
+    }
+}